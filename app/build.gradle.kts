@@ -48,6 +48,10 @@ android {
             proguardFiles(getDefaultProguardFile("proguard-android-optimize.txt"), "proguard-rules.pro")
         }
     }
+    sourceSets {
+        // Exported schemas, for migration tests
+        getByName("androidTest").assets.srcDir(File(projectDir, "schemas"))
+    }
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_17
         targetCompatibility = JavaVersion.VERSION_17
@@ -113,12 +117,17 @@ dependencies {
     // Dependencies for the Room ORM
     implementation(libs.room.runtime)
     annotationProcessor(libs.room.compiler)
+    // The framework open helper, wrapped to turn on incremental vacuum (see AutoVacuumOpenHelperFactory)
+    implementation(libs.sqlite.framework)
 
     // optional - Guava support for Room, including Optional and ListenableFuture
     implementation(libs.room.guava)
 
     // optional - Test helpers
-    // testImplementation "androidx.room:room-testing:$room_version"
+    androidTestImplementation(libs.room.testing)
+    // Query plans for the DAO queries, against the exported schema
+    testImplementation(libs.sqlite.jdbc)
+    testImplementation(libs.gson)
 
     // Dependencies for gRPC
     implementation(libs.grpc.okhttp)
@@ -136,4 +145,23 @@ dependencies {
     testImplementation(libs.junit)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
-}
\ No newline at end of file
+    // In-process stand-in for the chat server
+    androidTestImplementation(libs.grpc.inprocess)
+}
+tasks.withType<Test>().configureEach {
+    if (name != "benchmark") {
+        exclude("**/*Benchmark.class")
+    }
+}
+
+// Run with: ./gradlew :app:benchmark
+tasks.register<Test>("benchmark") {
+    description = "Runs the database and wire encoding benchmarks."
+    group = "verification"
+    val unitTest = tasks.named<Test>("testDebugUnitTest")
+    testClassesDirs = files(unitTest.map { it.testClassesDirs })
+    classpath = files(unitTest.map { it.classpath })
+    include("**/*Benchmark.class")
+    // The benchmarks report their timings in the test output
+    testLogging.showStandardStreams = true
+}
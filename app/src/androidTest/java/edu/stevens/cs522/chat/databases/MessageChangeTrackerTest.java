@@ -0,0 +1,128 @@
+package edu.stevens.cs522.chat.databases;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.Peer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that observers are only notified of committed changes to their own chatroom or sender.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageChangeTrackerTest {
+
+    private static final String[] CHATROOMS = { "general", "other" };
+
+    private static final String[] SENDERS = { "alice", "bob" };
+
+    private ChatDatabase chatDatabase;
+
+    private MessageChangeTracker changeTracker;
+
+    private final BlockingQueue<String> notifications = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws InterruptedException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        chatDatabase = Room.inMemoryDatabaseBuilder(context, ChatDatabase.class).build();
+        for (String chatroom : CHATROOMS) {
+            chatDatabase.chatroomDao().insert(new Chatroom(chatroom));
+        }
+        for (String sender : SENDERS) {
+            Peer peer = new Peer();
+            peer.name = sender;
+            peer.timestamp = Instant.now();
+            chatDatabase.peerDao().upsert(peer);
+        }
+
+        changeTracker = chatDatabase.getMessageChangeTracker();
+        for (String chatroom : CHATROOMS) {
+            changeTracker.observeChatroom(chatroom, () -> notifications.add("chatroom " + chatroom));
+        }
+        for (String sender : SENDERS) {
+            changeTracker.observeSender(sender, () -> notifications.add("sender " + sender));
+        }
+        // Every observer is notified once the triggers are in place
+        for (int i = 0; i < CHATROOMS.length + SENDERS.length; i++) {
+            assertNotNull(notifications.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        chatDatabase.close();
+    }
+
+    @Test
+    public void onlyAffectedKeys() throws InterruptedException {
+        long suppressed = changeTracker.getSuppressed();
+        chatDatabase.requestDao().insert(message("general", "alice", 1));
+
+        assertNotified("chatroom general", "sender alice");
+        assertEquals(suppressed + 2, changeTracker.getSuppressed());
+
+        // Both the old and the new keys are affected by an update
+        chatDatabase.runInTransaction(() -> chatDatabase.getOpenHelper().getWritableDatabase()
+                .execSQL("UPDATE Message SET chatroom = 'other', sender = 'bob' WHERE seqNum = 1"));
+        assertNotified("chatroom general", "chatroom other", "sender alice", "sender bob");
+    }
+
+    @Test
+    public void notRolledBack() throws InterruptedException {
+        try {
+            chatDatabase.runInTransaction(() -> {
+                chatDatabase.requestDao().insert(message("general", "alice", 1));
+                throw new IllegalStateException("Roll back");
+            });
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        chatDatabase.requestDao().insert(message("other", "bob", 2));
+
+        assertNotified("chatroom other", "sender bob");
+    }
+
+    private void assertNotified(String... expected) throws InterruptedException {
+        Set<String> actual = new HashSet<>();
+        for (int i = 0; i < expected.length; i++) {
+            String notification = notifications.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Missing notification", notification);
+            actual.add(notification);
+        }
+        assertEquals(new HashSet<>(Arrays.asList(expected)), actual);
+        assertNull(notifications.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    private static Message message(String chatroom, String sender, long seqNum) {
+        Message message = new Message();
+        message.chatroom = chatroom;
+        message.sender = sender;
+        message.seqNum = seqNum;
+        message.messageText = "Message " + seqNum;
+        message.timestamp = Instant.now();
+        return message;
+    }
+
+}
@@ -0,0 +1,183 @@
+package edu.stevens.cs522.chat.databases;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.UUID;
+
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.settings.Settings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Applies retention policies by count and by age, checking that unsent messages and the
+ * watermark for a chatroom survive, and that the space freed is given back.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageRetentionTest {
+
+    private static final String TEST_DB = "retention-test.db";
+
+    private static final String CHATROOM = "general";
+
+    private static final String SENDER = "retention-test";
+
+    private static final Instant NOW = Instant.parse("2025-06-01T00:00:00Z");
+
+    private Context context;
+
+    private ChatDatabase chatDatabase;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DB);
+        // A file, rather than in memory, so that vacuum has something to give back
+        chatDatabase = Room.databaseBuilder(context, ChatDatabase.class, TEST_DB)
+                .addCallback(ChatDatabase.UNMANAGED_INDEX_CALLBACK)
+                .openHelperFactory(new AutoVacuumOpenHelperFactory())
+                .build();
+        chatDatabase.chatroomDao().insert(new Chatroom(CHATROOM));
+        Peer peer = new Peer();
+        peer.name = SENDER;
+        peer.timestamp = NOW;
+        chatDatabase.peerDao().upsert(peer);
+    }
+
+    @After
+    public void tearDown() {
+        chatDatabase.close();
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void retainByCount() {
+        insertMessages(1, 2000, NOW);
+        insertUnsent(5);
+        chatDatabase.chatroomDao().setRetention(CHATROOM, null, 100);
+
+        MessageRetention.Report report = new MessageRetention(chatDatabase).run(NOW);
+
+        assertEquals(1900, report.rowsPurged);
+        assertEquals(100, count("seqNum > 0"));
+        assertEquals(1901, oldestSeqNum());
+        assertEquals(5, count("seqNum = 0"));
+        assertEquals(2000, watermark());
+        assertTrue("Space should be reclaimed", report.bytesReclaimed > 0);
+        assertEquals(0, pragma("freelist_count"));
+    }
+
+    @Test
+    public void retainByAge() {
+        insertMessages(1, 1000, NOW.minus(Duration.ofDays(30)));
+        insertMessages(1001, 10, NOW.minus(Duration.ofDays(1)));
+        insertUnsent(5);
+        chatDatabase.chatroomDao().setRetention(CHATROOM, 7, null);
+
+        MessageRetention.Report report = new MessageRetention(chatDatabase).run(NOW);
+
+        assertEquals(1000, report.rowsPurged);
+        assertEquals(10, count("seqNum > 0"));
+        assertEquals(5, count("seqNum = 0"));
+        assertEquals(1010, watermark());
+    }
+
+    @Test
+    public void keepNewestMessage() {
+        // Every message is too old, but the newest is the watermark for the chatroom
+        insertMessages(1, 600, NOW.minus(Duration.ofDays(30)));
+        chatDatabase.chatroomDao().setRetention(CHATROOM, 7, 0);
+
+        MessageRetention.Report report = new MessageRetention(chatDatabase).run(NOW);
+
+        assertEquals(599, report.rowsPurged);
+        assertEquals(1, count("seqNum > 0"));
+        assertEquals(600, watermark());
+
+        // Incremental vacuum is on from when the database was created
+        assertEquals(2, pragma("auto_vacuum"));
+        report = new MessageRetention(chatDatabase).run(NOW);
+        assertEquals(0, report.rowsPurged);
+    }
+
+    @Test
+    public void defaultRetention() {
+        insertMessages(1, 1000, NOW.minus(Duration.ofDays(120)));
+        insertMessages(1001, 10, NOW.minus(Duration.ofDays(1)));
+
+        // Without a policy of its own or a default, the chatroom keeps everything
+        assertEquals(0, new MessageRetention(chatDatabase).run(NOW).rowsPurged);
+
+        MessageRetention.Report report = new MessageRetention(chatDatabase, Settings.DEFAULT_RETAIN_DAYS).run(NOW);
+        assertEquals(1000, report.rowsPurged);
+        assertEquals(10, count("seqNum > 0"));
+    }
+
+    private void insertMessages(long firstSeqNum, int n, Instant timestamp) {
+        chatDatabase.runInTransaction(() -> {
+            for (int i = 0; i < n; i++) {
+                chatDatabase.requestDao().insert(message("Message " + (firstSeqNum + i), firstSeqNum + i, timestamp));
+            }
+        });
+    }
+
+    private void insertUnsent(int n) {
+        for (int i = 0; i < n; i++) {
+            chatDatabase.requestDao().insert(message("Unsent " + i, 0, NOW.minus(Duration.ofDays(365))));
+        }
+    }
+
+    private long count(String condition) {
+        return queryLong("SELECT COUNT(*) FROM Message WHERE chatroom = ? AND " + condition);
+    }
+
+    private long oldestSeqNum() {
+        return queryLong("SELECT MIN(seqNum) FROM Message WHERE chatroom = ? AND seqNum > 0");
+    }
+
+    private long queryLong(String sql) {
+        try (Cursor cursor = chatDatabase.query(sql, new Object[] { CHATROOM })) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+
+    private long watermark() {
+        return chatDatabase.requestDao().getChatroomVersions(Collections.singleton(CHATROOM)).get(0).version;
+    }
+
+    private long pragma(String name) {
+        try (Cursor cursor = chatDatabase.query("PRAGMA " + name, null)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+
+    private static Message message(String text, long seqNum, Instant timestamp) {
+        Message message = new Message();
+        message.chatroom = CHATROOM;
+        message.messageText = text;
+        message.seqNum = seqNum;
+        message.appID = UUID.randomUUID();
+        message.timestamp = timestamp;
+        message.sender = SENDER;
+        return message;
+    }
+
+}
@@ -0,0 +1,199 @@
+package edu.stevens.cs522.chat.databases;
+
+import android.database.Cursor;
+
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import edu.stevens.cs522.chat.entities.UUIDConverter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the migrations against the schemas exported in app/schemas.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+
+    private static final String TEST_DB = "migration-test.db";
+
+    private static final String MY_APP_ID = "00112233445566778899aabbccddeeff";
+
+    private static final String OTHER_APP_ID = "ffeeddccbbaa99887766554433221100";
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(InstrumentationRegistry.getInstrumentation(), ChatDatabase.class);
+
+    @Test
+    public void migrate1To2() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 1);
+        db.execSQL("INSERT INTO Peer (name, timestamp, latitude, longitude) VALUES ('alice', '2025-01-01T00:00:00Z', 40.7, -74.0)");
+        db.execSQL("INSERT INTO Message (chatroom, messageText, seqNum, timestamp, latitude, longitude, sender) " +
+                "VALUES ('general', 'Sent', 1, '2025-01-01T00:00:00Z', 40.7, -74.0, 'alice')");
+        db.execSQL("INSERT INTO Message (chatroom, messageText, seqNum, timestamp, latitude, longitude, sender) " +
+                "VALUES ('general', 'Unsent', 0, '2025-01-01T00:00:01Z', 40.7, -74.0, 'alice')");
+        // A database that already has the unmanaged indices, as it would after being opened
+        ChatDatabase.createUnmanagedIndices(db);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 2, true, ChatDatabase.MIGRATION_1_2);
+        // As the database callback does when it is opened
+        ChatDatabase.createUnmanagedIndices(db);
+
+        Set<String> indices = new HashSet<>();
+        try (Cursor cursor = db.query("SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'Message'")) {
+            while (cursor.moveToNext()) {
+                indices.add(cursor.getString(0));
+            }
+        }
+        assertTrue(indices.contains("index_Message_chatroom_seqNum"));
+        assertTrue(indices.contains("index_Message_unsent"));
+
+        try (Cursor cursor = db.query("SELECT COUNT(*) FROM Message WHERE seqNum = 0")) {
+            cursor.moveToFirst();
+            assertEquals(1, cursor.getLong(0));
+        }
+        db.close();
+    }
+
+    @Test
+    public void migrate2To3() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 2);
+        db.execSQL("INSERT INTO Peer (name, timestamp, latitude, longitude) VALUES ('alice', '2025-01-01T00:00:00.123456Z', 40.7, -74.0)");
+        db.execSQL("INSERT INTO Peer (name, timestamp, latitude, longitude) VALUES ('bob', NULL, 40.7, -74.0)");
+        db.execSQL("INSERT INTO Message (chatroom, messageText, seqNum, appID, timestamp, latitude, longitude, sender) " +
+                "VALUES ('general', 'Hello', 1, X'00112233445566778899aabbccddeeff', '2025-01-01T00:00:01Z', 40.7, -74.0, 'alice')");
+        ChatDatabase.createUnmanagedIndices(db);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 3, true, ChatDatabase.MIGRATION_2_3);
+
+        try (Cursor cursor = db.query("SELECT timestamp FROM Peer ORDER BY name")) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(Instant.parse("2025-01-01T00:00:00.123Z").toEpochMilli(), cursor.getLong(0));
+            assertTrue(cursor.moveToNext());
+            assertTrue(cursor.isNull(0));
+        }
+        try (Cursor cursor = db.query("SELECT timestamp, appID, sender FROM Message")) {
+            assertTrue("Messages should survive rebuilding Peer", cursor.moveToNext());
+            assertEquals(Instant.parse("2025-01-01T00:00:01Z").toEpochMilli(), cursor.getLong(0));
+            assertEquals(UUID.fromString("00112233-4455-6677-8899-aabbccddeeff"), UUIDConverter.fromBytes(cursor.getBlob(1)));
+            assertEquals("alice", cursor.getString(2));
+        }
+        db.close();
+    }
+
+    @Test
+    public void migrate3To4() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 3);
+        db.execSQL("INSERT INTO Message (chatroom, messageText, seqNum, timestamp, latitude, longitude, sender) " +
+                "VALUES ('general', 'Meet at the library', 1, 1735689600000, 40.7, -74.0, 'alice')");
+        ChatDatabase.createUnmanagedIndices(db);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 4, true, ChatDatabase.MIGRATION_3_4);
+
+        // Messages already in the database are indexed by the migration
+        try (Cursor cursor = db.query("SELECT docid FROM MessageFts WHERE MessageFts MATCH 'libr*'")) {
+            assertEquals(1, cursor.getCount());
+        }
+        // ...and new messages by the triggers
+        db.execSQL("INSERT INTO Message (chatroom, messageText, seqNum, timestamp, latitude, longitude, sender) " +
+                "VALUES ('general', 'Library is closed', 2, 1735689601000, 40.7, -74.0, 'bob')");
+        try (Cursor cursor = db.query("SELECT docid FROM MessageFts WHERE MessageFts MATCH 'library'")) {
+            assertEquals(2, cursor.getCount());
+        }
+        db.close();
+    }
+
+    @Test
+    public void migrate4To5() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 4);
+        db.execSQL("INSERT INTO Chatroom (name) VALUES ('general')");
+        ChatDatabase.createUnmanagedIndices(db);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 5, true, ChatDatabase.MIGRATION_4_5);
+
+        // Existing chatrooms keep all their messages
+        try (Cursor cursor = db.query("SELECT retainDays, retainMessages FROM Chatroom WHERE name = 'general'")) {
+            assertTrue(cursor.moveToFirst());
+            assertTrue(cursor.isNull(0));
+            assertTrue(cursor.isNull(1));
+        }
+        db.close();
+    }
+
+    @Test
+    public void migrate5To6() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 5);
+        // A message stored twice by a replayed download
+        for (String values : new String[] { "'Hello', 1", "'Hello', 1", "'Goodbye', 2" }) {
+            db.execSQL("INSERT INTO Message (chatroom, messageText, seqNum, appID, timestamp, latitude, longitude, sender) " +
+                    "VALUES ('general', " + values + ", X'" + OTHER_APP_ID + "', 1735689600000, 40.7, -74.0, 'alice')");
+        }
+        // Two unsent messages, and two of our own messages that were given the sequence number of another message
+        for (String values : new String[] { "'Draft', 0", "'Draft', 0", "'Mine', 2", "'Also mine', 2" }) {
+            db.execSQL("INSERT INTO Message (chatroom, messageText, seqNum, appID, timestamp, latitude, longitude, sender) " +
+                    "VALUES ('general', " + values + ", X'" + MY_APP_ID + "', 1735689601000, 40.7, -74.0, 'me')");
+        }
+        db.execSQL("INSERT INTO Counter (id, lastSeqNum) VALUES (1, 2)");
+        // Not the unmanaged indices: the unique index on seqNum is what this version introduces
+        db.close();
+
+        UUID myAppID = UUID.fromString("00112233-4455-6677-8899-aabbccddeeff");
+        db = helper.runMigrationsAndValidate(TEST_DB, 6, true, ChatDatabase.getMigration5To6(myAppID));
+        ChatDatabase.createUnmanagedIndices(db);
+
+        try (Cursor cursor = db.query("SELECT id, seqNum FROM Message ORDER BY id")) {
+            assertEquals(6, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("The first copy is kept", 1, cursor.getLong(0));
+        }
+        // Nobody else's messages are marked unsent, and ours are not sent again
+        try (Cursor cursor = db.query("SELECT COUNT(*) FROM Message WHERE seqNum = 0 AND appID != X'" + MY_APP_ID + "'")) {
+            cursor.moveToFirst();
+            assertEquals(0, cursor.getLong(0));
+        }
+        try (Cursor cursor = db.query("SELECT COUNT(*) FROM Message WHERE seqNum = 0")) {
+            cursor.moveToFirst();
+            assertEquals(2, cursor.getLong(0));
+        }
+        // Our own messages are set aside, and downloaded again from before the first of them
+        try (Cursor cursor = db.query("SELECT id FROM Message WHERE sender = 'me' AND seqNum = -id")) {
+            assertEquals(2, cursor.getCount());
+        }
+        try (Cursor cursor = db.query("SELECT lastSeqNum FROM Counter WHERE id = 1")) {
+            cursor.moveToFirst();
+            assertEquals(1, cursor.getLong(0));
+        }
+        // As RequestDao.upsert does when the download is replayed
+        db.execSQL("UPDATE OR IGNORE Message SET seqNum = 3 WHERE messageText = 'Mine'");
+        try (Cursor cursor = db.query("SELECT COUNT(*) FROM Message WHERE seqNum = 3 AND sender = 'me'")) {
+            cursor.moveToFirst();
+            assertEquals(1, cursor.getLong(0));
+        }
+        // A replayed message is now ignored
+        db.execSQL("INSERT OR IGNORE INTO Message (chatroom, messageText, seqNum, timestamp, latitude, longitude, sender) " +
+                "VALUES ('general', 'Goodbye', 2, 1735689600000, 40.7, -74.0, 'alice')");
+        try (Cursor cursor = db.query("SELECT COUNT(*) FROM Message WHERE seqNum = 2")) {
+            cursor.moveToFirst();
+            assertEquals(1, cursor.getLong(0));
+        }
+        db.close();
+    }
+
+}
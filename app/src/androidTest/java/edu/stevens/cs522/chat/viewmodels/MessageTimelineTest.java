@@ -0,0 +1,164 @@
+package edu.stevens.cs522.chat.viewmodels;
+
+import android.content.Context;
+
+import androidx.lifecycle.Observer;
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.Peer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pages a timeline from the newest messages back to the oldest and forward again, checking that
+ * the window stays bounded and in order, and that it follows new messages at the newest end.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageTimelineTest {
+
+    private static final int MESSAGES = 1000;
+
+    private static final String CHATROOM = "general";
+
+    private static final String SENDER = "timeline-test";
+
+    private ChatDatabase chatDatabase;
+
+    private MessageTimeline timeline;
+
+    private final BlockingQueue<MessageTimeline.Window> windows = new LinkedBlockingQueue<>();
+
+    private final Observer<MessageTimeline.Window> observer = windows::add;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        chatDatabase = Room.inMemoryDatabaseBuilder(context, ChatDatabase.class).build();
+        chatDatabase.chatroomDao().insert(new Chatroom(CHATROOM));
+        Peer peer = new Peer();
+        peer.name = SENDER;
+        peer.timestamp = Instant.now();
+        chatDatabase.peerDao().upsert(peer);
+        chatDatabase.runInTransaction(() -> {
+            for (int i = 1; i <= MESSAGES; i++) {
+                chatDatabase.requestDao().insert(message("Message " + i, i));
+            }
+        });
+
+        timeline = new MessageTimeline(chatDatabase, CHATROOM);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> timeline.getWindow().observeForever(observer));
+    }
+
+    @After
+    public void tearDown() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> timeline.getWindow().removeObserver(observer));
+        timeline.close();
+        chatDatabase.close();
+    }
+
+    @Test
+    public void pageBackAndForth() throws InterruptedException {
+        MessageTimeline.Window window = nextWindow();
+        assertEquals(MessageTimeline.PAGE_SIZE, window.messages.size());
+        assertEquals(MESSAGES, last(window).seqNum);
+        assertTrue(window.hasOlder);
+        assertFalse(window.hasNewer);
+
+        // Back to the oldest message
+        while (window.hasOlder) {
+            timeline.loadOlder();
+            window = nextWindow();
+            assertInOrder(window.messages);
+            assertTrue(window.messages.size() <= MessageTimeline.MAX_WINDOW);
+        }
+        assertEquals(1, window.messages.get(0).seqNum);
+        assertTrue(window.hasNewer);
+
+        // Forward to the newest message
+        while (window.hasNewer) {
+            timeline.loadNewer();
+            window = nextWindow();
+            assertInOrder(window.messages);
+            assertTrue(window.messages.size() <= MessageTimeline.MAX_WINDOW);
+        }
+        assertEquals(MESSAGES, last(window).seqNum);
+    }
+
+    @Test
+    public void followNewMessages() throws InterruptedException {
+        nextWindow();
+
+        // A message posted on this device is shown after the messages from the server
+        Message unsent = message("Unsent", 0);
+        unsent.id = chatDatabase.requestDao().insert(unsent);
+        MessageTimeline.Window window = awaitWindow(w -> last(w).id == unsent.id);
+        assertEquals(0, last(window).seqNum);
+
+        // Once it is sent, it takes its place in the sequence
+        chatDatabase.requestDao().updateSeqNum(unsent.id, MESSAGES + 1);
+        window = awaitWindow(w -> last(w).seqNum == MESSAGES + 1);
+        assertEquals(unsent.id, last(window).id);
+        assertInOrder(window.messages);
+    }
+
+    private MessageTimeline.Window nextWindow() throws InterruptedException {
+        MessageTimeline.Window window = windows.poll(5, TimeUnit.SECONDS);
+        assertNotNull("No window was published", window);
+        return window;
+    }
+
+    /*
+     * Changes are coalesced, so wait for the window that reflects the change.
+     */
+    private MessageTimeline.Window awaitWindow(Predicate<MessageTimeline.Window> condition) throws InterruptedException {
+        while (true) {
+            MessageTimeline.Window window = nextWindow();
+            if (condition.test(window)) {
+                return window;
+            }
+        }
+    }
+
+    private static Message last(MessageTimeline.Window window) {
+        return window.messages.get(window.messages.size() - 1);
+    }
+
+    private static void assertInOrder(List<Message> messages) {
+        for (int i = 1; i < messages.size(); i++) {
+            assertTrue(messages.get(i - 1).seqNum < messages.get(i).seqNum);
+        }
+    }
+
+    private static Message message(String text, long seqNum) {
+        Message message = new Message();
+        message.chatroom = CHATROOM;
+        message.messageText = text;
+        message.seqNum = seqNum;
+        message.appID = UUID.randomUUID();
+        message.timestamp = Instant.now();
+        message.sender = SENDER;
+        return message;
+    }
+
+}
@@ -0,0 +1,162 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.web.RestMethod.DownloadObserver;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays a large download stream into a file-backed database, first applying every item
+ * as its own write (as the sync used to), then through the chunked DownloadApplier.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DownloadApplierBenchmark {
+
+    private static final String TAG = DownloadApplierBenchmark.class.getCanonicalName();
+
+    private static final String DATABASE_NAME = "download-benchmark.db";
+
+    private static final int MESSAGES = 100000;
+
+    private static final int PEERS = 50;
+
+    private static final int CHATROOMS = 10;
+
+    private final UUID myAppID = UUID.randomUUID();
+
+    private final UUID otherAppID = UUID.randomUUID();
+
+    private Context context;
+
+    private ChatDatabase chatDatabase;
+
+    @Before
+    public void openDatabase() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        chatDatabase = Room.databaseBuilder(context, ChatDatabase.class, DATABASE_NAME).build();
+        chatDatabase.requestDao().initLastSequenceNumber();
+    }
+
+    @After
+    public void closeDatabase() {
+        chatDatabase.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void perItemApply() {
+        DownloadObserver observer = new DownloadObserver() {
+            @Override
+            public void onChatroom(Chatroom chatroom) {
+                chatDatabase.chatroomDao().insert(chatroom);
+            }
+
+            @Override
+            public void onPeer(Peer peer) {
+                chatDatabase.peerDao().upsert(peer);
+            }
+
+            @Override
+            public void onMessage(Message message) {
+                chatDatabase.requestDao().upsert(myAppID, message);
+                chatDatabase.requestDao().updateLastSequenceNumber(message.seqNum);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+        };
+        report("per-item", replay(observer));
+    }
+
+    @Test
+    public void chunkedApply() {
+        DownloadApplier applier = new DownloadApplier(chatDatabase, myAppID);
+        report("chunked", replay(applier));
+        Log.i(TAG, String.format("chunked: %d chunks", applier.getChunksApplied()));
+    }
+
+    /*
+     * Stream the chatrooms, then the peers, then the messages, as the server does.
+     * Returns the elapsed time in milliseconds.
+     */
+    private long replay(DownloadObserver observer) {
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < CHATROOMS; i++) {
+            observer.onChatroom(new Chatroom(chatroomName(i)));
+        }
+        for (int i = 0; i < PEERS; i++) {
+            Peer peer = new Peer();
+            peer.name = peerName(i);
+            peer.timestamp = Instant.now();
+            peer.latitude = 40.7;
+            peer.longitude = -74.0;
+            observer.onPeer(peer);
+        }
+        for (int i = 1; i <= MESSAGES; i++) {
+            Message message = new Message();
+            message.seqNum = i;
+            message.chatroom = chatroomName(i % CHATROOMS);
+            message.sender = peerName(i % PEERS);
+            message.appID = otherAppID;
+            message.messageText = "Message number " + i;
+            message.timestamp = Instant.now();
+            message.latitude = 40.7;
+            message.longitude = -74.0;
+            observer.onMessage(message);
+        }
+        observer.onCompleted();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(MESSAGES, countMessages());
+        assertEquals(MESSAGES, chatDatabase.requestDao().getLastSequenceNumber());
+        return elapsed;
+    }
+
+    private void report(String label, long elapsed) {
+        int items = CHATROOMS + PEERS + MESSAGES;
+        double rate = items * 1000.0 / Math.max(elapsed, 1);
+        Log.i(TAG, String.format("%s: %d items in %d ms (%.0f items/sec)", label, items, elapsed, rate));
+    }
+
+    private long countMessages() {
+        try (Cursor cursor = chatDatabase.query("SELECT COUNT(*) FROM Message", null)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+
+    private static String chatroomName(int i) {
+        return "room-" + i;
+    }
+
+    private static String peerName(int i) {
+        return "peer-" + i;
+    }
+
+}
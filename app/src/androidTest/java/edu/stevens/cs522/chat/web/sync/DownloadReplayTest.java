@@ -0,0 +1,137 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.Peer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Applies the same download stream twice, as happens when a sync is retried after a broken
+ * connection, and checks that the second pass does not change the database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DownloadReplayTest {
+
+    private static final int MESSAGES = 1000;
+
+    private static final String CHATROOM = "general";
+
+    private static final String ME = "me";
+
+    private static final String OTHER = "other";
+
+    private final UUID myAppID = UUID.randomUUID();
+
+    private final UUID otherAppID = UUID.randomUUID();
+
+    private ChatDatabase chatDatabase;
+
+    /*
+     * Primary key of our own message, posted before the download.
+     */
+    private long posted;
+
+    @Before
+    public void openDatabase() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        chatDatabase = Room.inMemoryDatabaseBuilder(context, ChatDatabase.class)
+                .addCallback(ChatDatabase.UNMANAGED_INDEX_CALLBACK)
+                .build();
+        chatDatabase.requestDao().initLastSequenceNumber();
+        chatDatabase.chatroomDao().insert(new Chatroom(CHATROOM));
+        chatDatabase.peerDao().upsert(peer(ME));
+
+        Message message = message(0, ME, myAppID);
+        posted = chatDatabase.requestDao().insert(message);
+    }
+
+    @After
+    public void closeDatabase() {
+        chatDatabase.close();
+    }
+
+    @Test
+    public void replayIsIdempotent() {
+        replay();
+        assertEquals(MESSAGES, countMessages());
+        assertEquals(0, chatDatabase.requestDao().countUnsentMessages());
+
+        replay();
+        assertEquals(MESSAGES, countMessages());
+        assertEquals(MESSAGES, chatDatabase.requestDao().getLastSequenceNumber());
+        // Our own message keeps its primary key, with the sequence number from the server
+        try (Cursor cursor = chatDatabase.query("SELECT seqNum FROM Message WHERE id = ?", new Object[] { posted })) {
+            cursor.moveToFirst();
+            assertEquals(MESSAGES / 2, cursor.getLong(0));
+        }
+    }
+
+    /*
+     * The server's stream: messages from another peer, with our own message echoed back midway.
+     */
+    private void replay() {
+        DownloadApplier applier = new DownloadApplier(chatDatabase, myAppID, 100, DownloadApplier.DEFAULT_CHUNK_DELAY);
+        applier.onChatroom(new Chatroom(CHATROOM));
+        applier.onPeer(peer(OTHER));
+        for (int i = 1; i <= MESSAGES; i++) {
+            Message message;
+            if (i == MESSAGES / 2) {
+                message = message(i, ME, myAppID);
+                message.id = posted;
+            } else {
+                message = message(i, OTHER, otherAppID);
+                // The primary key in the sender's database
+                message.id = i;
+            }
+            applier.onMessage(message);
+        }
+        applier.onCompleted();
+    }
+
+    private long countMessages() {
+        try (Cursor cursor = chatDatabase.query("SELECT COUNT(*) FROM Message", null)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+
+    private static Message message(long seqNum, String sender, UUID appID) {
+        Message message = new Message();
+        message.seqNum = seqNum;
+        message.chatroom = CHATROOM;
+        message.sender = sender;
+        message.appID = appID;
+        message.messageText = "Message number " + seqNum;
+        message.timestamp = Instant.parse("2025-01-01T00:00:00Z").plusSeconds(seqNum);
+        message.latitude = 40.7;
+        message.longitude = -74.0;
+        return message;
+    }
+
+    private static Peer peer(String name) {
+        Peer peer = new Peer();
+        peer.name = name;
+        peer.timestamp = Instant.parse("2025-01-01T00:00:00Z");
+        peer.latitude = 40.7;
+        peer.longitude = -74.0;
+        return peer;
+    }
+
+}
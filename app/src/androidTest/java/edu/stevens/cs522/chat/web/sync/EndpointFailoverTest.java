@@ -0,0 +1,222 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.settings.Settings;
+import edu.stevens.cs522.chat.web.RestMethod;
+import edu.stevens.cs522.chat.web.client.ChannelManager;
+import edu.stevens.cs522.chat.web.client.EndpointSelector;
+import edu.stevens.cs522.chat.web.request.ChatServiceRequest;
+import edu.stevens.cs522.chat.web.request.ChatServiceResponse;
+import edu.stevens.cs522.chat.web.request.ErrorResponse;
+import edu.stevens.cs522.chat.web.request.SynchronizeRequest;
+import io.grpc.Channel;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Syncs against several in-process stand-ins for the chat server, one of them slow or shut
+ * down, and checks that the client prefers the fast endpoints, fails over from a dead one,
+ * and goes back to it once it has been restarted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EndpointFailoverTest {
+
+    private static final String TAG = EndpointFailoverTest.class.getCanonicalName();
+
+    private static final int SERVERS = 3;
+
+    private static final int SYNCS = 10;
+
+    private static final long SLOW_DELAY = 500; // milliseconds
+
+    private static final String CHATROOM = "general";
+
+    private static final String ME = "failover-test";
+
+    private static final String OTHER = "other-peer";
+
+    private Context context;
+
+    private String chatName;
+
+    private Set<String> subscriptions;
+
+    private int serverEncoding;
+
+    private ChatDatabase chatDatabase;
+
+    private final List<FakeChatServer> servers = new ArrayList<>();
+
+    private final List<Uri> uris = new ArrayList<>();
+
+    /*
+     * Channel to each server, by the host name in its endpoint.
+     */
+    private final Map<String, ManagedChannel> channels = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        chatName = Settings.getChatName(context);
+        Settings.saveChatName(context, ME);
+        subscriptions = Settings.getSubscribedChatrooms(context);
+        Settings.saveSubscribedChatrooms(context, Collections.emptySet());
+        serverEncoding = Settings.getServerEncoding(context);
+        Settings.saveServerEncoding(context, Settings.DEFAULT_ENCODING);
+
+        chatDatabase = Room.inMemoryDatabaseBuilder(context, ChatDatabase.class)
+                .addCallback(ChatDatabase.UNMANAGED_INDEX_CALLBACK)
+                .build();
+        chatDatabase.requestDao().initLastSequenceNumber();
+        chatDatabase.chatroomDao().insert(new Chatroom(CHATROOM));
+
+        for (int i = 0; i < SERVERS; i++) {
+            FakeChatServer server = new FakeChatServer().start();
+            servers.add(server);
+            String host = "server" + i;
+            uris.add(Uri.parse("grpc://" + host + ":1"));
+            channels.put(host, server.newChannel());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (ManagedChannel channel : channels.values()) {
+            channel.shutdownNow();
+        }
+        for (FakeChatServer server : servers) {
+            server.shutdown();
+        }
+        chatDatabase.close();
+        Settings.saveChatName(context, chatName);
+        Settings.saveSubscribedChatrooms(context, subscriptions);
+        Settings.saveServerEncoding(context, serverEncoding);
+    }
+
+    @Test
+    public void avoidsSlowEndpoint() {
+        FakeChatServer slow = servers.get(1);
+        slow.setDelay(SLOW_DELAY);
+        EndpointSelector selector = new EndpointSelector(uris, EndpointSelector.Policy.LEAST_LATENCY);
+        SyncEngine syncEngine = new SyncEngine(context, restMethod(selector), chatDatabase);
+
+        for (int i = 0; i < SYNCS; i++) {
+            publishEverywhere("Message " + i);
+            assertFalse(syncEngine.sync(new SynchronizeRequest(), Settings.getAppId(context)) instanceof ErrorResponse);
+        }
+        Log.i(TAG, "Endpoints: " + selector);
+
+        // Measured once, then left alone until the next probe
+        assertEquals(1, slow.getSyncCount());
+        assertEquals(SYNCS, servers.get(0).getSyncCount() + slow.getSyncCount() + servers.get(2).getSyncCount());
+        assertEquals(SYNCS, chatDatabase.requestDao().getLastSequenceNumber());
+    }
+
+    @Test
+    public void failsOverFromDeadEndpoint() {
+        EndpointSelector selector = new EndpointSelector(uris, EndpointSelector.Policy.PICK_FIRST);
+        SyncEngine syncEngine = new SyncEngine(context, restMethod(selector), chatDatabase);
+
+        publishEverywhere("Before");
+        assertFalse(syncEngine.sync(new SynchronizeRequest(), Settings.getAppId(context)) instanceof ErrorResponse);
+        assertEquals(1, servers.get(0).getSyncCount());
+
+        // The first server goes away mid-session
+        servers.get(0).shutdown();
+        publishEverywhere("After");
+        ChatServiceResponse response = syncEngine.sync(new SynchronizeRequest(), Settings.getAppId(context));
+        Log.i(TAG, "Endpoints: " + selector);
+
+        assertFalse("Sync should fail over to another server", response instanceof ErrorResponse);
+        assertEquals(1, syncEngine.getFailovers());
+        assertEquals(1, servers.get(1).getSyncCount());
+        assertEquals(2, chatDatabase.requestDao().getLastSequenceNumber());
+
+        // The dead server stays ejected
+        assertFalse(syncEngine.sync(new SynchronizeRequest(), Settings.getAppId(context)) instanceof ErrorResponse);
+        assertEquals(2, servers.get(1).getSyncCount());
+        assertEquals(1, syncEngine.getFailovers());
+        assertTrue(selector.hasHealthy(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void returnsToRestartedEndpoint() throws Exception {
+        EndpointSelector selector = new EndpointSelector(uris, EndpointSelector.Policy.PICK_FIRST);
+        SyncEngine syncEngine = new SyncEngine(context, restMethod(selector), chatDatabase);
+        ManagedChannel first = channels.get(uris.get(0).getHost());
+        monitor(selector, ChannelManager.getKey(uris.get(0)), first, first.getState(false));
+
+        servers.get(0).shutdown();
+        publishEverywhere("While down");
+        assertFalse(syncEngine.sync(new SynchronizeRequest(), Settings.getAppId(context)) instanceof ErrorResponse);
+        assertEquals(1, servers.get(1).getSyncCount());
+
+        // The server comes back, and the channel goes idle (e.g. on a network change)
+        servers.get(0).start();
+        first.enterIdle();
+        // Until the ejection for the failed call is over
+        Thread.sleep(EndpointSelector.BASE_EJECTION + 1000);
+
+        publishEverywhere("After restart");
+        assertFalse(syncEngine.sync(new SynchronizeRequest(), Settings.getAppId(context)) instanceof ErrorResponse);
+        Log.i(TAG, "Endpoints: " + selector);
+        assertEquals("Sync should return to the first server", 1, servers.get(0).getSyncCount());
+        assertEquals(1, servers.get(1).getSyncCount());
+    }
+
+    /*
+     * As ChannelManager does for its channels.
+     */
+    private static void monitor(EndpointSelector selector, String key, ManagedChannel channel, ConnectivityState previous) {
+        ConnectivityState state = channel.getState(false);
+        ChannelManager.onStateChanged(selector, key, previous, state);
+        if (state != ConnectivityState.SHUTDOWN) {
+            channel.notifyWhenStateChanged(state, () -> monitor(selector, key, channel, state));
+        }
+    }
+
+    private RestMethod restMethod(EndpointSelector selector) {
+        return new RestMethod(context, selector) {
+            @Override
+            protected Channel getChannel(Uri serverUri, ChatServiceRequest request) {
+                return channels.get(serverUri.getHost());
+            }
+        };
+    }
+
+    /*
+     * Every endpoint is the same chat server, so they all have the same messages.
+     */
+    private void publishEverywhere(String text) {
+        for (FakeChatServer server : servers) {
+            server.publish(OTHER, CHATROOM, text);
+        }
+    }
+
+}
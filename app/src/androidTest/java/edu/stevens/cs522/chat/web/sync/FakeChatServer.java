@@ -0,0 +1,368 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.os.SystemClock;
+
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.stevens.cs522.chat.entities.TimestampConverter;
+import edu.stevens.cs522.chat.web.grpc.ChatServiceGrpc;
+import edu.stevens.cs522.chat.web.grpc.ChatroomRef;
+import edu.stevens.cs522.chat.web.grpc.ChatroomVersion;
+import edu.stevens.cs522.chat.web.grpc.DownloadItem;
+import edu.stevens.cs522.chat.web.grpc.Message;
+import edu.stevens.cs522.chat.web.grpc.MessageV2;
+import edu.stevens.cs522.chat.web.grpc.PeerV2;
+import edu.stevens.cs522.chat.web.grpc.SnapshotChunk;
+import edu.stevens.cs522.chat.web.grpc.SnapshotRequest;
+import edu.stevens.cs522.chat.web.grpc.SyncRequest;
+import edu.stevens.cs522.chat.web.grpc.UploadItem;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * An in-process stand-in for the chat server, for the subscription stream.
+ *
+ * Messages are sequenced as they are published (by a simulated peer) or uploaded (by the
+ * client), and pushed to every open subscription.  A new subscription is first sent every
+ * message after the version in its sync request.  If the sync request lists chatrooms, the
+ * subscription only gets messages in those chatrooms, after the version for each chatroom.
+ * A snapshot is every message sequenced so far, in chunks of SNAPSHOT_CHUNK messages.
+ */
+public class FakeChatServer extends ChatServiceGrpc.ChatServiceImplBase {
+
+    public static final int SNAPSHOT_CHUNK = 1000;
+
+    /*
+     * A message uploaded by the client, with the time it arrived.
+     */
+    public static class Upload {
+        public final Message message;
+        public final long received;
+
+        Upload(Message message, long received) {
+            this.message = message;
+            this.received = received;
+        }
+    }
+
+    private final String name = "fake-chat-server-" + UUID.randomUUID();
+
+    private final UUID appID = UUID.randomUUID();
+
+    private final List<Message> messages = new ArrayList<>();
+
+    private final List<StreamObserver<DownloadItem>> subscribers = new CopyOnWriteArrayList<>();
+
+    /*
+     * Chatroom filters for subscribers that listed chatrooms.
+     */
+    private final Map<StreamObserver<DownloadItem>, Map<String, Long>> filters = new ConcurrentHashMap<>();
+
+    private final BlockingQueue<Map<String, Long>> subscriptions = new LinkedBlockingQueue<>();
+
+    private final BlockingQueue<Upload> uploads = new LinkedBlockingQueue<>();
+
+    private final BlockingQueue<Long> versions = new LinkedBlockingQueue<>();
+
+    private final BlockingQueue<Long> snapshots = new LinkedBlockingQueue<>();
+
+    private Server server;
+
+    /*
+     * How long the server takes to answer a sync, in milliseconds.
+     */
+    private volatile long delay;
+
+    private final AtomicLong syncs = new AtomicLong();
+
+    public FakeChatServer start() throws IOException {
+        server = InProcessServerBuilder.forName(name).addService(this).build().start();
+        return this;
+    }
+
+    public void shutdown() {
+        server.shutdownNow();
+    }
+
+    public ManagedChannel newChannel() {
+        return InProcessChannelBuilder.forName(name).build();
+    }
+
+    /**
+     * A peer posts a message: sequence it and push it to all subscribers.
+     */
+    public Message publish(String sender, String chatroom, String text) {
+        Message message = Message.newBuilder()
+                .setChatroom(chatroom)
+                .setMessageText(text)
+                .setAppID(appID.toString())
+                .setTimestamp(TimestampConverter.serialize(Instant.now()))
+                .setSender(sender)
+                .build();
+        return sequence(message);
+    }
+
+    private Message sequence(Message message) {
+        synchronized (messages) {
+            Message sequenced = message.toBuilder().setSeqNum(messages.size() + 1).build();
+            messages.add(sequenced);
+            DownloadItem item = DownloadItem.newBuilder().setMessage(sequenced).build();
+            for (StreamObserver<DownloadItem> subscriber : subscribers) {
+                Map<String, Long> filter = filters.get(subscriber);
+                if (filter == null || filter.containsKey(sequenced.getChatroom())) {
+                    synchronized (subscriber) {
+                        subscriber.onNext(item);
+                    }
+                }
+            }
+            return sequenced;
+        }
+    }
+
+    /**
+     * Break every open subscription, as if the connection was lost.
+     */
+    public void disconnectAll() {
+        synchronized (messages) {
+            for (StreamObserver<DownloadItem> subscriber : subscribers) {
+                synchronized (subscriber) {
+                    subscriber.onError(Status.UNAVAILABLE.withDescription("Disconnected by test").asRuntimeException());
+                }
+            }
+            subscribers.clear();
+            filters.clear();
+        }
+    }
+
+    public BlockingQueue<Upload> getUploads() {
+        return uploads;
+    }
+
+    /**
+     * The versions (watermarks) sent by clients when they subscribe.
+     */
+    public BlockingQueue<Long> getVersions() {
+        return versions;
+    }
+
+    /**
+     * The chatroom versions sent by clients that list chatrooms when they subscribe.
+     */
+    public BlockingQueue<Map<String, Long>> getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * The versions of the snapshots taken by clients.
+     */
+    public BlockingQueue<Long> getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * Make the server slow (or fast again).
+     */
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Number of syncs that the server has answered.
+     */
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public StreamObserver<UploadItem> subscribe(StreamObserver<DownloadItem> responseObserver) {
+        return new StreamObserver<UploadItem>() {
+            @Override
+            public void onNext(UploadItem item) {
+                if (item.hasRequest()) {
+                    SyncRequest request = item.getRequest();
+                    long version = request.getVersion();
+                    versions.add(version);
+                    Map<String, Long> filter = null;
+                    if (request.getSubscriptionsCount() > 0) {
+                        filter = new HashMap<>();
+                        for (ChatroomVersion subscription : request.getSubscriptionsList()) {
+                            filter.put(subscription.getChatroom(), subscription.getVersion());
+                        }
+                        subscriptions.add(filter);
+                    }
+                    synchronized (messages) {
+                        synchronized (responseObserver) {
+                            for (Message message : messages) {
+                                if (isAfter(message, version, filter)) {
+                                    responseObserver.onNext(DownloadItem.newBuilder().setMessage(message).build());
+                                }
+                            }
+                        }
+                        if (filter != null) {
+                            filters.put(responseObserver, filter);
+                        }
+                        subscribers.add(responseObserver);
+                    }
+                } else if (item.hasMessage()) {
+                    uploads.add(new Upload(item.getMessage(), SystemClock.elapsedRealtime()));
+                    sequence(item.getMessage());
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                subscribers.remove(responseObserver);
+                filters.remove(responseObserver);
+            }
+
+            @Override
+            public void onCompleted() {
+                subscribers.remove(responseObserver);
+                filters.remove(responseObserver);
+                synchronized (responseObserver) {
+                    responseObserver.onCompleted();
+                }
+            }
+        };
+    }
+
+    /*
+     * A sync: once the client has finished uploading, send what it has missed and complete.
+     */
+    @Override
+    public StreamObserver<UploadItem> sync(StreamObserver<DownloadItem> responseObserver) {
+        return new StreamObserver<UploadItem>() {
+
+            private long version;
+
+            private Map<String, Long> filter;
+
+            @Override
+            public void onNext(UploadItem item) {
+                if (item.hasRequest()) {
+                    SyncRequest request = item.getRequest();
+                    version = request.getVersion();
+                    if (request.getSubscriptionsCount() > 0) {
+                        filter = new HashMap<>();
+                        for (ChatroomVersion subscription : request.getSubscriptionsList()) {
+                            filter.put(subscription.getChatroom(), subscription.getVersion());
+                        }
+                    }
+                } else if (item.hasMessage()) {
+                    uploads.add(new Upload(item.getMessage(), SystemClock.elapsedRealtime()));
+                    sequence(item.getMessage());
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+                if (delay > 0) {
+                    SystemClock.sleep(delay);
+                }
+                List<Message> missed = new ArrayList<>();
+                synchronized (messages) {
+                    for (Message message : messages) {
+                        if (isAfter(message, version, filter)) {
+                            missed.add(message);
+                        }
+                    }
+                }
+                for (Message message : missed) {
+                    responseObserver.onNext(DownloadItem.newBuilder().setMessage(message).build());
+                }
+                responseObserver.onCompleted();
+                syncs.incrementAndGet();
+            }
+        };
+    }
+
+    @Override
+    public void snapshot(SnapshotRequest request, StreamObserver<SnapshotChunk> responseObserver) {
+        List<Message> image;
+        synchronized (messages) {
+            image = new ArrayList<>(messages);
+        }
+        long version = image.size();
+        snapshots.add(version);
+
+        Set<String> filter = request.getChatroomsCount() > 0 ? new HashSet<>(request.getChatroomsList()) : null;
+        Map<String, Integer> chatroomIds = new HashMap<>();
+        Set<String> senders = new HashSet<>();
+        SnapshotChunk.Builder chunk = SnapshotChunk.newBuilder().setVersion(version);
+        for (Message message : image) {
+            if (filter != null && !filter.contains(message.getChatroom())) {
+                continue;
+            }
+            long timestamp = toMicros(TimestampConverter.deserialize(message.getTimestamp()));
+            Integer chatroomId = chatroomIds.get(message.getChatroom());
+            if (chatroomId == null) {
+                chatroomId = chatroomIds.size();
+                chatroomIds.put(message.getChatroom(), chatroomId);
+                chunk.addChatrooms(ChatroomRef.newBuilder().setId(chatroomId).setName(message.getChatroom()));
+            }
+            if (senders.add(message.getSender())) {
+                chunk.addPeers(PeerV2.newBuilder().setName(message.getSender()).setTimestamp(timestamp)
+                        .setLatitude(message.getLatitude()).setLongitude(message.getLongitude()));
+            }
+            UUID appID = UUID.fromString(message.getAppID());
+            chunk.addMessages(MessageV2.newBuilder()
+                    .setId(message.getId())
+                    .setChatroomId(chatroomId)
+                    .setMessageText(message.getMessageText())
+                    .setSeqNum(message.getSeqNum())
+                    .setAppID(ByteString.copyFrom(ByteBuffer.allocate(16)
+                            .putLong(appID.getMostSignificantBits()).putLong(appID.getLeastSignificantBits()).array()))
+                    .setTimestamp(timestamp)
+                    .setLatitude(message.getLatitude())
+                    .setLongitude(message.getLongitude())
+                    .setSender(message.getSender()));
+            if (chunk.getMessagesCount() == SNAPSHOT_CHUNK) {
+                responseObserver.onNext(chunk.build());
+                chunk = SnapshotChunk.newBuilder().setVersion(version);
+            }
+        }
+        responseObserver.onNext(chunk.build());
+        responseObserver.onCompleted();
+    }
+
+    private static long toMicros(Instant timestamp) {
+        return timestamp.getEpochSecond() * 1000000L + timestamp.getNano() / 1000;
+    }
+
+    private static boolean isAfter(Message message, long version, Map<String, Long> filter) {
+        if (filter == null) {
+            return message.getSeqNum() > version;
+        }
+        Long chatroomVersion = filter.get(message.getChatroom());
+        return chatroomVersion != null && message.getSeqNum() > chatroomVersion;
+    }
+
+}
@@ -0,0 +1,250 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.settings.Settings;
+import edu.stevens.cs522.chat.web.RestMethod;
+import edu.stevens.cs522.chat.web.request.ChatServiceRequest;
+import io.grpc.Channel;
+import io.grpc.ManagedChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures end-to-end delivery latency over the subscription stream, against an in-process
+ * stand-in for the chat server, and checks that a broken stream resumes from the watermark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LiveSyncLatencyTest {
+
+    private static final String TAG = LiveSyncLatencyTest.class.getCanonicalName();
+
+    private static final int ROUNDS = 50;
+
+    private static final long MAX_MEDIAN_LATENCY = 500; // milliseconds
+
+    private static final String CHATROOM = "general";
+
+    private static final String ME = "live-sync-test";
+
+    private static final String OTHER = "other-peer";
+
+    private static final String OTHER_CHATROOM = "elsewhere";
+
+    private Context context;
+
+    private String chatName;
+
+    private Set<String> subscriptions;
+
+    private int serverEncoding;
+
+    private ChatDatabase chatDatabase;
+
+    private FakeChatServer server;
+
+    private ManagedChannel channel;
+
+    private LiveSync liveSync;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        // Live sync only runs once we are registered
+        chatName = Settings.getChatName(context);
+        Settings.saveChatName(context, ME);
+        // Start by following every chatroom
+        subscriptions = Settings.getSubscribedChatrooms(context);
+        Settings.saveSubscribedChatrooms(context, Collections.emptySet());
+        // The stand-in server only speaks the v1 encoding
+        serverEncoding = Settings.getServerEncoding(context);
+        Settings.saveServerEncoding(context, Settings.DEFAULT_ENCODING);
+
+        chatDatabase = Room.inMemoryDatabaseBuilder(context, ChatDatabase.class).build();
+        chatDatabase.requestDao().initLastSequenceNumber();
+        chatDatabase.chatroomDao().insert(new Chatroom(CHATROOM));
+        chatDatabase.peerDao().upsert(peer(ME));
+        chatDatabase.peerDao().upsert(peer(OTHER));
+
+        server = new FakeChatServer().start();
+        channel = server.newChannel();
+
+        RestMethod restMethod = new RestMethod(context) {
+            @Override
+            protected Channel getChannel(Uri serverUri, ChatServiceRequest request) {
+                return channel;
+            }
+        };
+        liveSync = new LiveSync(context, restMethod, chatDatabase);
+        liveSync.start();
+        awaitLive();
+    }
+
+    @After
+    public void tearDown() {
+        liveSync.stop();
+        channel.shutdownNow();
+        server.shutdown();
+        chatDatabase.close();
+        Settings.saveChatName(context, chatName);
+        Settings.saveSubscribedChatrooms(context, subscriptions);
+        Settings.saveServerEncoding(context, serverEncoding);
+    }
+
+    @Test
+    public void downloadLatency() {
+        long[] latencies = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = SystemClock.elapsedRealtime();
+            edu.stevens.cs522.chat.web.grpc.Message published = server.publish(OTHER, CHATROOM, "Pushed " + i);
+            awaitSequenceNumber(published.getSeqNum());
+            latencies[i] = SystemClock.elapsedRealtime() - start;
+        }
+        assertEquals(ROUNDS, countMessages());
+        report("download", latencies);
+    }
+
+    @Test
+    public void uploadLatency() throws InterruptedException {
+        long[] latencies = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            Message message = message("Posted " + i);
+            long start = SystemClock.elapsedRealtime();
+            // As RequestProcessor does for a posted message
+            message.id = chatDatabase.requestDao().insert(message);
+            liveSync.post(message);
+            FakeChatServer.Upload upload = server.getUploads().poll(5, TimeUnit.SECONDS);
+            assertNotNull("Message was not uploaded", upload);
+            latencies[i] = upload.received - start;
+        }
+        report("upload", latencies);
+        // The server echoes our messages back with their sequence numbers
+        awaitSequenceNumber(ROUNDS);
+        assertEquals(0, chatDatabase.requestDao().countUnsentMessages());
+    }
+
+    @Test
+    public void resumeFromWatermark() throws InterruptedException {
+        assertEquals(Long.valueOf(0), server.getVersions().poll(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            server.publish(OTHER, CHATROOM, "Before " + i);
+        }
+        awaitSequenceNumber(10);
+
+        server.disconnectAll();
+        // Published while we are disconnected
+        for (int i = 0; i < 5; i++) {
+            server.publish(OTHER, CHATROOM, "While disconnected " + i);
+        }
+
+        Long version = server.getVersions().poll(LiveSync.INITIAL_BACKOFF + 5, TimeUnit.SECONDS);
+        assertEquals("Reconnect should resume from the watermark", Long.valueOf(10), version);
+        awaitSequenceNumber(15);
+        assertEquals(15, countMessages());
+        assertEquals(2, liveSync.getConnects());
+    }
+
+    @Test
+    public void subscriptionFilter() throws InterruptedException {
+        Settings.subscribeChatroom(context, CHATROOM);
+        liveSync.resubscribe();
+        awaitLive();
+        assertEquals(Collections.singletonMap(CHATROOM, 0L), server.getSubscriptions().poll(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 10; i++) {
+            server.publish(OTHER, OTHER_CHATROOM, "Not followed " + i);
+            server.publish(OTHER, CHATROOM, "Followed " + i);
+        }
+        awaitSequenceNumber(20);
+        assertEquals("Only messages in followed chatrooms are downloaded", 10, countMessages());
+
+        // Resume from the watermark for the chatroom
+        server.disconnectAll();
+        server.publish(OTHER, CHATROOM, "While disconnected");
+        Map<String, Long> resumed = server.getSubscriptions().poll(LiveSync.INITIAL_BACKOFF + 5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonMap(CHATROOM, 20L), resumed);
+        awaitSequenceNumber(21);
+        assertEquals(11, countMessages());
+    }
+
+    private void awaitLive() throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + 5000;
+        while (!liveSync.isLive()) {
+            assertTrue("Live sync did not connect", SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitSequenceNumber(long seqNum) {
+        long deadline = SystemClock.elapsedRealtime() + 5000;
+        while (chatDatabase.requestDao().getLastSequenceNumber() < seqNum) {
+            assertTrue("Message " + seqNum + " was not delivered", SystemClock.elapsedRealtime() < deadline);
+            SystemClock.sleep(1);
+        }
+    }
+
+    private void report(String label, long[] latencies) {
+        Arrays.sort(latencies);
+        long median = latencies[latencies.length / 2];
+        long p95 = latencies[latencies.length * 95 / 100];
+        Log.i(TAG, String.format("%s latency: median %d ms, p95 %d ms, max %d ms",
+                label, median, p95, latencies[latencies.length - 1]));
+        assertTrue(label + " latency should be sub-second", median < MAX_MEDIAN_LATENCY);
+    }
+
+    private long countMessages() {
+        try (Cursor cursor = chatDatabase.query("SELECT COUNT(*) FROM Message", null)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+
+    private Message message(String text) {
+        Message message = new Message();
+        message.chatroom = CHATROOM;
+        message.messageText = text;
+        message.appID = Settings.getAppId(context);
+        message.timestamp = Instant.now();
+        message.latitude = 40.7;
+        message.longitude = -74.0;
+        message.sender = ME;
+        return message;
+    }
+
+    private static Peer peer(String name) {
+        Peer peer = new Peer();
+        peer.name = name;
+        peer.timestamp = Instant.now();
+        peer.latitude = 40.7;
+        peer.longitude = -74.0;
+        return peer;
+    }
+
+}
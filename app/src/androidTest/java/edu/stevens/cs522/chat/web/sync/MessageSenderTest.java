@@ -0,0 +1,161 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.settings.Settings;
+import edu.stevens.cs522.chat.web.RestMethod;
+import edu.stevens.cs522.chat.web.request.ChatServiceRequest;
+import io.grpc.Channel;
+import io.grpc.ManagedChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sends a burst of messages, and checks that it goes up in one upload when the stream is not
+ * live, and that the send to acknowledgement latency is recorded when it is.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageSenderTest {
+
+    private static final String TAG = MessageSenderTest.class.getCanonicalName();
+
+    private static final int BURST = 20;
+
+    private static final String CHATROOM = "general";
+
+    private static final String ME = "message-sender-test";
+
+    private Context context;
+
+    private String chatName;
+
+    private Set<String> subscriptions;
+
+    private int serverEncoding;
+
+    private ChatDatabase chatDatabase;
+
+    private FakeChatServer server;
+
+    private ManagedChannel channel;
+
+    private LiveSync liveSync;
+
+    private final BlockingQueue<long[]> uploads = new LinkedBlockingQueue<>();
+
+    private MessageSender sender;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        chatName = Settings.getChatName(context);
+        Settings.saveChatName(context, ME);
+        subscriptions = Settings.getSubscribedChatrooms(context);
+        Settings.saveSubscribedChatrooms(context, Collections.emptySet());
+        serverEncoding = Settings.getServerEncoding(context);
+        Settings.saveServerEncoding(context, Settings.DEFAULT_ENCODING);
+
+        chatDatabase = Room.inMemoryDatabaseBuilder(context, ChatDatabase.class)
+                .addCallback(ChatDatabase.UNMANAGED_INDEX_CALLBACK)
+                .build();
+        chatDatabase.requestDao().initLastSequenceNumber();
+        chatDatabase.chatroomDao().insert(new Chatroom(CHATROOM));
+
+        server = new FakeChatServer().start();
+        channel = server.newChannel();
+
+        RestMethod restMethod = new RestMethod(context) {
+            @Override
+            protected Channel getChannel(Uri serverUri, ChatServiceRequest request) {
+                return channel;
+            }
+        };
+        liveSync = new LiveSync(context, restMethod, chatDatabase);
+        sender = new MessageSender(chatDatabase, liveSync, uploads::add);
+    }
+
+    @After
+    public void tearDown() {
+        liveSync.stop();
+        channel.shutdownNow();
+        server.shutdown();
+        chatDatabase.close();
+        Settings.saveChatName(context, chatName);
+        Settings.saveSubscribedChatrooms(context, subscriptions);
+        Settings.saveServerEncoding(context, serverEncoding);
+    }
+
+    @Test
+    public void burstIsOneUpload() throws InterruptedException {
+        for (int i = 0; i < BURST; i++) {
+            sender.send(message("Burst " + i));
+        }
+        long[] ids = uploads.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Messages were not uploaded", ids);
+        assertEquals(BURST, ids.length);
+        assertNull("A burst should be one upload", uploads.poll(10 * MessageSender.DEBOUNCE, TimeUnit.MILLISECONDS));
+        assertEquals(BURST, chatDatabase.requestDao().countUnsentMessages(ids));
+    }
+
+    @Test
+    public void ackLatency() throws InterruptedException {
+        liveSync.start();
+        long deadline = SystemClock.elapsedRealtime() + 5000;
+        while (!liveSync.isLive()) {
+            assertTrue("Live sync did not connect", SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(10);
+        }
+
+        for (int i = 0; i < BURST; i++) {
+            sender.send(message("Live " + i));
+        }
+        deadline = SystemClock.elapsedRealtime() + 5000;
+        while (sender.getAckLatency().getCount() < BURST) {
+            assertTrue("Messages were not acknowledged", SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(10);
+        }
+        Log.i(TAG, "Send to ack: " + sender.getAckLatency());
+        assertEquals(0, sender.getPending());
+        assertEquals(0, chatDatabase.requestDao().countUnsentMessages());
+        assertTrue("Messages should go up on the live stream", uploads.isEmpty());
+    }
+
+    private Message message(String text) {
+        Message message = new Message();
+        message.chatroom = CHATROOM;
+        message.messageText = text;
+        message.appID = Settings.getAppId(context);
+        message.timestamp = Instant.now();
+        message.latitude = 40.7;
+        message.longitude = -74.0;
+        message.sender = ME;
+        return message;
+    }
+
+}
@@ -0,0 +1,185 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.settings.Settings;
+import edu.stevens.cs522.chat.viewmodels.MessageTimeline;
+import edu.stevens.cs522.chat.web.RestMethod;
+import edu.stevens.cs522.chat.web.request.ChatServiceRequest;
+import edu.stevens.cs522.chat.web.request.ChatServiceResponse;
+import edu.stevens.cs522.chat.web.request.SynchronizeRequest;
+import io.grpc.Channel;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time for a newly registered device to show the newest messages in a chatroom,
+ * against an in-process stand-in for the chat server with a long history: first with the
+ * history streamed down the subscription, then with a snapshot loaded before subscribing.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SnapshotBootstrapBenchmark {
+
+    private static final String TAG = SnapshotBootstrapBenchmark.class.getCanonicalName();
+
+    private static final int MESSAGES = 50000;
+
+    private static final int PEERS = 50;
+
+    private static final int CHATROOMS = 10;
+
+    private static final String CHATROOM = "room-0";
+
+    private static final long TIMEOUT = 5; // minutes
+
+    private Context context;
+
+    private String chatName;
+
+    private Set<String> subscriptions;
+
+    private int serverEncoding;
+
+    private ChatDatabase chatDatabase;
+
+    private FakeChatServer server;
+
+    private ManagedChannel channel;
+
+    private LiveSync liveSync;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        chatName = Settings.getChatName(context);
+        Settings.saveChatName(context, "snapshot-test");
+        subscriptions = Settings.getSubscribedChatrooms(context);
+        Settings.saveSubscribedChatrooms(context, Collections.emptySet());
+        serverEncoding = Settings.getServerEncoding(context);
+        Settings.saveServerEncoding(context, Settings.DEFAULT_ENCODING);
+
+        // A newly registered device (see RequestProcessor)
+        chatDatabase = Room.inMemoryDatabaseBuilder(context, ChatDatabase.class)
+                .addCallback(ChatDatabase.UNMANAGED_INDEX_CALLBACK)
+                .build();
+        chatDatabase.requestDao().initLastSequenceNumber();
+        // The stand-in server does not stream peers with the history
+        for (int i = 0; i < PEERS; i++) {
+            Peer peer = new Peer();
+            peer.name = "peer-" + i;
+            peer.timestamp = Instant.now();
+            peer.latitude = 40.7;
+            peer.longitude = -74.0;
+            chatDatabase.peerDao().upsert(peer);
+        }
+
+        server = new FakeChatServer().start();
+        channel = server.newChannel();
+        for (int i = 1; i <= MESSAGES; i++) {
+            server.publish("peer-" + (i % PEERS), "room-" + (i % CHATROOMS), "Message number " + i);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (liveSync != null) {
+            liveSync.stop();
+        }
+        channel.shutdownNow();
+        server.shutdown();
+        chatDatabase.close();
+        Settings.saveChatName(context, chatName);
+        Settings.saveSubscribedChatrooms(context, subscriptions);
+        Settings.saveServerEncoding(context, serverEncoding);
+    }
+
+    @Test
+    public void bootstrapFromHistory() throws InterruptedException {
+        // A server that does not support snapshots
+        long elapsed = timeToTimeline(new TestRestMethod(context) {
+            @Override
+            public ChatServiceResponse snapshot(SynchronizeRequest request, List<String> chatrooms, SnapshotObserver observer, long deadline) {
+                return getErrorResponse(Status.UNIMPLEMENTED.asRuntimeException());
+            }
+        });
+        report("history", elapsed);
+    }
+
+    @Test
+    public void bootstrapFromSnapshot() throws InterruptedException {
+        long elapsed = timeToTimeline(new TestRestMethod(context));
+        assertEquals(Long.valueOf(MESSAGES), server.getSnapshots().poll(1, TimeUnit.SECONDS));
+        // The subscription resumes after the snapshot
+        assertEquals(Long.valueOf(MESSAGES), server.getVersions().poll(1, TimeUnit.SECONDS));
+        report("snapshot", elapsed);
+    }
+
+    /*
+     * Start live sync, and wait until it is connected and the newest page of the chatroom is
+     * there to show.  Returns the elapsed time in milliseconds.
+     */
+    private long timeToTimeline(RestMethod restMethod) throws InterruptedException {
+        long start = SystemClock.elapsedRealtime();
+        liveSync = new LiveSync(context, restMethod, chatDatabase);
+        liveSync.start();
+        long deadline = start + TimeUnit.MINUTES.toMillis(TIMEOUT);
+        while (!liveSync.isLive() || chatDatabase.requestDao().getLastSequenceNumber() < MESSAGES) {
+            assertTrue("Download did not finish", SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(MessageTimeline.PAGE_SIZE, chatDatabase.messageDao().fetchNewestMessages(CHATROOM, MessageTimeline.PAGE_SIZE).size());
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        assertEquals(MESSAGES, countMessages());
+        return elapsed;
+    }
+
+    private void report(String label, long elapsed) {
+        Log.i(TAG, String.format("%s: first timeline after %d ms (%d messages, %.0f messages/sec)",
+                label, elapsed, MESSAGES, MESSAGES * 1000.0 / Math.max(elapsed, 1)));
+    }
+
+    private long countMessages() {
+        try (Cursor cursor = chatDatabase.query("SELECT COUNT(*) FROM Message", null)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+
+    private class TestRestMethod extends RestMethod {
+
+        TestRestMethod(Context context) {
+            super(context);
+        }
+
+        @Override
+        protected Channel getChannel(Uri serverUri, ChatServiceRequest request) {
+            return channel;
+        }
+    }
+
+}
@@ -194,6 +194,11 @@ public class ChatActivity extends AppCompatActivity implements ChatroomsFragment
             startActivity(intent);
             return true;
 
+        } else if (itemId == R.id.search) {
+            Intent intent = new Intent(this, SearchActivity.class);
+            startActivity(intent);
+            return true;
+
         }
         return false;
     }
@@ -237,6 +242,7 @@ public class ChatActivity extends AppCompatActivity implements ChatroomsFragment
         executor.execute(() -> {
             chatroomDao.insert(chatroom);
         });
+        chatHelper.subscribe(chatroomName);
     }
 
     @Override
@@ -247,6 +253,9 @@ public class ChatActivity extends AppCompatActivity implements ChatroomsFragment
      */
     public void setChatroom(Chatroom chatroom) {
         sharedViewModel.select(chatroom);
+        if (chatroom != null) {
+            chatHelper.subscribe(chatroom.name);
+        }
         if (isTwoPane) {
             // TODO for two pane, enable Back callback if we are entering a chatroom
             if(chatroom != null) {
@@ -85,7 +85,7 @@ public class ChatroomsFragment extends Fragment implements View.OnClickListener,
         chatroomList.setLayoutManager(new LinearLayoutManager(requireActivity()));
 
         // TODO Initialize the recyclerview and adapter for messages
-        chatroomsAdapter = new TextAdapter<Chatroom>(chatroomList, this);
+        chatroomsAdapter = new TextAdapter<Chatroom>(chatroomList, this, chatroom -> chatroom.id);
         chatroomList.setAdapter(chatroomsAdapter);
 
         chatroomName = rootView.findViewById(R.id.chatroom_add_text);
@@ -113,10 +113,7 @@ public class ChatroomsFragment extends Fragment implements View.OnClickListener,
         // TODO query the database asynchronously, and use messagesAdapter to display the result
         chatrooms = chatroomViewModel.fetchAllChatrooms();
         //chatroomList.setAdapter(chatroomsAdapter);
-        chatrooms.observe(getViewLifecycleOwner(), cht -> {
-            chatroomsAdapter.setDataset(cht);
-            chatroomsAdapter.notifyDataSetChanged();
-        });
+        chatrooms.observe(getViewLifecycleOwner(), chatroomsAdapter::submitDataset);
     }
 
     @Override
@@ -28,16 +28,16 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 import java.util.ArrayList;
-import java.util.List;
 
 import edu.stevens.cs522.chat.R;
 import edu.stevens.cs522.chat.entities.Chatroom;
-import edu.stevens.cs522.chat.entities.Message;
 import edu.stevens.cs522.chat.settings.Settings;
 import edu.stevens.cs522.chat.ui.MessageAdapter;
 import edu.stevens.cs522.chat.ui.MessageSenderAdapter;
 import edu.stevens.cs522.chat.viewmodels.ChatViewModel;
+import edu.stevens.cs522.chat.viewmodels.MessageTimeline;
 import edu.stevens.cs522.chat.viewmodels.SharedViewModel;
+import edu.stevens.cs522.chat.web.sync.SyncScheduler;
 
 public class MessagesFragment extends Fragment implements OnClickListener {
 
@@ -45,6 +45,11 @@ public class MessagesFragment extends Fragment implements OnClickListener {
 
     public final static String CHATROOM_KEY = "chatroom";
 
+    /*
+     * Page in more messages when the view scrolls within this many rows of either end of the window.
+     */
+    private final static int PREFETCH_DISTANCE = MessageTimeline.PAGE_SIZE / 2;
+
     public interface IChatListener {
         public void sendMessageDialog(Chatroom chatroom);
     }
@@ -63,8 +68,12 @@ public class MessagesFragment extends Fragment implements OnClickListener {
 
     // Display list of messages in a chatroom (with senders identified in message headings)
     private MessageAdapter messagesAdapter;
-    private LiveData<List<Message>> messages;
+    private LiveData<MessageTimeline.Window> messages;
+    private MessageTimeline.Window window;
+    // Only ask for one page at each end until the next window arrives
+    private boolean olderRequested, newerRequested;
     private RecyclerView messageList;
+    private LinearLayoutManager layoutManager;
 
 
     public MessagesFragment() {
@@ -105,7 +114,14 @@ public class MessagesFragment extends Fragment implements OnClickListener {
          * Widget for list of messages
          */
         messageList = rootView.findViewById(R.id.message_list);
-        messageList.setLayoutManager(new LinearLayoutManager(requireActivity()));
+        layoutManager = new LinearLayoutManager(requireActivity());
+        messageList.setLayoutManager(layoutManager);
+        messageList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                prefetch();
+            }
+        });
 
         // TODO Initialize the recyclerview and adapter for messages
         messagesAdapter = new MessageSenderAdapter();
@@ -135,26 +151,90 @@ public class MessagesFragment extends Fragment implements OnClickListener {
         messagesHeader.setText(header);
 
         if (chatroom == null) {
-            messagesAdapter.setMessages(new ArrayList<>(0));
-            messagesAdapter.notifyDataSetChanged();
+            messagesAdapter.submitMessages(new ArrayList<>(0));
             return;
         }
 
         // TODO query the database asynchronously, and use messagesAdapter to display the result
-        messages = chatViewModel.fetchAllMessages(chatroom);
-        messageList.setAdapter(messagesAdapter);
-        messages.observe(getViewLifecycleOwner(), ms -> {
-            messagesAdapter.setMessages(ms);
-            messagesAdapter.notifyDataSetChanged();
+        if (messages != null) {
+            messages.removeObservers(getViewLifecycleOwner());
+        }
+        window = null;
+        messages = chatViewModel.fetchMessages(chatroom);
+        messages.observe(getViewLifecycleOwner(), this::showMessages);
+    }
+
+    /*
+     * Show a new window on the messages, keeping the first visible message where it was on the
+     * screen (a page may have been added or dropped above it).  The adapter diffs the new
+     * window against the old one, so only rows that are new or changed are bound.
+     */
+    private void showMessages(MessageTimeline.Window window) {
+        boolean first = this.window == null;
+
+        long anchorId = -1;
+        int anchorOffset = 0;
+        int anchorPosition = layoutManager.findFirstVisibleItemPosition();
+        if (!first && anchorPosition != RecyclerView.NO_POSITION && anchorPosition < messagesAdapter.getItemCount()) {
+            anchorId = messagesAdapter.getMessage(anchorPosition).id;
+            View anchorView = layoutManager.findViewByPosition(anchorPosition);
+            anchorOffset = (anchorView != null) ? anchorView.getTop() : 0;
+        }
+
+        final boolean scrollToEnd = first;
+        final long anchor = anchorId;
+        final int offset = anchorOffset;
+        messagesAdapter.submitMessages(window.messages, () -> {
+            // Page requests are made against the window that the adapter is showing
+            this.window = window;
+            olderRequested = newerRequested = false;
+            if (scrollToEnd) {
+                // Start at the newest messages
+                if (!window.messages.isEmpty()) {
+                    layoutManager.scrollToPosition(window.messages.size() - 1);
+                }
+            } else if (anchor >= 0) {
+                int position = messagesAdapter.getPosition(anchor);
+                if (position >= 0) {
+                    layoutManager.scrollToPositionWithOffset(position, offset);
+                }
+            }
+            // Once the new window has been laid out, it may be short enough to need another page
+            messageList.post(this::prefetch);
         });
     }
 
+    /*
+     * Page in more messages if the view is close to either end of the window.
+     */
+    private void prefetch() {
+        if (window == null) {
+            return;
+        }
+        int firstVisible = layoutManager.findFirstVisibleItemPosition();
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (firstVisible == RecyclerView.NO_POSITION) {
+            return;
+        }
+        if (window.hasOlder && !olderRequested && firstVisible < PREFETCH_DISTANCE) {
+            olderRequested = true;
+            chatViewModel.loadOlderMessages();
+        }
+        if (window.hasNewer && !newerRequested && lastVisible >= window.messages.size() - PREFETCH_DISTANCE) {
+            newerRequested = true;
+            chatViewModel.loadNewerMessages();
+        }
+    }
+
 	public void onResume() {
         super.onResume();
+        // Sync more often while the user is looking at a chatroom
+        SyncScheduler.getInstance(requireContext()).setChatroomOpen(true);
     }
 
     public void onPause() {
         super.onPause();
+        SyncScheduler.getInstance(requireContext()).setChatroomOpen(false);
     }
 
     public void onDestroy() {
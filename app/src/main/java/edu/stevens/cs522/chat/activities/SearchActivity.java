@@ -0,0 +1,86 @@
+package edu.stevens.cs522.chat.activities;
+
+import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.widget.EditText;
+
+import androidx.activity.EdgeToEdge;
+import androidx.annotation.NonNull;
+import androidx.core.graphics.Insets;
+import androidx.core.view.ViewCompat;
+import androidx.core.view.WindowInsetsCompat;
+import androidx.fragment.app.FragmentActivity;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import edu.stevens.cs522.chat.R;
+import edu.stevens.cs522.chat.ui.MessageAdapter;
+import edu.stevens.cs522.chat.ui.MessageChatroomAdapter;
+import edu.stevens.cs522.chat.viewmodels.SearchViewModel;
+
+/**
+ * Full-text search over messages in all chatrooms, searching as the user types.
+ */
+public class SearchActivity extends FragmentActivity {
+
+    /*
+     * Load more results when the view is this close to the end of the results.
+     */
+    private static final int PREFETCH_DISTANCE = 10;
+
+    private SearchViewModel searchViewModel;
+
+    private MessageAdapter resultsAdapter;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        EdgeToEdge.enable(this);
+
+        setContentView(R.layout.search_messages);
+
+        ViewCompat.setOnApplyWindowInsetsListener(findViewById(R.id.search_messages), (v, insets) -> {
+            Insets systemBars = insets.getInsets(WindowInsetsCompat.Type.systemBars());
+            v.setPadding(systemBars.left, systemBars.top, systemBars.right, systemBars.bottom);
+            return insets;
+        });
+
+        RecyclerView resultsList = findViewById(R.id.search_results);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        resultsList.setLayoutManager(layoutManager);
+        resultsAdapter = new MessageChatroomAdapter();
+        resultsList.setAdapter(resultsAdapter);
+
+        searchViewModel = new ViewModelProvider(this).get(SearchViewModel.class);
+        searchViewModel.getResults().observe(this, resultsAdapter::submitMessages);
+
+        resultsList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= resultsAdapter.getItemCount() - PREFETCH_DISTANCE) {
+                    searchViewModel.loadMore();
+                }
+            }
+        });
+
+        EditText searchText = findViewById(R.id.search_text);
+        searchText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchViewModel.search(s.toString());
+            }
+        });
+    }
+
+}
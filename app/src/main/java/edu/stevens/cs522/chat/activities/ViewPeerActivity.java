@@ -78,10 +78,7 @@ public class ViewPeerActivity extends FragmentActivity {
         PeerViewModel peerViewModel = new ViewModelProvider(this).get(PeerViewModel.class);
 
         // TODO query the database asynchronously, and use messagesAdapter to display the result
-        peerViewModel.fetchMessagesFromPeer(peer).observe(this, ms-> {
-            messageAdapter.setMessages(ms);
-            messageAdapter.notifyDataSetChanged();
-        });
+        peerViewModel.fetchMessagesFromPeer(peer).observe(this, messageAdapter::submitMessages);
         Log.d(TAG, "Getting messages for peer id = "+ peer.id);
     }
 
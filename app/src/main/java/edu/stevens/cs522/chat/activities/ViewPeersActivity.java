@@ -48,17 +48,14 @@ public class ViewPeersActivity extends FragmentActivity implements TextAdapter.O
         RecyclerView peersList = findViewById(R.id.peer_list);
         peersList.setLayoutManager(new LinearLayoutManager(this));
 
-        peerAdapter = new TextAdapter<>(peersList, this);
+        peerAdapter = new TextAdapter<>(peersList, this, peer -> peer.id);
         peersList.setAdapter(peerAdapter);
 
         // TODO create the view model and query for a list of all peers
         PeersViewModel peersViewModel = new ViewModelProvider(this).get(PeersViewModel.class);
 
         // TODO observer for list of peers updates the peer adapter
-        peersViewModel.fetchAllPeers().observe(this, pr-> {
-            peerAdapter.setDataset(pr);
-            peerAdapter.notifyDataSetChanged();
-        });
+        peersViewModel.fetchAllPeers().observe(this, peerAdapter::submitDataset);
     }
 
     @Override
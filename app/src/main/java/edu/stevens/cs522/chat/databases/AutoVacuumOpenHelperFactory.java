@@ -0,0 +1,64 @@
+package edu.stevens.cs522.chat.databases;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
+
+/**
+ * Opens the database with incremental vacuum turned on, so that the space freed by message
+ * retention can be given back a few pages at a time (see MessageRetention).
+ *
+ * The setting only takes effect when the database file is created: it is made before Room
+ * creates any tables.  A database created before this keeps its setting, since changing it
+ * would mean rebuilding the whole file under an exclusive lock.
+ */
+class AutoVacuumOpenHelperFactory implements SupportSQLiteOpenHelper.Factory {
+
+    private final SupportSQLiteOpenHelper.Factory delegate = new FrameworkSQLiteOpenHelperFactory();
+
+    @NonNull
+    @Override
+    public SupportSQLiteOpenHelper create(@NonNull SupportSQLiteOpenHelper.Configuration configuration) {
+        final SupportSQLiteOpenHelper.Callback callback = configuration.callback;
+        return delegate.create(SupportSQLiteOpenHelper.Configuration.builder(configuration.context)
+                .name(configuration.name)
+                .noBackupDirectory(configuration.useNoBackupDirectory)
+                .allowDataLossOnRecovery(configuration.allowDataLossOnRecovery)
+                .callback(new SupportSQLiteOpenHelper.Callback(callback.version) {
+                    @Override
+                    public void onConfigure(@NonNull SupportSQLiteDatabase db) {
+                        // No effect once the database has tables
+                        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                        callback.onConfigure(db);
+                    }
+
+                    @Override
+                    public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                        callback.onCreate(db);
+                    }
+
+                    @Override
+                    public void onUpgrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+                        callback.onUpgrade(db, oldVersion, newVersion);
+                    }
+
+                    @Override
+                    public void onDowngrade(@NonNull SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+                        callback.onDowngrade(db, oldVersion, newVersion);
+                    }
+
+                    @Override
+                    public void onOpen(@NonNull SupportSQLiteDatabase db) {
+                        callback.onOpen(db);
+                    }
+
+                    @Override
+                    public void onCorruption(@NonNull SupportSQLiteDatabase db) {
+                        callback.onCorruption(db);
+                    }
+                })
+                .build());
+    }
+
+}
@@ -1,18 +1,26 @@
 package edu.stevens.cs522.chat.databases;
 
 import android.content.Context;
+import android.database.Cursor;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.util.UUID;
 
 import edu.stevens.cs522.chat.entities.Chatroom;
 import edu.stevens.cs522.chat.entities.Counter;
 import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.MessageFts;
 import edu.stevens.cs522.chat.entities.Peer;
 import edu.stevens.cs522.chat.entities.TimestampConverter;
 import edu.stevens.cs522.chat.entities.UUIDConverter;
+import edu.stevens.cs522.chat.settings.Settings;
 
 /**
  * Created by dduggan.
@@ -21,14 +29,176 @@ import edu.stevens.cs522.chat.entities.UUIDConverter;
  */
 
 // TODO Add annotations (including @TypeConverters)
-@Database(entities={Peer.class, Message.class, Chatroom.class, Counter.class}, version=1)
-@TypeConverters({TimestampConverter.class})
+@Database(entities={Peer.class, Message.class, MessageFts.class, Chatroom.class, Counter.class}, version=6)
+@TypeConverters({TimestampConverter.class, UUIDConverter.class})
 public abstract class ChatDatabase extends RoomDatabase {
 
     private static final String DATABASE_NAME = "messages.db";
 
     private static ChatDatabase instance;
 
+    /**
+     * Indices that Room cannot declare on an entity, because they are partial.  Room would
+     * report them as unexpected when it validates the schema after a migration, so they are
+     * dropped at the start of every migration, and (re)created whenever the database is opened.
+     */
+    public static final String[] UNMANAGED_INDICES = {
+            // Unsent messages, in order of primary key (see RequestDao.getUnsentMessages)
+            "CREATE INDEX IF NOT EXISTS `index_Message_unsent` ON `Message` (`id`) WHERE `seqNum` = 0",
+            // Messages from the server, by sequence number, so a replayed download is ignored (see RequestDao.insert)
+            "CREATE UNIQUE INDEX IF NOT EXISTS `index_Message_seqNum` ON `Message` (`seqNum`) WHERE `seqNum` > 0"
+    };
+
+    private static final String[] UNMANAGED_INDEX_NAMES = {
+            "index_Message_unsent",
+            "index_Message_seqNum"
+    };
+
+    /**
+     * Version 2: indices for the hot message queries.
+     */
+    public static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            dropUnmanagedIndices(db);
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_Message_chatroom_seqNum` ON `Message` (`chatroom`, `seqNum`)");
+        }
+    };
+
+    /**
+     * Version 3: timestamps are stored as epoch milliseconds (INTEGER) rather than ISO-8601
+     * strings.  SQLite cannot change the type of a column, so the Message and Peer tables are
+     * rebuilt.  Foreign keys are not enforced until the database is opened, so Message is
+     * rebuilt first and the rebuilt tables are checked afterwards.
+     */
+    public static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            dropUnmanagedIndices(db);
+
+            db.execSQL("CREATE TABLE IF NOT EXISTS `Message_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `chatroom` TEXT, `messageText` TEXT, " +
+                    "`seqNum` INTEGER NOT NULL, `appID` BLOB, `timestamp` INTEGER, `latitude` REAL, `longitude` REAL, `sender` TEXT, " +
+                    "FOREIGN KEY(`sender`) REFERENCES `Peer`(`name`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("INSERT INTO `Message_new` (`id`, `chatroom`, `messageText`, `seqNum`, `appID`, `timestamp`, `latitude`, `longitude`, `sender`) " +
+                    "SELECT `id`, `chatroom`, `messageText`, `seqNum`, `appID`, " + epochMillis("`timestamp`") + ", `latitude`, `longitude`, `sender` FROM `Message`");
+            db.execSQL("DROP TABLE `Message`");
+            db.execSQL("ALTER TABLE `Message_new` RENAME TO `Message`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_Message_sender` ON `Message` (`sender`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_Message_chatroom_seqNum` ON `Message` (`chatroom`, `seqNum`)");
+
+            db.execSQL("CREATE TABLE IF NOT EXISTS `Peer_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `name` TEXT, `timestamp` INTEGER, " +
+                    "`latitude` REAL, `longitude` REAL)");
+            db.execSQL("INSERT INTO `Peer_new` (`id`, `name`, `timestamp`, `latitude`, `longitude`) " +
+                    "SELECT `id`, `name`, " + epochMillis("`timestamp`") + ", `latitude`, `longitude` FROM `Peer`");
+            db.execSQL("DROP TABLE `Peer`");
+            db.execSQL("ALTER TABLE `Peer_new` RENAME TO `Peer`");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_Peer_name` ON `Peer` (`name`)");
+
+            try (Cursor cursor = db.query("PRAGMA foreign_key_check(`Message`)")) {
+                if (cursor.moveToFirst()) {
+                    throw new IllegalStateException("Foreign key violation in Message after migration to version 3");
+                }
+            }
+        }
+    };
+
+    /**
+     * Version 4: full-text index on messages, kept in sync with Message by triggers (as Room
+     * creates them for MessageFts), and built from the messages already in the database.
+     */
+    public static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            dropUnmanagedIndices(db);
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `MessageFts` USING FTS4(`messageText` TEXT, `sender` TEXT, `chatroom` TEXT, content=`Message`, prefix=`1,2`, order=DESC)");
+            for (String operation : new String[] { "UPDATE", "DELETE" }) {
+                db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_MessageFts_BEFORE_" + operation + " BEFORE " + operation + " ON `Message` " +
+                        "BEGIN DELETE FROM `MessageFts` WHERE `docid`=OLD.`rowid`; END");
+            }
+            for (String operation : new String[] { "UPDATE", "INSERT" }) {
+                db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_MessageFts_AFTER_" + operation + " AFTER " + operation + " ON `Message` " +
+                        "BEGIN INSERT INTO `MessageFts`(`docid`, `messageText`, `sender`, `chatroom`) " +
+                        "VALUES (NEW.`rowid`, NEW.`messageText`, NEW.`sender`, NEW.`chatroom`); END");
+            }
+            db.execSQL("INSERT INTO `MessageFts`(`MessageFts`) VALUES('rebuild')");
+        }
+    };
+
+    /**
+     * Version 5: retention policies on chatrooms (see MessageRetention).
+     */
+    public static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            dropUnmanagedIndices(db);
+            db.execSQL("ALTER TABLE `Chatroom` ADD COLUMN `retainDays` INTEGER");
+            db.execSQL("ALTER TABLE `Chatroom` ADD COLUMN `retainMessages` INTEGER");
+        }
+    };
+
+    /**
+     * Version 6: sequence numbers from the server are unique (see UNMANAGED_INDICES).  A download
+     * that was replayed may have stored a message more than once, so only the first copy is kept
+     * before the index is created.  Messages are only copies if they also have the same appID,
+     * text and timestamp.
+     *
+     * Our own messages could also be given the sequence number of another message when they
+     * were uploaded.  The server has already sequenced them, and ignores them if they are sent
+     * again, so they are not marked unsent.  Instead they are set aside (seqNum = -id, which is
+     * neither unsent nor indexed), and the last sequence number is moved back before the first
+     * of them, so the next sync downloads them again and RequestDao.upsert restores their real
+     * sequence numbers.  The other messages in that range are already here and are ignored.
+     */
+    public static Migration getMigration5To6(final UUID myAppID) {
+        return new Migration(5, 6) {
+            @Override
+            public void migrate(@NonNull SupportSQLiteDatabase db) {
+                dropUnmanagedIndices(db);
+                db.execSQL("DELETE FROM `Message` WHERE `seqNum` > 0 AND `id` NOT IN " +
+                        "(SELECT MIN(`id`) FROM `Message` WHERE `seqNum` > 0 " +
+                        "GROUP BY `seqNum`, `appID`, `messageText`, `timestamp`)");
+
+                String colliding = "SELECT `seqNum` FROM `Message` WHERE `seqNum` > 0 GROUP BY `seqNum` HAVING COUNT(*) > 1";
+                String firstOwn = "(SELECT MIN(`seqNum`) FROM `Message` WHERE `appID` = ? AND `seqNum` IN (" + colliding + "))";
+                byte[] appID = UUIDConverter.toBytes(myAppID);
+                db.execSQL("UPDATE `Counter` SET `lastSeqNum` = " + firstOwn + " - 1 WHERE `lastSeqNum` >= " + firstOwn,
+                        new Object[] { appID, appID });
+                db.execSQL("UPDATE `Message` SET `seqNum` = -`id` WHERE `appID` = ? AND `seqNum` IN (" + colliding + ")",
+                        new Object[] { appID });
+
+                // Any other peer's messages that still collide are copies: keep the first
+                db.execSQL("DELETE FROM `Message` WHERE `seqNum` > 0 AND `id` NOT IN " +
+                        "(SELECT MIN(`id`) FROM `Message` WHERE `seqNum` > 0 GROUP BY `seqNum`)");
+            }
+        };
+    }
+
+    /*
+     * SQL for the epoch milliseconds of an ISO-8601 timestamp column, quoted (NULL stays NULL).
+     */
+    static String epochMillis(String column) {
+        return "CAST(ROUND((julianday(" + column + ") - 2440587.5) * 86400000) AS INTEGER)";
+    }
+
+    public static final Callback UNMANAGED_INDEX_CALLBACK = new Callback() {
+        @Override
+        public void onOpen(@NonNull SupportSQLiteDatabase db) {
+            createUnmanagedIndices(db);
+        }
+    };
+
+    public static void createUnmanagedIndices(SupportSQLiteDatabase db) {
+        for (String sql : UNMANAGED_INDICES) {
+            db.execSQL(sql);
+        }
+    }
+
+    public static void dropUnmanagedIndices(SupportSQLiteDatabase db) {
+        for (String name : UNMANAGED_INDEX_NAMES) {
+            db.execSQL("DROP INDEX IF EXISTS `" + name + "`");
+        }
+    }
+
     public abstract PeerDao peerDao();
 
     public abstract ChatroomDao chatroomDao();
@@ -37,9 +207,35 @@ public abstract class ChatDatabase extends RoomDatabase {
 
     public abstract RequestDao requestDao();
 
+    public abstract SearchDao searchDao();
+
+    public abstract RetentionDao retentionDao();
+
+    private MessageChangeTracker messageChangeTracker;
+
+    /**
+     * Change notification for messages, by chatroom and sender (see MessageChangeTracker).
+     */
+    public synchronized MessageChangeTracker getMessageChangeTracker() {
+        if (messageChangeTracker == null) {
+            // Draining the log is a write transaction, so it runs with the other writes, not ahead of UI reads
+            messageChangeTracker = new MessageChangeTracker(this, DatabaseExecutors.getInstance().getBackground());
+        }
+        return messageChangeTracker;
+    }
+
     public static ChatDatabase getInstance(Context context) {
         if (instance == null) {
-            instance = Room.databaseBuilder(context, ChatDatabase.class, DATABASE_NAME).build();
+            // LiveData queries for the UI run ahead of sync work (see DatabaseExecutors)
+            DatabaseExecutors executors = DatabaseExecutors.getInstance();
+            instance = Room.databaseBuilder(context, ChatDatabase.class, DATABASE_NAME)
+                    .setQueryExecutor(executors.getForeground())
+                    .setTransactionExecutor(executors.getBackground())
+                    .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5,
+                            getMigration5To6(Settings.getAppId(context)))
+                    .addCallback(UNMANAGED_INDEX_CALLBACK)
+                    .openHelperFactory(new AutoVacuumOpenHelperFactory())
+                    .build();
         }
         return instance;
     }
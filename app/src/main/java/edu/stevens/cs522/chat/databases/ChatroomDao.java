@@ -36,4 +36,10 @@ public abstract class ChatroomDao {
     @Insert(onConflict = OnConflictStrategy.IGNORE)
     public abstract void insert(Chatroom chatroom);
 
+    /*
+     * Retention for messages in a chatroom, null for both uses the default (see MessageRetention)
+     */
+    @Query("UPDATE Chatroom SET retainDays = :days, retainMessages = :messages WHERE name = :chatroom")
+    public abstract void setRetention(String chatroom, Integer days, Integer messages);
+
 }
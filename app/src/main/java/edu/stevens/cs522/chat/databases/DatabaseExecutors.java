@@ -0,0 +1,203 @@
+package edu.stevens.cs522.chat.databases;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.stevens.cs522.chat.util.LatencyHistogram;
+
+/**
+ * The threads that run database work, in two priority lanes.
+ *
+ * FOREGROUND is for reads that the UI is waiting on (Room runs LiveData queries here).
+ * BACKGROUND is for bulk sync work, e.g. applying downloads (see ApplyQueue).  Both lanes
+ * share one pool, whose queue always runs waiting foreground tasks first.  Background tasks
+ * run one at a time, in order, at low thread priority, so they never take more than one
+ * thread, and a foreground read never waits behind a backlog of sync work.  A background task
+ * that is already running is not interrupted: sync keeps its transactions short instead.
+ *
+ * For each lane, the time tasks wait in the queue and the time they take to run are recorded
+ * (see getQueueWait, getExecution and logStats).
+ */
+public class DatabaseExecutors {
+
+    private static final String TAG = DatabaseExecutors.class.getCanonicalName();
+
+    public enum Lane { FOREGROUND, BACKGROUND }
+
+    public static final int THREADS = 4;
+
+    private static final long KEEP_ALIVE = 30; // seconds
+
+    private static DatabaseExecutors instance;
+
+    public static synchronized DatabaseExecutors getInstance() {
+        if (instance == null) {
+            instance = new DatabaseExecutors(THREADS);
+        }
+        return instance;
+    }
+
+    private final ThreadPoolExecutor pool;
+
+    /*
+     * Orders tasks within a lane.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Map<Lane, LatencyHistogram> queueWait = new EnumMap<>(Lane.class);
+
+    private final Map<Lane, LatencyHistogram> execution = new EnumMap<>(Lane.class);
+
+    private final Executor foreground;
+
+    private final Executor background;
+
+    public DatabaseExecutors(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "ChatDatabase-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        for (Lane lane : Lane.values()) {
+            queueWait.put(lane, new LatencyHistogram());
+            execution.put(lane, new LatencyHistogram());
+        }
+        foreground = task -> pool.execute(new Task(Lane.FOREGROUND, task));
+        background = new SerialLane(Lane.BACKGROUND);
+    }
+
+    public Executor getForeground() {
+        return foreground;
+    }
+
+    public Executor getBackground() {
+        return background;
+    }
+
+    public Executor getExecutor(Lane lane) {
+        return lane == Lane.FOREGROUND ? foreground : background;
+    }
+
+    /**
+     * An executor that runs its tasks in a lane one at a time, in order, for a caller whose
+     * tasks share state (e.g. MessageTimeline).  It has no threads of its own.
+     */
+    public Executor newSerialExecutor(Lane lane) {
+        return new SerialLane(lane);
+    }
+
+    /**
+     * Time that tasks in a lane wait before they start.
+     */
+    public LatencyHistogram getQueueWait(Lane lane) {
+        return queueWait.get(lane);
+    }
+
+    /**
+     * Time that tasks in a lane take to run.
+     */
+    public LatencyHistogram getExecution(Lane lane) {
+        return execution.get(lane);
+    }
+
+    public void logStats() {
+        for (Lane lane : Lane.values()) {
+            Log.i(TAG, String.format("%s queue wait: %s", lane, queueWait.get(lane)));
+            Log.i(TAG, String.format("%s execution: %s", lane, execution.get(lane)));
+        }
+    }
+
+    /*
+     * A task in the pool queue, ordered by lane and then by when it was submitted.
+     */
+    private class Task implements Runnable, Comparable<Task> {
+
+        private final Lane lane;
+
+        private final Runnable runnable;
+
+        private final long order = sequence.incrementAndGet();
+
+        private final long submitted = System.nanoTime();
+
+        Task(Lane lane, Runnable runnable) {
+            this.lane = lane;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            queueWait.get(lane).record(start - submitted);
+            Thread thread = Thread.currentThread();
+            if (lane == Lane.BACKGROUND) {
+                thread.setPriority(Thread.MIN_PRIORITY);
+            }
+            try {
+                runnable.run();
+            } finally {
+                thread.setPriority(Thread.NORM_PRIORITY);
+                execution.get(lane).record(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (lane != other.lane) {
+                return lane.compareTo(other.lane);
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+
+    /*
+     * Hands tasks to the pool one at a time, in the order they were submitted.
+     */
+    private class SerialLane implements Executor {
+
+        private final Lane lane;
+
+        private final Queue<Task> tasks = new ArrayDeque<>();
+
+        private boolean active;
+
+        SerialLane(Lane lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public synchronized void execute(Runnable runnable) {
+            tasks.add(new Task(lane, () -> {
+                try {
+                    runnable.run();
+                } finally {
+                    next();
+                }
+            }));
+            if (!active) {
+                next();
+            }
+        }
+
+        private synchronized void next() {
+            Task task = tasks.poll();
+            active = task != null;
+            if (task != null) {
+                pool.execute(task);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+package edu.stevens.cs522.chat.databases;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.room.InvalidationTracker;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Change notification for messages, by chatroom and by sender.
+ *
+ * Room only tells us that the Message table has changed, so every query on the table would
+ * run again for every write, even in chatrooms that were not touched.  Here, temporary triggers
+ * (as Room uses for its own invalidation) log the chatroom and sender of every message that is
+ * inserted, updated or deleted.  The log is rolled back with the transaction, so once Room
+ * reports a commit, the log holds the keys that were changed by committed transactions.  Only
+ * observers of those keys are notified; the others count as suppressed requeries.
+ *
+ * Observers are called on a database thread, and should hand the query off to their own thread.
+ */
+public class MessageChangeTracker {
+
+    private static final String TAG = MessageChangeTracker.class.getCanonicalName();
+
+    private static final String LOG_TABLE = "temp.`message_change_log`";
+
+    /*
+     * Statements in a trigger cannot qualify the table name.
+     */
+    private static final String LOG = "INSERT OR IGNORE INTO `message_change_log` VALUES ";
+
+    private static final String[] SETUP = {
+            "CREATE TEMP TABLE IF NOT EXISTS `message_change_log` (`chatroom` TEXT, `sender` TEXT, UNIQUE (`chatroom`, `sender`))",
+            "CREATE TEMP TRIGGER IF NOT EXISTS `message_change_insert` AFTER INSERT ON main.`Message` BEGIN " +
+                    LOG + "(NEW.`chatroom`, NEW.`sender`); END",
+            "CREATE TEMP TRIGGER IF NOT EXISTS `message_change_update` AFTER UPDATE ON main.`Message` BEGIN " +
+                    LOG + "(OLD.`chatroom`, OLD.`sender`); " +
+                    LOG + "(NEW.`chatroom`, NEW.`sender`); END",
+            "CREATE TEMP TRIGGER IF NOT EXISTS `message_change_delete` AFTER DELETE ON main.`Message` BEGIN " +
+                    LOG + "(OLD.`chatroom`, OLD.`sender`); END"
+    };
+
+    /**
+     * An observer of the messages in a chatroom, or from a sender.
+     */
+    public static class Observer {
+
+        private final String chatroom;
+
+        private final String sender;
+
+        private final Runnable onChanged;
+
+        private Observer(String chatroom, String sender, Runnable onChanged) {
+            this.chatroom = chatroom;
+            this.sender = sender;
+            this.onChanged = onChanged;
+        }
+
+        private boolean isAffected(Set<String> chatrooms, Set<String> senders) {
+            return chatroom != null ? chatrooms.contains(chatroom) : senders.contains(sender);
+        }
+    }
+
+    private final ChatDatabase chatDatabase;
+
+    private final Executor executor;
+
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
+
+    private final AtomicBoolean drainPending = new AtomicBoolean();
+
+    private volatile boolean installed;
+
+    private final AtomicLong notified = new AtomicLong();
+
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private final InvalidationTracker.Observer tableObserver = new InvalidationTracker.Observer("Message") {
+        @Override
+        public void onInvalidated(@NonNull Set<String> tables) {
+            // Coalesce a burst of commits (e.g. a sync) into one pass over the log
+            if (drainPending.compareAndSet(false, true)) {
+                executor.execute(() -> {
+                    drainPending.set(false);
+                    drain();
+                });
+            }
+        }
+    };
+
+    MessageChangeTracker(ChatDatabase chatDatabase, Executor executor) {
+        this.chatDatabase = chatDatabase;
+        this.executor = executor;
+        chatDatabase.getInvalidationTracker().addObserver(tableObserver);
+        // Off the main thread, which may be creating the first observer
+        executor.execute(this::install);
+    }
+
+    /*
+     * Create the log and the triggers.  Changes made before the triggers existed were not
+     * logged, so every observer that is already registered is notified once.
+     */
+    private void install() {
+        try {
+            SupportSQLiteDatabase db = chatDatabase.getOpenHelper().getWritableDatabase();
+            for (String sql : SETUP) {
+                db.execSQL(sql);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not create the message change log.", e);
+            return;
+        }
+        installed = true;
+        for (Observer observer : observers) {
+            notified.incrementAndGet();
+            observer.onChanged.run();
+        }
+    }
+
+    /**
+     * Call onChanged when messages in the chatroom have changed.
+     */
+    public Observer observeChatroom(@NonNull String chatroom, Runnable onChanged) {
+        Observer observer = new Observer(chatroom, null, onChanged);
+        observers.add(observer);
+        return observer;
+    }
+
+    /**
+     * Call onChanged when messages from the sender have changed.
+     */
+    public Observer observeSender(@NonNull String sender, Runnable onChanged) {
+        Observer observer = new Observer(null, sender, onChanged);
+        observers.add(observer);
+        return observer;
+    }
+
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    /*
+     * Read and clear the log, and notify the observers of the keys in it.  The temporary
+     * table is only on the connection that writes, which is the one a transaction runs on.
+     */
+    private void drain() {
+        if (!installed) {
+            return;
+        }
+        Set<String> chatrooms = new HashSet<>();
+        Set<String> senders = new HashSet<>();
+        try {
+            chatDatabase.runInTransaction(() -> {
+                try (Cursor cursor = chatDatabase.query("SELECT `chatroom`, `sender` FROM " + LOG_TABLE, null)) {
+                    while (cursor.moveToNext()) {
+                        chatrooms.add(cursor.getString(0));
+                        senders.add(cursor.getString(1));
+                    }
+                }
+                chatDatabase.getOpenHelper().getWritableDatabase().execSQL("DELETE FROM " + LOG_TABLE);
+            });
+        } catch (RuntimeException e) {
+            // e.g. the database has been closed
+            Log.e(TAG, "Could not read the message change log.", e);
+            return;
+        }
+        if (chatrooms.isEmpty() && senders.isEmpty()) {
+            return;
+        }
+
+        for (Observer observer : observers) {
+            if (observer.isAffected(chatrooms, senders)) {
+                notified.incrementAndGet();
+                observer.onChanged.run();
+            } else {
+                suppressed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Number of times observers were notified of a change.
+     */
+    public long getNotified() {
+        return notified.get();
+    }
+
+    /**
+     * Number of times observers were not notified, because the change was to other chatrooms or senders.
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d observers, %d requeries, %d requeries suppressed", observers.size(), getNotified(), getSuppressed());
+    }
+
+}
@@ -1,6 +1,5 @@
 package edu.stevens.cs522.chat.databases;
 
-import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
@@ -17,10 +16,44 @@ import edu.stevens.cs522.chat.entities.Peer;
 // TODO add annotations for Repository pattern
 @Dao
 public interface MessageDao {
-    @Query("SELECT * FROM message WHERE chatroom = :chatroom")
-    public abstract LiveData<List<Message>> fetchAllMessages(String chatroom);
+    /*
+     * The message timeline for a chatroom is read in pages, keyed on (seqNum, id), using the
+     * (chatroom, seqNum) index (see MessageTimeline).  Messages that have not been sent yet
+     * (seqNum = 0) follow the messages from the server, in the order they were posted.
+     */
+
+    /**
+     * The newest page of messages from the server, newest first.
+     */
+    @Query("SELECT * FROM Message WHERE chatroom = :chatroom AND seqNum > 0 ORDER BY seqNum DESC, id DESC LIMIT :limit")
+    public List<Message> fetchNewestMessages(String chatroom, int limit);
+
+    /**
+     * The page of messages from the server before (seqNum, id), newest first.
+     */
+    @Query("SELECT * FROM Message WHERE chatroom = :chatroom AND seqNum > 0 AND seqNum <= :seqNum AND (seqNum < :seqNum OR id < :id) " +
+            "ORDER BY seqNum DESC, id DESC LIMIT :limit")
+    public List<Message> fetchMessagesBefore(String chatroom, long seqNum, long id, int limit);
+
+    /**
+     * The page of messages from the server starting at (seqNum, id) inclusive, oldest first.
+     */
+    @Query("SELECT * FROM Message WHERE chatroom = :chatroom AND seqNum >= :seqNum AND (seqNum > :seqNum OR id >= :id) " +
+            "ORDER BY seqNum, id LIMIT :limit")
+    public List<Message> fetchMessagesFrom(String chatroom, long seqNum, long id, int limit);
+
+    /**
+     * Messages in a chatroom that are waiting to be sent, in the order they were posted.
+     */
+    @Query("SELECT * FROM Message WHERE chatroom = :chatroom AND seqNum = 0 ORDER BY id")
+    public List<Message> fetchUnsentMessages(String chatroom);
+
+    /**
+     * Messages from a peer (PeerViewModel reads them again when they change, see MessageChangeTracker).
+     */
     @Query("SELECT * FROM message WHERE sender = :peerName")
-    public LiveData<List<Message>> fetchMessagesFromPeer(String peerName);
+    public List<Message> fetchMessagesFromPeer(String peerName);
+
     @Insert
     public void persist(Message message);
 
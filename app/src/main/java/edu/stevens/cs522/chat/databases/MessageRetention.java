@@ -0,0 +1,160 @@
+package edu.stevens.cs522.chat.databases;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import edu.stevens.cs522.chat.entities.Chatroom;
+
+/**
+ * Enforces the retention policies on chatrooms, by age or by number of messages, and then
+ * gives the space freed in the database file back to the file system.  A chatroom without a
+ * policy of its own keeps messages for the default number of days, if there is one (see
+ * Settings.getRetainDays).
+ *
+ * Messages are deleted in batches of BATCH_SIZE, each in its own transaction, so that sync is
+ * not held up behind a long delete.  Deleted pages go on the free list, and are released a
+ * few at a time by incremental vacuum (see AutoVacuumOpenHelperFactory).  A database created
+ * without incremental vacuum is not rebuilt here, since VACUUM would hold the write lock for
+ * as long as it takes to rewrite the whole file: its free pages are reused for new messages.
+ *
+ * This is synchronous, use a background thread (see RetentionWorker).
+ */
+public class MessageRetention {
+
+    private static final String TAG = MessageRetention.class.getCanonicalName();
+
+    public static final int BATCH_SIZE = 500;
+
+    /*
+     * Pages released by each step of incremental vacuum.
+     */
+    public static final int VACUUM_PAGES = 256;
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * What a run of the retention job did.
+     */
+    public static class Report {
+
+        public final long rowsPurged;
+
+        public final long bytesReclaimed;
+
+        Report(long rowsPurged, long bytesReclaimed) {
+            this.rowsPurged = rowsPurged;
+            this.bytesReclaimed = bytesReclaimed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d messages purged, %d bytes reclaimed", rowsPurged, bytesReclaimed);
+        }
+    }
+
+    private final ChatDatabase chatDatabase;
+
+    private final RetentionDao retentionDao;
+
+    private final Integer defaultDays;
+
+    public MessageRetention(ChatDatabase chatDatabase) {
+        this(chatDatabase, null);
+    }
+
+    public MessageRetention(ChatDatabase chatDatabase, Integer defaultDays) {
+        this.chatDatabase = chatDatabase;
+        this.retentionDao = chatDatabase.retentionDao();
+        this.defaultDays = defaultDays;
+    }
+
+    public Report run(Instant now) {
+        long purged = 0;
+        List<Chatroom> chatrooms = defaultDays != null
+                ? chatDatabase.chatroomDao().getAllChatrooms()
+                : retentionDao.getChatroomsWithRetention();
+        for (Chatroom chatroom : chatrooms) {
+            if (chatroom.retainDays == null && chatroom.retainMessages == null) {
+                purged += purge(chatroom.name, defaultDays, null, now);
+            } else {
+                purged += purge(chatroom.name, chatroom.retainDays, chatroom.retainMessages, now);
+            }
+        }
+        long reclaimed = compact();
+        Report report = new Report(purged, reclaimed);
+        Log.i(TAG, "Message retention: " + report);
+        return report;
+    }
+
+    /*
+     * Delete the messages in a chatroom that are outside its retention policy.
+     */
+    private long purge(String chatroom, Integer retainDays, Integer retainMessages, Instant now) {
+        long newest = retentionDao.getNewestSeqNum(chatroom);
+        if (newest == 0) {
+            return 0;
+        }
+        long purged = 0;
+        int deleted;
+        if (retainMessages != null) {
+            // Always keep the newest message
+            Long upTo = retentionDao.getSeqNumBeyond(chatroom, Math.max(1, retainMessages));
+            if (upTo != null) {
+                do {
+                    deleted = retentionDao.deleteUpTo(chatroom, upTo, BATCH_SIZE);
+                    purged += deleted;
+                } while (deleted == BATCH_SIZE);
+            }
+        }
+        if (retainDays != null) {
+            Instant before = now.minus(Duration.ofDays(retainDays));
+            do {
+                deleted = retentionDao.deleteOlderThan(chatroom, newest, before, BATCH_SIZE);
+                purged += deleted;
+            } while (deleted == BATCH_SIZE);
+        }
+        Log.d(TAG, String.format("Purged %d messages from chatroom %s", purged, chatroom));
+        return purged;
+    }
+
+    /*
+     * Release free pages to the file system, returns the number of bytes released.
+     */
+    private long compact() {
+        SupportSQLiteDatabase db = chatDatabase.getOpenHelper().getWritableDatabase();
+        long pageSize = pragma(db, "page_size");
+        long pages = pragma(db, "page_count");
+        if (pragma(db, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            Log.d(TAG, "Incremental vacuum is off for the message database, not compacting.");
+            return 0;
+        }
+        long free = pragma(db, "freelist_count");
+        while (free > 0) {
+            // Each step is a short write transaction.  The pages are released as the
+            // statement is stepped, so read it to the end.
+            try (Cursor cursor = db.query("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")")) {
+                while (cursor.moveToNext()) {
+                }
+            }
+            long remaining = pragma(db, "freelist_count");
+            if (remaining >= free) {
+                break;
+            }
+            free = remaining;
+        }
+        return (pages - pragma(db, "page_count")) * pageSize;
+    }
+
+    private static long pragma(SupportSQLiteDatabase db, String name) {
+        try (Cursor cursor = db.query("PRAGMA " + name)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package edu.stevens.cs522.chat.databases;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import edu.stevens.cs522.chat.entities.Peer;
+
+/**
+ * A bounded LRU cache of the peers in the database: primary key and last known metadata, by name.
+ *
+ * PeerDao uses it to skip upserts that would not change anything (the same location and last
+ * seen time), which is most of them during a sync, and to skip the lookup of the primary key
+ * for the rest.  The cache only holds what has been written through PeerDao, so it must be
+ * invalidated if a transaction that upserted peers is rolled back (see DownloadApplier).
+ */
+public class PeerCache {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    static class Entry {
+
+        final long id;
+
+        final Instant timestamp;
+
+        final Double latitude;
+
+        final Double longitude;
+
+        Entry(long id, Peer peer) {
+            this.id = id;
+            this.timestamp = stored(peer.timestamp);
+            this.latitude = peer.latitude;
+            this.longitude = peer.longitude;
+        }
+
+        /*
+         * True if writing the peer would not change its row.
+         */
+        boolean matches(Peer peer) {
+            return Objects.equals(timestamp, stored(peer.timestamp))
+                    && Objects.equals(latitude, peer.latitude)
+                    && Objects.equals(longitude, peer.longitude);
+        }
+    }
+
+    /*
+     * Timestamps are stored to the millisecond (see TimestampConverter).
+     */
+    private static Instant stored(Instant timestamp) {
+        return timestamp == null ? null : Instant.ofEpochMilli(timestamp.toEpochMilli());
+    }
+
+    private final Map<String, Entry> entries;
+
+    private long hits;
+
+    private long misses;
+
+    private long skippedWrites;
+
+    public PeerCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized Entry get(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    synchronized void put(long id, Peer peer) {
+        entries.put(peer.name, new Entry(id, peer));
+    }
+
+    synchronized void skipped() {
+        skippedWrites++;
+    }
+
+    public synchronized void invalidate() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getSkippedWrites() {
+        return skippedWrites;
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d peers cached, hit rate %.2f (%d of %d), %d writes skipped",
+                entries.size(), getHitRate(), hits, hits + misses, skippedWrites);
+    }
+
+}
@@ -52,29 +52,48 @@ public abstract class PeerDao {
     public abstract long insert(Peer peer);
 
     /**
-     * Update the metadata for a peer (GPS coordinates, last seen)
+     * Update the metadata for a peer (GPS coordinates, last seen), returns the number of rows updated
      * @param peer
      */
     @Update
-    protected abstract void update(Peer peer);
+    protected abstract int update(Peer peer);
+
+    /*
+     * Peers already written, and what was written (see PeerCache).
+     */
+    private final PeerCache cache = new PeerCache(PeerCache.DEFAULT_CAPACITY);
+
+    public PeerCache getCache() {
+        return cache;
+    }
 
-    @Transaction
     /**
-     * TODO Add a peer record if it does not already exist;
+     * Add a peer record if it does not already exist;
      * update information if it is already defined.
-     * This operation must be transactional, to avoid race condition
-     * between search and insert
+     * If the peer is cached with the same metadata, there is nothing to write.
      */
     public void upsert(Peer peer) {
-        // TODO
-        long id = getPeerId(peer.name);
-        if (id == 0) {
-            // TODO
-            insert(peer);
-        } else {
-            // TODO
-            peer.id = id;
-            update(peer);
+        PeerCache.Entry cached = cache.get(peer.name);
+        if (cached != null && cached.matches(peer)) {
+            peer.id = cached.id;
+            cache.skipped();
+            return;
+        }
+        write(peer, cached == null ? 0 : cached.id);
+        cache.put(peer.id, peer);
+    }
+
+    @Transaction
+    /**
+     * This operation must be transactional, to avoid race condition
+     * between search and insert.  The cached primary key saves the search.
+     */
+    protected void write(Peer peer, long cachedId) {
+        peer.id = cachedId != 0 ? cachedId : getPeerId(peer.name);
+        if (peer.id == 0 || update(peer) == 0) {
+            // Not in the database (or no longer, if the cache was stale)
+            peer.id = 0;
+            peer.id = insert(peer);
         }
     }
 }
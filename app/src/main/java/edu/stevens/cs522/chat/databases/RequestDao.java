@@ -12,10 +12,15 @@ import androidx.room.Transaction;
 import androidx.room.Update;
 import androidx.room.Upsert;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.ChatroomVersion;
 import edu.stevens.cs522.chat.entities.Counter;
 import edu.stevens.cs522.chat.entities.Message;
 import edu.stevens.cs522.chat.entities.Peer;
@@ -57,40 +62,90 @@ public abstract class RequestDao {
     @Query("SELECT lastSeqNum FROM Counter WHERE id = 1")
     public abstract long getLastSequenceNumber();
 
+    @Query("SELECT chatroom, MAX(seqNum) AS version FROM Message WHERE chatroom IN (:chatrooms) GROUP BY chatroom")
+    protected abstract List<ChatroomVersion> fetchChatroomVersions(List<String> chatrooms);
+
+    /**
+     * Get the watermarks for the chatrooms we subscribe to: the last sequence number downloaded
+     * in each chatroom, or 0 if we have no messages from the server in that chatroom yet.
+     * The messages in a chatroom are downloaded in order of sequence number, and committed with
+     * the counter, so the largest sequence number in a chatroom is its watermark.
+     */
+    public List<ChatroomVersion> getChatroomVersions(Collection<String> chatrooms) {
+        List<ChatroomVersion> versions = new ArrayList<>();
+        if (chatrooms.isEmpty()) {
+            return versions;
+        }
+        Map<String, Long> found = new HashMap<>();
+        for (ChatroomVersion version : fetchChatroomVersions(new ArrayList<>(chatrooms))) {
+            found.put(version.chatroom, version.version);
+        }
+        for (String chatroom : chatrooms) {
+            Long version = found.get(chatroom);
+            versions.add(new ChatroomVersion(chatroom, version == null ? 0 : version));
+        }
+        return versions;
+    }
+
+    /**
+     * Get a page of unsent messages, identified by sequence number = 0, in order of primary key.
+     * Pages are keyed on the last primary key in the previous page (start with lastId = 0).
+     */
+    @Query("SELECT * FROM Message WHERE seqNum = 0 AND id > :lastId ORDER BY id LIMIT :limit")
+    public abstract List<Message> getUnsentMessages(long lastId, int limit);
+
+    /**
+     * The number of messages waiting to be uploaded (used to size the deadline for a sync).
+     */
+    @Query("SELECT COUNT(*) FROM Message WHERE seqNum = 0")
+    public abstract long countUnsentMessages();
+
+    /**
+     * The number of these messages that are still waiting to be uploaded.
+     */
+    @Query("SELECT COUNT(*) FROM Message WHERE seqNum = 0 AND id IN (:ids)")
+    public abstract long countUnsentMessages(long[] ids);
+
     /**
-     * Get all unsent messages, identified by sequence number = 0.
+     * The ids of these messages that the server has acknowledged with a sequence number.
      */
-    @Query("SELECT * FROM Message WHERE seqNum = 0")
-    public abstract List<Message> getUnsentMessages();
+    @Query("SELECT id FROM Message WHERE seqNum > 0 AND id IN (:ids)")
+    public abstract List<Long> getSentMessageIds(List<Long> ids);
 
     /**
-     * After we upload a message, the server responds with the sequence numbers of the message
+     * After we upload a message, the server responds with the sequence numbers of the message.
+     * Returns the number of rows updated: none if the message is no longer in the database, or
+     * if the sequence number is already taken.
      */
-    @Query("UPDATE Message SET seqNum = :seqNum WHERE id = :id")
-    public abstract void updateSeqNum(long id, long seqNum);
+    @Query("UPDATE OR IGNORE Message SET seqNum = :seqNum WHERE id = :id")
+    public abstract int updateSeqNum(long id, long seqNum);
 
+    /**
+     * Insert a message from the server, unless there is already a message with its sequence
+     * number (see ChatDatabase.UNMANAGED_INDICES), in which case nothing is written.
+     */
     @Insert(onConflict = OnConflictStrategy.IGNORE)
     public abstract long insert(Message message);
 
     @Transaction
     /**
-     * Insert other peer's messages or update our own, with input from server.
+     * Insert other peer's messages or update our own, with input from server.  This is a single
+     * statement for each message, and applying the same message again changes nothing, so
+     * replaying a download stream (e.g. after a broken connection) does not duplicate messages.
      *
-     * In updating the sequence number on each message (in case we lose network connection),
-     * this assumes that the server downloads messages in increasing order by sequence number.
+     * The last sequence number is not updated here: the caller advances it once for each
+     * chunk of downloaded messages, in the same transaction (see DownloadApplier).
      */
     public void upsert(UUID appID, Message message) {
 
-        if (appID.equals(message.appID)) {
-            // One of our own messages returned from the server, update sequenceId
-            updateSeqNum(message.id, message.seqNum);
-        } else {
-            // Another peer's message, with sequenceId set by server
-            message.id = 0;  // We give it our own PK in our local messages database
-            insert(message);
+        // One of our own messages returned from the server, update sequenceId
+        if (appID.equals(message.appID) && updateSeqNum(message.id, message.seqNum) > 0) {
+            return;
         }
-        // TODO immediately update the last sequence number, in case the connection is broken.
-        updateSeqNum(message.id, getLastSequenceNumber());
+
+        // Another peer's message, with sequenceId set by server (or one of ours that we no longer have)
+        message.id = 0;  // We give it our own PK in our local messages database
+        insert(message);
 
     }
 
@@ -0,0 +1,52 @@
+package edu.stevens.cs522.chat.databases;
+
+import androidx.room.Dao;
+import androidx.room.Query;
+
+import java.time.Instant;
+import java.util.List;
+
+import edu.stevens.cs522.chat.entities.Chatroom;
+
+/**
+ * Deletes old messages from the server, for the retention policies on chatrooms (see MessageRetention).
+ *
+ * Deletes are done a batch at a time, oldest first, so each one holds the write lock only briefly.
+ * Unsent messages (seqNum = 0) are never deleted, and neither is the newest message from the
+ * server in a chatroom, since it is the watermark for the chatroom (see RequestDao.getChatroomVersions).
+ */
+@Dao
+public abstract class RetentionDao {
+
+    @Query("SELECT * FROM Chatroom WHERE retainDays IS NOT NULL OR retainMessages IS NOT NULL")
+    public abstract List<Chatroom> getChatroomsWithRetention();
+
+    /**
+     * The sequence number of the newest message from the server in a chatroom, or 0 if there are none.
+     */
+    @Query("SELECT MAX(seqNum) FROM Message WHERE chatroom = :chatroom")
+    public abstract long getNewestSeqNum(String chatroom);
+
+    /**
+     * The sequence number of the newest message from the server that is not among the newest
+     * keep messages in a chatroom, or null if there are no more than keep messages.
+     */
+    @Query("SELECT seqNum FROM Message WHERE chatroom = :chatroom AND seqNum > 0 ORDER BY seqNum DESC LIMIT 1 OFFSET :keep")
+    public abstract Long getSeqNumBeyond(String chatroom, int keep);
+
+    /**
+     * Delete a batch of the oldest messages from the server in a chatroom, up to and including upTo.
+     */
+    @Query("DELETE FROM Message WHERE id IN (SELECT id FROM Message WHERE chatroom = :chatroom AND seqNum > 0 AND seqNum <= :upTo " +
+            "ORDER BY seqNum LIMIT :limit)")
+    public abstract int deleteUpTo(String chatroom, long upTo, int limit);
+
+    /**
+     * Delete a batch of the oldest messages from the server in a chatroom, that were sent before
+     * a time, leaving the newest message.
+     */
+    @Query("DELETE FROM Message WHERE id IN (SELECT id FROM Message WHERE chatroom = :chatroom AND seqNum > 0 AND seqNum < :newest " +
+            "AND timestamp < :before ORDER BY seqNum LIMIT :limit)")
+    public abstract int deleteOlderThan(String chatroom, long newest, Instant before, int limit);
+
+}
@@ -0,0 +1,159 @@
+package edu.stevens.cs522.chat.databases;
+
+import androidx.room.Dao;
+import androidx.room.Query;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.SearchHit;
+
+/**
+ * Full-text search over chat history, using the FTS index on messages (see MessageFts).
+ *
+ * The index finds the most recent MAX_CANDIDATES matches, which are ranked by BM25 over the
+ * indexed columns (message text counts more than sender or chatroom), and the requested page
+ * of the ranking is read from the Message table.  Only the hits in each candidate are read
+ * from the index, so the cost of a search does not grow with the number of matches.
+ *
+ * These are synchronous, use a background thread.
+ */
+@Dao
+public abstract class SearchDao {
+
+    /*
+     * Only this many of the most recent matches are ranked, which bounds the cost of a search
+     * for a common term.
+     */
+    public static final int MAX_CANDIDATES = 1000;
+
+    /*
+     * Column weights, in the order of the columns in MessageFts.
+     */
+    private static final double[] WEIGHTS = { 1.0, 0.5, 0.5 };
+
+    private static final double K1 = 1.2;
+
+    private static final double B = 0.75;
+
+    @Query("SELECT docid AS id, matchinfo(MessageFts, 'pcaly') AS matchinfo FROM MessageFts WHERE MessageFts MATCH :query ORDER BY docid DESC LIMIT :limit")
+    protected abstract List<SearchHit> fetchMatches(String query, int limit);
+
+    @Query("SELECT * FROM Message WHERE id IN (:ids)")
+    protected abstract List<Message> fetchMessages(List<Long> ids);
+
+    /**
+     * A page of the messages that contain all the words in terms (the last word may be a prefix),
+     * best match first.
+     */
+    public List<Message> search(String terms, int offset, int limit) {
+        String query = toMatchQuery(terms);
+        if (query == null) {
+            return Collections.emptyList();
+        }
+        List<SearchHit> hits = fetchMatches(query, MAX_CANDIDATES);
+        List<Long> ids = rank(hits);
+        if (offset >= ids.size()) {
+            return Collections.emptyList();
+        }
+        ids = ids.subList(offset, Math.min(offset + limit, ids.size()));
+
+        // Messages come back in primary key order, put them in rank order
+        Map<Long, Message> found = new HashMap<>();
+        for (Message message : fetchMessages(ids)) {
+            found.put(message.id, message);
+        }
+        List<Message> messages = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Message message = found.get(id);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Message ids in rank order: by score, then most recent first.
+     */
+    public static List<Long> rank(List<SearchHit> hits) {
+        int n = hits.size();
+        double[] scores = new double[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            scores[i] = score(hits.get(i).matchinfo);
+            order[i] = i;
+        }
+        // Hits are most recent first, and the sort is stable
+        Arrays.sort(order, (i, j) -> Double.compare(scores[j], scores[i]));
+        List<Long> ids = new ArrayList<>(n);
+        for (int i : order) {
+            ids.add(hits.get(i).id);
+        }
+        return ids;
+    }
+
+    /**
+     * Turn what the user typed into an FTS query: every word must match, and the last word is
+     * matched as a prefix, so results appear as the user types.  Words are lower-cased, so they
+     * are never taken as query operators (AND, OR, NOT, NEAR).  Returns null if there are no words.
+     */
+    public static String toMatchQuery(String terms) {
+        if (terms == null) {
+            return null;
+        }
+        String[] words = terms.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        StringBuilder query = new StringBuilder();
+        for (String word : words) {
+            if (!word.isEmpty()) {
+                if (query.length() > 0) {
+                    query.append(' ');
+                }
+                query.append(word);
+            }
+        }
+        if (query.length() == 0) {
+            return null;
+        }
+        return query.append('*').toString();
+    }
+
+    /**
+     * BM25 score from matchinfo(MessageFts, 'pcaly'): phrase and column counts, average column
+     * lengths, column lengths in this row, then hits in this row for each phrase and column.
+     *
+     * Every match contains every phrase, so the inverse document frequency would only weight
+     * the phrases against each other.  It is left out: it needs the number of rows that match
+     * each phrase, which means reading every match rather than just the most recent.
+     */
+    public static double score(byte[] matchinfo) {
+        ByteBuffer buffer = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder());
+        int phrases = buffer.getInt(0);
+        int columns = buffer.getInt(4);
+        int averages = 2;
+        int lengths = averages + columns;
+        int hits = lengths + columns;
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns && column < WEIGHTS.length; column++) {
+                int frequency = buffer.getInt(4 * (hits + phrase * columns + column));
+                if (frequency == 0) {
+                    continue;
+                }
+                double length = buffer.getInt(4 * (lengths + column));
+                double average = Math.max(1, buffer.getInt(4 * (averages + column)));
+                score += WEIGHTS[column] * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / average));
+            }
+        }
+        return score;
+    }
+
+}
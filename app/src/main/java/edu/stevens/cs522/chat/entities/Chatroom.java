@@ -22,6 +22,12 @@ public class Chatroom implements Parcelable {
     // Name of the chat room
     public String name;
 
+    // Keep messages from the server for this many days (see MessageRetention)
+    public Integer retainDays;
+
+    // Keep at most this many messages from the server (if neither is set, the default policy applies)
+    public Integer retainMessages;
+
     public Chatroom() { }
 
     @Ignore
@@ -37,12 +43,16 @@ public class Chatroom implements Parcelable {
     protected Chatroom(Parcel in) {
         id = in.readLong();
         name = in.readString();
+        retainDays = (Integer) in.readValue(Integer.class.getClassLoader());
+        retainMessages = (Integer) in.readValue(Integer.class.getClassLoader());
     }
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeLong(id);
         dest.writeString(name);
+        dest.writeValue(retainDays);
+        dest.writeValue(retainMessages);
     }
 
     @Override
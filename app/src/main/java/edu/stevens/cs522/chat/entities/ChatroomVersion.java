@@ -0,0 +1,28 @@
+package edu.stevens.cs522.chat.entities;
+
+import androidx.room.Ignore;
+
+/**
+ * The sync watermark for a chatroom: the sequence number of the last message in the chatroom
+ * that has been downloaded from the server.  This is not stored separately, it is derived from
+ * the messages in the chatroom (see RequestDao).
+ */
+public class ChatroomVersion {
+
+    public String chatroom;
+
+    public long version;
+
+    public ChatroomVersion() { }
+
+    @Ignore
+    public ChatroomVersion(String chatroom, long version) {
+        this.chatroom = chatroom;
+        this.version = version;
+    }
+
+    @Override
+    public String toString() {
+        return chatroom + "@" + version;
+    }
+}
@@ -19,7 +19,11 @@ import java.util.UUID;
 // You must also declare indices on the FK columns, otherwise integrity checking
 // may trigger a linear search of this table.
 
-@Entity(foreignKeys = @ForeignKey(entity=Peer.class, onDelete=ForeignKey.CASCADE, parentColumns="name", childColumns="sender"), indices = @Index("sender"))
+// The (chatroom, seqNum) index serves the timeline for a chatroom, and the watermarks for chatrooms.
+// There is also a partial index on unsent messages, that Room cannot declare (see ChatDatabase).
+
+@Entity(foreignKeys = @ForeignKey(entity=Peer.class, onDelete=ForeignKey.CASCADE, parentColumns="name", childColumns="sender"),
+        indices = { @Index("sender"), @Index({"chatroom", "seqNum"}) })
 public class Message implements Parcelable {
 
     // TODO annotate
@@ -0,0 +1,34 @@
+package edu.stevens.cs522.chat.entities;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+import androidx.room.PrimaryKey;
+
+/**
+ * Full-text index on the text, sender and chatroom of messages (see SearchDao).
+ *
+ * The index has no content of its own: it reads from the Message table, and Room keeps it
+ * in sync with triggers on Message, so messages are indexed as they are inserted by sync.
+ * The rowid of an index row is the primary key of the message.
+ *
+ * The index is kept in descending order, so a search for the most recent matches stops once
+ * it has enough, rather than reading every match for a common word.  Prefixes of one and two
+ * letters are indexed too, for searches on the first letters that the user types.
+ */
+@Fts4(contentEntity = Message.class, prefix = { 1, 2 }, order = FtsOptions.Order.DESC)
+@Entity(tableName = "MessageFts")
+public class MessageFts {
+
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    public long rowid;
+
+    public String messageText;
+
+    public String sender;
+
+    public String chatroom;
+
+}
@@ -0,0 +1,15 @@
+package edu.stevens.cs522.chat.entities;
+
+/**
+ * A message that matches a full-text search, with the FTS matchinfo for ranking it.
+ * Not stored, this is the result of a query on MessageFts (see SearchDao).
+ */
+public class SearchHit {
+
+    // Primary key of the message
+    public long id;
+
+    // matchinfo(MessageFts, 'pcaly')
+    public byte[] matchinfo;
+
+}
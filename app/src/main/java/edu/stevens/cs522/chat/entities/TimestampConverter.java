@@ -1,16 +1,36 @@
 package edu.stevens.cs522.chat.entities;
 
+import androidx.annotation.NonNull;
 import androidx.room.TypeConverter;
 
 import java.time.Instant;
 
 public class TimestampConverter {
+
+    /*
+     * In the database, timestamps are stored as epoch milliseconds (INTEGER).  The converters
+     * take and return primitives, so Room handles null itself and nothing is boxed: reading a
+     * timestamp allocates only the Instant.
+     */
+
+    @TypeConverter
+    public static Instant fromEpochMillis(long millis) {
+        return Instant.ofEpochMilli(millis);
+    }
+
     @TypeConverter
+    public static long toEpochMillis(@NonNull Instant timestamp) {
+        return timestamp.toEpochMilli();
+    }
+
+    /*
+     * ISO-8601 strings, for the v1 wire encoding and parcels.
+     */
+
     public static Instant deserialize(String value) {
         return value == null ? null : Instant.parse(value);
     }
 
-    @TypeConverter
     public static String serialize(Instant timestamp) {
         return timestamp == null ? null : timestamp.toString();
     }
@@ -1,17 +1,47 @@
 package edu.stevens.cs522.chat.entities;
 
+import androidx.annotation.NonNull;
 import androidx.room.TypeConverter;
 
 import java.util.UUID;
 
 public class UUIDConverter {
+
+    /*
+     * In the database, UUIDs are stored as 16-byte BLOBs, most significant byte first (the same
+     * layout as the converter built into Room).  The bytes are assembled into longs directly,
+     * rather than through a ByteBuffer, so reading a UUID allocates only the UUID.
+     */
+
     @TypeConverter
-    public static UUID fromString(String value) {
-        return value == null ? null : UUID.fromString(value);
+    public static UUID fromBytes(@NonNull byte[] bytes) {
+        if (bytes.length != 16) {
+            throw new IllegalArgumentException("UUID must be 16 bytes: " + bytes.length);
+        }
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0; i < 8; i++) {
+            msb = (msb << 8) | (bytes[i] & 0xff);
+        }
+        for (int i = 8; i < 16; i++) {
+            lsb = (lsb << 8) | (bytes[i] & 0xff);
+        }
+        return new UUID(msb, lsb);
     }
 
     @TypeConverter
-    public static String uuidToString(UUID id) {
-        return id == null ? null : id.toString();
+    public static byte[] toBytes(@NonNull UUID id) {
+        byte[] bytes = new byte[16];
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) msb;
+            msb >>>= 8;
+        }
+        for (int i = 15; i >= 8; i--) {
+            bytes[i] = (byte) lsb;
+            lsb >>>= 8;
+        }
+        return bytes;
     }
 }
@@ -7,9 +7,16 @@ import android.util.Log;
 
 import androidx.preference.PreferenceManager;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import edu.stevens.cs522.chat.R;
+import edu.stevens.cs522.chat.web.client.EndpointSelector;
 
 public class Settings {
 
@@ -25,11 +32,55 @@ public class Settings {
      */
     private static final String CHAT_SERVER_KEY = "server_uri";
 
+    /*
+     * Other endpoints of the chat server, comma-separated, in order of preference.
+     */
+    private static final String CHAT_SERVERS_KEY = "server-uris";
+
+    /*
+     * How calls are spread over the endpoints (see EndpointSelector).
+     */
+    private static final String LOAD_BALANCING_KEY = "load-balancing";
+
+    public static final EndpointSelector.Policy DEFAULT_LOAD_BALANCING = EndpointSelector.Policy.LEAST_LATENCY;
+
     /*
      * The chat (peer) name for this device on the server (set during registration).
      */
     private static final String CHAT_NAME_KEY = "user-name";
 
+    /*
+     * The chatrooms followed on this device.  If empty, we sync every chatroom.
+     */
+    private static final String SUBSCRIPTIONS_KEY = "subscribed-chatrooms";
+
+    /*
+     * The wire encoding that the chat server has told us it accepts (see RestMethod).
+     */
+    private static final String SERVER_ENCODING_KEY = "server-encoding";
+
+    public static final int DEFAULT_ENCODING = 1;
+
+    /*
+     * Message compression for sync streams, if the server accepts it (see CompressionInterceptor).
+     */
+    private static final String COMPRESSION_KEY = "compression";
+
+    public static final String DEFAULT_COMPRESSION = "gzip";
+
+    /*
+     * The message encodings that the chat server has told us it accepts.
+     */
+    private static final String SERVER_ACCEPT_ENCODING_KEY = "server-accept-encoding";
+
+    /*
+     * How many days to keep messages from the server, in chatrooms that do not have a retention
+     * policy of their own (see MessageRetention).  Zero keeps them all.
+     */
+    private static final String RETAIN_DAYS_KEY = "retain-days";
+
+    public static final int DEFAULT_RETAIN_DAYS = 90;
+
     private static SharedPreferences getPreferences(Context context) {
         // return context.getSharedPreferences(SETTINGS, Context.MODE_PRIVATE);
         return PreferenceManager.getDefaultSharedPreferences(context);
@@ -77,9 +128,146 @@ public class Settings {
         SharedPreferences.Editor editor =  getPreferences(context).edit();
         String serverText = (serverUri == null) ? null : serverUri.toString();
         editor.putString(CHAT_SERVER_KEY, serverText);
+        // A new server has to tell us again which encoding it accepts
+        editor.remove(SERVER_ENCODING_KEY);
+        editor.remove(SERVER_ACCEPT_ENCODING_KEY);
+        editor.apply();
+    }
+
+    /**
+     * The endpoints of the chat server: the server we registered with, then any others.
+     */
+    public static List<Uri> getServerUris(Context context) {
+        Set<String> seen = new LinkedHashSet<>();
+        Uri serverUri = getServerUri(context);
+        if (serverUri != null) {
+            seen.add(serverUri.toString());
+        }
+        String others = getPreferences(context).getString(CHAT_SERVERS_KEY, "");
+        for (String serverText : others.split(",")) {
+            if (!serverText.trim().isEmpty()) {
+                seen.add(serverText.trim());
+            }
+        }
+        List<Uri> serverUris = new ArrayList<>();
+        for (String serverText : seen) {
+            serverUris.add(Uri.parse(serverText));
+        }
+        return serverUris;
+    }
+
+    /**
+     * Save other endpoints of the chat server (the server we registered with is always first).
+     */
+    public static void saveServerUris(Context context, List<Uri> serverUris) {
+        StringBuilder serverText = new StringBuilder();
+        for (Uri serverUri : serverUris) {
+            if (serverText.length() > 0) {
+                serverText.append(',');
+            }
+            serverText.append(serverUri.toString());
+        }
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+        editor.putString(CHAT_SERVERS_KEY, serverText.toString());
+        editor.apply();
+    }
+
+    public static EndpointSelector.Policy getLoadBalancing(Context context) {
+        String policy = getPreferences(context).getString(LOAD_BALANCING_KEY, DEFAULT_LOAD_BALANCING.name());
+        try {
+            return EndpointSelector.Policy.valueOf(policy);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Unknown load balancing policy: " + policy);
+            return DEFAULT_LOAD_BALANCING;
+        }
+    }
+
+    public static void saveLoadBalancing(Context context, EndpointSelector.Policy policy) {
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+        editor.putString(LOAD_BALANCING_KEY, policy.name());
+        editor.apply();
+    }
+
+    public static int getServerEncoding(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        return prefs.getInt(SERVER_ENCODING_KEY, DEFAULT_ENCODING);
+    }
+
+    public static void saveServerEncoding(Context context, int encoding) {
+        SharedPreferences.Editor editor =  getPreferences(context).edit();
+        editor.putInt(SERVER_ENCODING_KEY, encoding);
+        editor.apply();
+    }
+
+    public static String getCompression(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        return prefs.getString(COMPRESSION_KEY, DEFAULT_COMPRESSION);
+    }
+
+    public static void saveCompression(Context context, String compression) {
+        SharedPreferences.Editor editor =  getPreferences(context).edit();
+        editor.putString(COMPRESSION_KEY, compression);
         editor.apply();
     }
 
+    public static Set<String> getServerAcceptEncodings(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        Set<String> encodings = new HashSet<>();
+        for (String encoding : prefs.getString(SERVER_ACCEPT_ENCODING_KEY, "").split(",")) {
+            if (!encoding.trim().isEmpty()) {
+                encodings.add(encoding.trim());
+            }
+        }
+        return encodings;
+    }
+
+    public static void saveServerAcceptEncodings(Context context, String encodings) {
+        SharedPreferences prefs = getPreferences(context);
+        if (!encodings.equals(prefs.getString(SERVER_ACCEPT_ENCODING_KEY, null))) {
+            SharedPreferences.Editor editor = prefs.edit();
+            editor.putString(SERVER_ACCEPT_ENCODING_KEY, encodings);
+            editor.apply();
+        }
+    }
+
+    /**
+     * The default retention policy for chatrooms, in days, or null to keep all messages.
+     */
+    public static Integer getRetainDays(Context context) {
+        int days = getPreferences(context).getInt(RETAIN_DAYS_KEY, DEFAULT_RETAIN_DAYS);
+        return days > 0 ? days : null;
+    }
+
+    public static void saveRetainDays(Context context, Integer days) {
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+        editor.putInt(RETAIN_DAYS_KEY, days != null ? days : 0);
+        editor.apply();
+    }
+
+    public static Set<String> getSubscribedChatrooms(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        // The set returned by preferences must not be modified
+        return new HashSet<>(prefs.getStringSet(SUBSCRIPTIONS_KEY, Collections.emptySet()));
+    }
+
+    public static void saveSubscribedChatrooms(Context context, Set<String> chatrooms) {
+        SharedPreferences.Editor editor =  getPreferences(context).edit();
+        editor.putStringSet(SUBSCRIPTIONS_KEY, new HashSet<>(chatrooms));
+        editor.apply();
+    }
+
+    /**
+     * Follow a chatroom.  Returns true if it was not already followed.
+     */
+    public static boolean subscribeChatroom(Context context, String chatroom) {
+        Set<String> chatrooms = getSubscribedChatrooms(context);
+        if (!chatrooms.add(chatroom)) {
+            return false;
+        }
+        saveSubscribedChatrooms(context, chatrooms);
+        return true;
+    }
+
     public static boolean isDefaultChatname(Context context, String chatName) {
         if (defaultUserName == null) {
             defaultUserName = context.getString(R.string.default_user_name);
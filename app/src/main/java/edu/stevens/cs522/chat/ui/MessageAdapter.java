@@ -1,15 +1,18 @@
 package edu.stevens.cs522.chat.ui;
 
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import edu.stevens.cs522.chat.R;
 import edu.stevens.cs522.chat.entities.Message;
@@ -18,7 +21,34 @@ public abstract class MessageAdapter extends RecyclerView.Adapter<MessageAdapter
 
     private static final String TAG = MessageAdapter.class.getCanonicalName();
 
-    private List<Message> messages;
+    /*
+     * Rows are identified by primary key.  A message is only rebound if what it shows has changed,
+     * or it has been sent (its sequence number has been assigned).
+     */
+    private static final DiffUtil.ItemCallback<Message> DIFF = new DiffUtil.ItemCallback<Message>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Message oldMessage, @NonNull Message newMessage) {
+            return oldMessage.id == newMessage.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Message oldMessage, @NonNull Message newMessage) {
+            return oldMessage.seqNum == newMessage.seqNum &&
+                    Objects.equals(oldMessage.messageText, newMessage.messageText) &&
+                    Objects.equals(oldMessage.sender, newMessage.sender) &&
+                    Objects.equals(oldMessage.chatroom, newMessage.chatroom);
+        }
+    };
+
+    /*
+     * Diffs a new list against the current one on a background thread, then dispatches
+     * only the insertions, removals, moves and changes to the adapter.
+     */
+    private final AsyncListDiffer<Message> differ = new AsyncListDiffer<>(this, DIFF);
+
+    private int bindCount;
+
+    private int bindCountAtUpdate;
 
 
     /**
@@ -53,7 +83,11 @@ public abstract class MessageAdapter extends RecyclerView.Adapter<MessageAdapter
      * Initialize the dataset of the Adapter
      */
     public MessageAdapter() {
-        this.messages = new ArrayList<>();
+        setHasStableIds(true);
+        differ.addListListener((previous, current) -> {
+            Log.d(TAG, String.format("Rebound %d rows after previous update, now %d messages", getBindsSinceUpdate(), current.size()));
+            bindCountAtUpdate = bindCount;
+        });
     }
 
     // Create new views (invoked by the layout manager)
@@ -74,7 +108,8 @@ public abstract class MessageAdapter extends RecyclerView.Adapter<MessageAdapter
         // TODO set the fields of the view for the message
         // Use getHeading() to get the heading in the message
 
-        Message message = messages.get(position);
+        bindCount++;
+        Message message = differ.getCurrentList().get(position);
         viewHolder.setMetadata(getHeading(message));
         viewHolder.setMessage(message.messageText);
     }
@@ -82,16 +117,60 @@ public abstract class MessageAdapter extends RecyclerView.Adapter<MessageAdapter
     // Return the size of your dataset (invoked by the layout manager)
     @Override
     public int getItemCount() {
-        return messages.size();
+        return differ.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).id;
     }
 
     public abstract String getHeading(Message message);
 
+    public Message getMessage(int position) {
+        return differ.getCurrentList().get(position);
+    }
+
+    /**
+     * The position of the message with this primary key, or -1 if it is not in the list.
+     */
+    public int getPosition(long id) {
+        List<Message> messages = differ.getCurrentList();
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i).id == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The number of rows bound since the adapter was created.  Compare before and after an
+     * update to see how many rows it rebound.
+     */
+    public int getBindCount() {
+        return bindCount;
+    }
+
+    /**
+     * The number of rows bound since the last list was committed (rows rebound for that update,
+     * plus any rows scrolled into view since).
+     */
+    public int getBindsSinceUpdate() {
+        return bindCount - bindCountAtUpdate;
+    }
+
     /*
      * Invoked by live data observer.
      */
-    public void setMessages(List<Message> messages) {
-        this.messages = messages;
+    public void submitMessages(List<Message> messages) {
+        differ.submitList(messages);
     }
-}
 
+    /*
+     * The callback runs once the new list is committed to the adapter.
+     */
+    public void submitMessages(List<Message> messages, Runnable committed) {
+        differ.submitList(messages, committed);
+    }
+}
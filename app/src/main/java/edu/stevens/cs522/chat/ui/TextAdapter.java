@@ -1,5 +1,6 @@
 package edu.stevens.cs522.chat.ui;
 
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -7,16 +8,29 @@ import android.widget.ListView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.function.ToLongFunction;
 
 import edu.stevens.cs522.chat.R;
 
 public class TextAdapter<T> extends RecyclerView.Adapter<TextAdapter<T>.ViewHolder> {
 
-    private List<T> dataset;
+    private static final String TAG = TextAdapter.class.getCanonicalName();
+
+    /*
+     * Rows are identified by the primary key of the entity, and show its string form.
+     */
+    private final ToLongFunction<T> keys;
+
+    private final AsyncListDiffer<T> differ;
+
+    private int bindCount;
+
+    private int bindCountAtUpdate;
 
     private int selected;
 
@@ -31,15 +45,31 @@ public class TextAdapter<T> extends RecyclerView.Adapter<TextAdapter<T>.ViewHold
     /**
      * Initialize the dataset of the Adapter
      */
-    public TextAdapter(RecyclerView recyclerView) {
-        this(recyclerView, null);
+    public TextAdapter(RecyclerView recyclerView, ToLongFunction<T> keys) {
+        this(recyclerView, null, keys);
     }
 
-    public TextAdapter(RecyclerView recyclerView, OnItemClickListener<T> listener) {
-        this.dataset = new ArrayList<>();
+    public TextAdapter(RecyclerView recyclerView, OnItemClickListener<T> listener, ToLongFunction<T> keys) {
+        this.keys = keys;
         this.recyclerView = recyclerView;
         this.listener = listener;
         this.selected = ListView.INVALID_POSITION;
+        this.differ = new AsyncListDiffer<>(this, new DiffUtil.ItemCallback<T>() {
+            @Override
+            public boolean areItemsTheSame(@NonNull T oldItem, @NonNull T newItem) {
+                return keys.applyAsLong(oldItem) == keys.applyAsLong(newItem);
+            }
+
+            @Override
+            public boolean areContentsTheSame(@NonNull T oldItem, @NonNull T newItem) {
+                return oldItem.toString().equals(newItem.toString());
+            }
+        });
+        differ.addListListener((previous, current) -> {
+            Log.d(TAG, String.format("Rebound %d rows after previous update, now %d items", getBindsSinceUpdate(), current.size()));
+            bindCountAtUpdate = bindCount;
+        });
+        setHasStableIds(true);
     }
 
     /*
@@ -88,7 +118,7 @@ public class TextAdapter<T> extends RecyclerView.Adapter<TextAdapter<T>.ViewHold
             notifyItemChanged(position);
 
             // TODO invoke the listener
-            listener.onItemClick(recyclerView, v, position, dataset.get(position));
+            listener.onItemClick(recyclerView, v, position, differ.getCurrentList().get(position));
 
         }
     }
@@ -123,7 +153,8 @@ public class TextAdapter<T> extends RecyclerView.Adapter<TextAdapter<T>.ViewHold
      */
     @Override
     public void onBindViewHolder(ViewHolder viewHolder, final int position) {
-        T data = dataset.get(position);
+        bindCount++;
+        T data = differ.getCurrentList().get(position);
         viewHolder.setText(data.toString());
     }
 
@@ -132,14 +163,33 @@ public class TextAdapter<T> extends RecyclerView.Adapter<TextAdapter<T>.ViewHold
      */
     @Override
     public int getItemCount() {
-        return dataset.size();
+        return differ.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return keys.applyAsLong(differ.getCurrentList().get(position));
+    }
+
+    /**
+     * The number of rows bound since the adapter was created.
+     */
+    public int getBindCount() {
+        return bindCount;
+    }
+
+    /**
+     * The number of rows bound since the last list was committed.
+     */
+    public int getBindsSinceUpdate() {
+        return bindCount - bindCountAtUpdate;
     }
 
     /*
      * Invoked by live data observer.
      */
-    public void setDataset(List<T> dataset) {
-        this.dataset = dataset;
+    public void submitDataset(List<T> dataset) {
+        differ.submitList(dataset);
     }
 
 }
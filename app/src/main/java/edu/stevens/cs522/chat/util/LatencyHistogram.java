@@ -0,0 +1,80 @@
+package edu.stevens.cs522.chat.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations, in power-of-two buckets of microseconds, that can be recorded from
+ * any thread without locking.  Percentiles are the upper bound of the bucket they fall in, so
+ * they are within a factor of two.
+ */
+public class LatencyHistogram {
+
+    /*
+     * Bucket i counts durations of less than 2^i microseconds (and at least 2^(i-1)).
+     * The last bucket counts everything longer, up to about half an hour.
+     */
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        total.addAndGet(micros);
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Mean duration, in microseconds.
+     */
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    /**
+     * Longest duration, in microseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Upper bound on the duration at quantile q (e.g. 0.95), in microseconds.
+     */
+    public long getPercentile(double q) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(1L << bucket, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%dus p50=%dus p95=%dus p99=%dus max=%dus",
+                getCount(), getMean(), getPercentile(0.5), getPercentile(0.95), getPercentile(0.99), getMax());
+    }
+
+}
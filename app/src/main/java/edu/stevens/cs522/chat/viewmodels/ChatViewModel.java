@@ -7,11 +7,8 @@ import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 
-import java.util.List;
-
 import edu.stevens.cs522.chat.databases.ChatDatabase;
 import edu.stevens.cs522.chat.entities.Chatroom;
-import edu.stevens.cs522.chat.entities.Message;
 
 public class ChatViewModel extends AndroidViewModel {
 
@@ -21,7 +18,7 @@ public class ChatViewModel extends AndroidViewModel {
 
     private Chatroom chatroom;
 
-    private LiveData<List<Message>> messages;
+    private MessageTimeline timeline;
 
     public ChatViewModel(Application context) {
         super(context);
@@ -29,22 +26,41 @@ public class ChatViewModel extends AndroidViewModel {
         chatDatabase = ChatDatabase.getInstance(context);
     }
 
-    public LiveData<List<Message>> fetchAllMessages(@NonNull Chatroom chatroom) {
+    /**
+     * A window on the messages in a chatroom, that pages as the view scrolls.
+     */
+    public LiveData<MessageTimeline.Window> fetchMessages(@NonNull Chatroom chatroom) {
         if (this.chatroom == null || (!chatroom.name.equals(this.chatroom.name))) {
             this.chatroom = chatroom;
-            this.messages = loadMessages(chatroom);
+            if (timeline != null) {
+                timeline.close();
+            }
+            timeline = new MessageTimeline(chatDatabase, chatroom.name);
+        }
+        return timeline.getWindow();
+    }
+
+    public void loadOlderMessages() {
+        if (timeline != null) {
+            timeline.loadOlder();
         }
-        return messages;
     }
 
-    private LiveData<List<Message>> loadMessages(@NonNull  Chatroom chatroom) {
-        return chatDatabase.messageDao().fetchAllMessages(chatroom.name);
+    public void loadNewerMessages() {
+        if (timeline != null) {
+            timeline.loadNewer();
+        }
     }
 
     @Override
     public void onCleared() {
         super.onCleared();
         Log.i(TAG, "Clearing ChatViewModel....");
+        if (timeline != null) {
+            timeline.close();
+            timeline = null;
+        }
+        Log.i(TAG, "Message changes: " + chatDatabase.getMessageChangeTracker());
         chatroom = null;
         chatDatabase = null;
     }
@@ -36,6 +36,14 @@ public class ChatroomViewModel extends AndroidViewModel {
         return chatDatabase.chatroomDao().fetchAllChatrooms();
     }
 
+    /**
+     * Set the retention policy for messages in a chatroom, null for both uses the default.
+     */
+    public void setRetention(String chatroom, Integer days, Integer messages) {
+        ChatDatabase database = chatDatabase;
+        database.getQueryExecutor().execute(() -> database.chatroomDao().setRetention(chatroom, days, messages));
+    }
+
     @Override
     public void onCleared() {
         super.onCleared();
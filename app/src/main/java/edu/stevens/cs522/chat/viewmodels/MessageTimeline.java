@@ -0,0 +1,221 @@
+package edu.stevens.cs522.chat.viewmodels;
+
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.databases.DatabaseExecutors;
+import edu.stevens.cs522.chat.databases.MessageChangeTracker;
+import edu.stevens.cs522.chat.databases.MessageDao;
+import edu.stevens.cs522.chat.entities.Message;
+
+/**
+ * A bounded window on the messages in a chatroom, paged by keyset on (seqNum, id).
+ *
+ * The window starts at the newest messages, and pages in older or newer messages as the
+ * view scrolls (see loadOlder and loadNewer).  At most MAX_WINDOW messages are held: a page
+ * loaded at one end drops messages off the other end.  Messages that have not been sent yet
+ * are shown after the newest messages, once the window reaches them.
+ *
+ * When messages in the chatroom change (see MessageChangeTracker), only the range of the window
+ * is read again, rather than the whole chatroom.  Changes in other chatrooms are ignored.  If
+ * the window is at the newest messages, it follows new arrivals.
+ *
+ * All database reads are done on a background thread, and the window is published as LiveData.
+ */
+public class MessageTimeline {
+
+    private static final String TAG = MessageTimeline.class.getCanonicalName();
+
+    public static final int PAGE_SIZE = 50;
+
+    public static final int MAX_WINDOW = 4 * PAGE_SIZE;
+
+    /**
+     * The messages in the window, oldest first, and whether there are more at either end.
+     */
+    public static class Window {
+
+        public final List<Message> messages;
+
+        public final boolean hasOlder;
+
+        public final boolean hasNewer;
+
+        Window(List<Message> messages, boolean hasOlder, boolean hasNewer) {
+            this.messages = messages;
+            this.hasOlder = hasOlder;
+            this.hasNewer = hasNewer;
+        }
+    }
+
+    private final MessageDao messageDao;
+
+    private final String chatroom;
+
+    /*
+     * Pages are read on the foreground lane, one task at a time.
+     */
+    private final Executor executor = DatabaseExecutors.getInstance().newSerialExecutor(DatabaseExecutors.Lane.FOREGROUND);
+
+    private volatile boolean closed;
+
+    private final MutableLiveData<Window> window = new MutableLiveData<>();
+
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+    private final MessageChangeTracker changeTracker;
+
+    private final MessageChangeTracker.Observer observer;
+
+    /*
+     * Only accessed by tasks on the executor.
+     */
+    private final List<Message> messages = new ArrayList<>();
+
+    private List<Message> unsent = Collections.emptyList();
+
+    private boolean hasOlder;
+
+    private boolean hasNewer;
+
+    public MessageTimeline(ChatDatabase chatDatabase, String chatroom) {
+        this.messageDao = chatDatabase.messageDao();
+        this.chatroom = chatroom;
+        this.changeTracker = chatDatabase.getMessageChangeTracker();
+        this.observer = changeTracker.observeChatroom(chatroom, () -> {
+            // Coalesce a burst of changes (e.g. a sync) into one refresh
+            if (refreshPending.compareAndSet(false, true)) {
+                submit(() -> {
+                    refreshPending.set(false);
+                    refresh();
+                });
+            }
+        });
+        submit(this::loadNewest);
+    }
+
+    public LiveData<Window> getWindow() {
+        return window;
+    }
+
+    /**
+     * Page in older messages (the view has scrolled near the top of the window).
+     */
+    public void loadOlder() {
+        submit(this::pageOlder);
+    }
+
+    /**
+     * Page in newer messages (the view has scrolled near the bottom of the window).
+     */
+    public void loadNewer() {
+        submit(this::pageNewer);
+    }
+
+    public void close() {
+        changeTracker.removeObserver(observer);
+        closed = true;
+    }
+
+    private void submit(Runnable task) {
+        if (!closed) {
+            executor.execute(() -> {
+                if (!closed) {
+                    task.run();
+                }
+            });
+        }
+    }
+
+    private void loadNewest() {
+        List<Message> page = messageDao.fetchNewestMessages(chatroom, PAGE_SIZE);
+        Collections.reverse(page);
+        messages.clear();
+        messages.addAll(page);
+        hasOlder = page.size() == PAGE_SIZE;
+        hasNewer = false;
+        unsent = messageDao.fetchUnsentMessages(chatroom);
+        publish();
+    }
+
+    private void pageOlder() {
+        if (!hasOlder || messages.isEmpty()) {
+            return;
+        }
+        Message first = messages.get(0);
+        List<Message> page = messageDao.fetchMessagesBefore(chatroom, first.seqNum, first.id, PAGE_SIZE);
+        Collections.reverse(page);
+        messages.addAll(0, page);
+        hasOlder = page.size() == PAGE_SIZE;
+        if (messages.size() > MAX_WINDOW) {
+            messages.subList(MAX_WINDOW, messages.size()).clear();
+            hasNewer = true;
+        }
+        publish();
+    }
+
+    private void pageNewer() {
+        if (!hasNewer || messages.isEmpty()) {
+            return;
+        }
+        Message last = messages.get(messages.size() - 1);
+        // Exclusive of the last message: (seqNum, id + 1) is the next key
+        List<Message> page = messageDao.fetchMessagesFrom(chatroom, last.seqNum, last.id + 1, PAGE_SIZE);
+        messages.addAll(page);
+        if (page.size() < PAGE_SIZE) {
+            hasNewer = false;
+            unsent = messageDao.fetchUnsentMessages(chatroom);
+        }
+        if (messages.size() > MAX_WINDOW) {
+            messages.subList(0, messages.size() - MAX_WINDOW).clear();
+            hasOlder = true;
+        }
+        publish();
+    }
+
+    /*
+     * The table has changed: read the range of the window again.
+     */
+    private void refresh() {
+        if (messages.isEmpty()) {
+            loadNewest();
+            return;
+        }
+        int size = Math.max(messages.size(), PAGE_SIZE);
+        List<Message> range;
+        if (hasNewer) {
+            // The view is back in the history, keep the same start
+            Message first = messages.get(0);
+            range = messageDao.fetchMessagesFrom(chatroom, first.seqNum, first.id, size);
+        } else {
+            // Follow the newest messages
+            range = messageDao.fetchNewestMessages(chatroom, size);
+            Collections.reverse(range);
+            hasOlder = hasOlder || range.size() == size;
+            unsent = messageDao.fetchUnsentMessages(chatroom);
+        }
+        messages.clear();
+        messages.addAll(range);
+        publish();
+    }
+
+    private void publish() {
+        List<Message> shown = new ArrayList<>(messages.size() + unsent.size());
+        shown.addAll(messages);
+        if (!hasNewer) {
+            shown.addAll(unsent);
+        }
+        Log.d(TAG, String.format("Window on %s: %d messages, older %b, newer %b", chatroom, shown.size(), hasOlder, hasNewer));
+        window.postValue(new Window(Collections.unmodifiableList(shown), hasOlder, hasNewer));
+    }
+
+}
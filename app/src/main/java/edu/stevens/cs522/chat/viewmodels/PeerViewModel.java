@@ -5,10 +5,16 @@ import android.util.Log;
 
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
 
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.databases.DatabaseExecutors;
+import edu.stevens.cs522.chat.databases.MessageChangeTracker;
+import edu.stevens.cs522.chat.databases.MessageDao;
 import edu.stevens.cs522.chat.entities.Message;
 import edu.stevens.cs522.chat.entities.Peer;
 
@@ -18,10 +24,19 @@ public class PeerViewModel extends AndroidViewModel {
 
     private ChatDatabase chatDatabase;
 
-    private LiveData<List<Message>> messages;
+    private final Executor executor = DatabaseExecutors.getInstance().getForeground();
+
+    private volatile MutableLiveData<List<Message>> messages;
 
     private Peer currentPeer;
 
+    /*
+     * Messages are only read again when messages from the current peer change.
+     */
+    private MessageChangeTracker.Observer observer;
+
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
     public PeerViewModel(Application context) {
         super(context);
         Log.d(TAG, "Getting database in PeerViewModel");
@@ -33,15 +48,45 @@ public class PeerViewModel extends AndroidViewModel {
     public LiveData<List<Message>> fetchMessagesFromPeer(Peer peer) {
         if (messages == null || (currentPeer !=null && currentPeer.id != peer.id)) {
             currentPeer = peer;
-            messages = chatDatabase.messageDao().fetchMessagesFromPeer(peer.name);
+            stopObserving();
+            MutableLiveData<List<Message>> peerMessages = new MutableLiveData<>();
+            messages = peerMessages;
+            final MessageDao messageDao = chatDatabase.messageDao();
+            final String name = peer.name;
+            observer = chatDatabase.getMessageChangeTracker().observeSender(name, () -> {
+                if (refreshPending.compareAndSet(false, true)) {
+                    executor.execute(() -> {
+                        refreshPending.set(false);
+                        load(messageDao, peerMessages, name);
+                    });
+                }
+            });
+            executor.execute(() -> load(messageDao, peerMessages, name));
         }
         return messages;
     }
 
+    private void load(MessageDao messageDao, MutableLiveData<List<Message>> peerMessages, String name) {
+        // Not if we have moved on to another peer
+        if (peerMessages == messages) {
+            peerMessages.postValue(messageDao.fetchMessagesFromPeer(name));
+        }
+    }
+
+    private void stopObserving() {
+        if (observer != null) {
+            chatDatabase.getMessageChangeTracker().removeObserver(observer);
+            observer = null;
+        }
+    }
+
     @Override
     public void onCleared() {
         super.onCleared();
         Log.d(TAG, "Clearing PeerViewodel...");
+        stopObserving();
+        messages = null;
+        Log.d(TAG, "Message changes: " + chatDatabase.getMessageChangeTracker());
         chatDatabase = null;
     }
 }
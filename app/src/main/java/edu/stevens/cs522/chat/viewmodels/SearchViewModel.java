@@ -0,0 +1,113 @@
+package edu.stevens.cs522.chat.viewmodels;
+
+import android.app.Application;
+import android.util.Log;
+
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.databases.SearchDao;
+import edu.stevens.cs522.chat.entities.Message;
+
+/**
+ * Results of a full-text search over chat history, best match first, paged in as the view scrolls.
+ *
+ * Searches run on a background thread.  A new search (e.g. as the user types) makes the
+ * results of any earlier search stale, and they are dropped rather than published.
+ */
+public class SearchViewModel extends AndroidViewModel {
+
+    private static final String TAG = SearchViewModel.class.getCanonicalName();
+
+    public static final int PAGE_SIZE = 50;
+
+    private final SearchDao searchDao;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final MutableLiveData<List<Message>> results = new MutableLiveData<>(Collections.emptyList());
+
+    /*
+     * Only accessed on the main thread.
+     */
+    private String terms;
+
+    private int generation;
+
+    private boolean loading;
+
+    private boolean hasMore;
+
+    private List<Message> shown = Collections.emptyList();
+
+    public SearchViewModel(Application context) {
+        super(context);
+        Log.d(TAG, "Getting database in SearchViewModel");
+        searchDao = ChatDatabase.getInstance(context).searchDao();
+    }
+
+    public LiveData<List<Message>> getResults() {
+        return results;
+    }
+
+    /**
+     * Start a new search, replacing the current results.
+     */
+    public void search(String terms) {
+        terms = terms.trim();
+        if (terms.equals(this.terms)) {
+            return;
+        }
+        this.terms = terms;
+        generation++;
+        shown = Collections.emptyList();
+        hasMore = true;
+        loading = false;
+        loadMore();
+    }
+
+    /**
+     * Page in more results (the view has scrolled near the end of the results).
+     */
+    public void loadMore() {
+        if (loading || !hasMore || terms == null) {
+            return;
+        }
+        loading = true;
+        final String query = terms;
+        final int offset = shown.size();
+        final int searching = generation;
+        executor.execute(() -> {
+            List<Message> page = searchDao.search(query, offset, PAGE_SIZE);
+            Log.d(TAG, String.format("Search for \"%s\" from %d: %d results", query, offset, page.size()));
+            // Back to the main thread, where the results are kept
+            getApplication().getMainExecutor().execute(() -> {
+                if (searching != generation) {
+                    return;
+                }
+                List<Message> messages = new ArrayList<>(shown.size() + page.size());
+                messages.addAll(shown);
+                messages.addAll(page);
+                shown = Collections.unmodifiableList(messages);
+                hasMore = page.size() == PAGE_SIZE;
+                loading = false;
+                results.setValue(shown);
+            });
+        });
+    }
+
+    @Override
+    public void onCleared() {
+        super.onCleared();
+        Log.d(TAG, "Clearing SearchViewModel...");
+        executor.shutdownNow();
+    }
+}
@@ -7,13 +7,15 @@ import android.util.Log;
 
 import java.time.Instant;
 
-import edu.stevens.cs522.base.work.OneTimeWorkRequest;
 import edu.stevens.cs522.base.work.PeriodicWorkRequest;
 import edu.stevens.cs522.base.work.WorkManager;
+import edu.stevens.cs522.chat.databases.DatabaseExecutors;
 import edu.stevens.cs522.chat.entities.Message;
 import edu.stevens.cs522.chat.location.CurrentLocation;
-import edu.stevens.cs522.chat.web.work.PostMessageWorker;
-import edu.stevens.cs522.chat.web.work.SynchronizeWorker;
+import edu.stevens.cs522.chat.web.sync.LiveSync;
+import edu.stevens.cs522.chat.web.sync.MessageSender;
+import edu.stevens.cs522.chat.web.sync.SyncScheduler;
+import edu.stevens.cs522.chat.web.work.RetentionWorker;
 import edu.stevens.cs522.chat.services.RegisterService;
 import edu.stevens.cs522.chat.settings.Settings;
 
@@ -26,7 +28,8 @@ public class ChatHelper {
 
     private static final String TAG = ChatHelper.class.getCanonicalName();
 
-    public static final int SYNC_INTERVAL = 1;
+    // Minutes between runs of the message retention job
+    public static final int RETENTION_INTERVAL = 24 * 60;
 
     private final Context context;
 
@@ -48,9 +51,20 @@ public class ChatHelper {
         }
     }
 
+    /**
+     * Follow a chatroom: its messages are downloaded when we sync.
+     */
+    public void subscribe(String chatRoom) {
+        if (Settings.subscribeChatroom(context, chatRoom)) {
+            Log.d(TAG, "Subscribing to chatroom: " + chatRoom);
+            LiveSync.getInstance(context).resubscribe();
+        }
+    }
+
     public void postMessage(String chatRoom, String messageText) {
         if (messageText != null && !messageText.isEmpty()) {
             Log.d(TAG, "Posting message: "+messageText);
+            subscribe(chatRoom);
             Message mesg = new Message();
             mesg.messageText = messageText;
             mesg.appID = Settings.getAppId(context);
@@ -60,42 +74,56 @@ public class ChatHelper {
             mesg.longitude = location.getLongitude();
             mesg.sender = Settings.getChatName(context);
 
-            Bundle data = new Bundle();
-            data.putParcelable(PostMessageWorker.MESSAGE_KEY, mesg);
-
-            /*
-             * TODO enqueue a request with workManager to post this message
-             */
-            OneTimeWorkRequest request = new OneTimeWorkRequest(PostMessageWorker.class, data);
-            workManager.enqueueUniqueWork(request);
+            // Stored, then uploaded right away
+            MessageSender.getInstance(context).send(mesg);
+            SyncScheduler.getInstance(context).onActivity();
         }
     }
 
-    private PeriodicWorkRequest syncRequest;
+    private PeriodicWorkRequest retentionRequest;
 
     public void startMessageSync() {
         Log.d(TAG, "Enabling background synchronization of message database.");
 
-        if (syncRequest != null) {
+        if (retentionRequest != null) {
             throw new IllegalStateException("Trying to schedule sync when it is already scheduled!");
         }
 
-        // TODO schedule periodic synchronization with message database
-        syncRequest = new PeriodicWorkRequest(SynchronizeWorker.class, new Bundle(), SYNC_INTERVAL);
-        workManager.enqueuePeriodicUniqueWork(syncRequest);
+        /*
+         * Sync in the background, more often while messages are flowing, and backing off
+         * while we are idle (see SyncScheduler).
+         */
+        SyncScheduler.getInstance(context).start();
+
+        // Purge messages outside the retention policies of chatrooms
+        retentionRequest = new PeriodicWorkRequest(RetentionWorker.class, new Bundle(), RETENTION_INTERVAL);
+        workManager.enqueuePeriodicUniqueWork(retentionRequest);
+
+        /*
+         * While we are in the foreground, keep a stream open so messages are delivered as they
+         * are posted.  Periodic sync is the fallback while the stream is disconnected.
+         */
+        LiveSync.getInstance(context).start();
     }
 
     public void stopMessageSync() {
         Log.d(TAG, "Canceling background synchronization of message database.");
 
-        if (syncRequest == null) {
+        if (retentionRequest == null) {
             throw new IllegalStateException("Trying to cancel sync when it is not scheduled!");
         }
 
-        // TODO cancel periodic synchronization with message database
-        workManager.cancelPeriodicUniqueWork(syncRequest);
-        syncRequest = null;
+        SyncScheduler.getInstance(context).stop();
+
+        workManager.cancelPeriodicUniqueWork(retentionRequest);
+        retentionRequest = null;
+
+        LiveSync.getInstance(context).stop();
 
+        // How long database work waited while we were in the foreground
+        DatabaseExecutors.getInstance().logStats();
+        MessageSender.getInstance(context).logStats();
+        SyncScheduler.getInstance(context).logStats();
     }
 
 }
@@ -3,22 +3,20 @@ package edu.stevens.cs522.chat.web;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.time.Instant;
-import java.util.List;
-import java.util.UUID;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.Random;
 
 import edu.stevens.cs522.chat.R;
 import edu.stevens.cs522.chat.databases.ChatDatabase;
 import edu.stevens.cs522.chat.entities.Chatroom;
-import edu.stevens.cs522.chat.entities.Message;
 import edu.stevens.cs522.chat.entities.Peer;
 import edu.stevens.cs522.chat.location.CurrentLocation;
-import edu.stevens.cs522.chat.web.RestMethod.DownloadObserver;
-import edu.stevens.cs522.chat.web.RestMethod.UploadObserver;
+import edu.stevens.cs522.chat.web.client.ChannelManager;
+import edu.stevens.cs522.chat.web.client.CompressionInterceptor;
+import edu.stevens.cs522.chat.web.client.RetryEngine;
 import edu.stevens.cs522.chat.web.request.ChatServiceRequest;
 import edu.stevens.cs522.chat.web.request.ChatServiceResponse;
 import edu.stevens.cs522.chat.web.request.DummyResponse;
@@ -28,6 +26,9 @@ import edu.stevens.cs522.chat.web.request.RegisterRequest;
 import edu.stevens.cs522.chat.web.request.RegisterResponse;
 import edu.stevens.cs522.chat.web.request.SynchronizeRequest;
 import edu.stevens.cs522.chat.settings.Settings;
+import edu.stevens.cs522.chat.web.sync.LiveSync;
+import edu.stevens.cs522.chat.web.sync.SyncEngine;
+import edu.stevens.cs522.chat.web.sync.SyncScheduler;
 import io.grpc.Status;
 
 /**
@@ -46,6 +47,10 @@ public class RequestProcessor {
 
     private final ChatDatabase chatDatabase;
 
+    private final SyncEngine syncEngine;
+
+    private final RetryEngine retryEngine = new RetryEngine(new Random());
+
     private RequestProcessor(Context context) {
         this.context = context.getApplicationContext();
 
@@ -54,10 +59,20 @@ public class RequestProcessor {
         this.restMethod = new RestMethod(context);
 
         this.chatDatabase = ChatDatabase.getInstance(context);
+
+        this.syncEngine = new SyncEngine(this.context, restMethod, chatDatabase);
     }
 
-    public static RequestProcessor getInstance(Context context) {
-        return new RequestProcessor(context);
+    private static RequestProcessor instance;
+
+    /*
+     * One request processor (and so one REST method and one set of channels) for the app.
+     */
+    public static synchronized RequestProcessor getInstance(Context context) {
+        if (instance == null) {
+            instance = new RequestProcessor(context.getApplicationContext());
+        }
+        return instance;
     }
 
     /**
@@ -112,6 +127,9 @@ public class RequestProcessor {
             // Initialize the sequence number (version counter) for synchronizing with the server
             chatDatabase.requestDao().initLastSequenceNumber();
 
+            // Follow the default chatroom
+            Settings.subscribeChatroom(context, context.getString(R.string.default_chat_room));
+
             // TODO save the server URI and user name in settings
             Settings.saveChatName(context, peer.name);
             Settings.saveServerUri(context, request.chatServer);
@@ -121,29 +139,41 @@ public class RequestProcessor {
 
     public ChatServiceResponse perform(PostMessageRequest request) {
 
-        Log.d(TAG, "Posting message: " + request.message.messageText);
+        Log.d(TAG, "Uploading posted messages: " + request.messageIds.length);
 
-        Log.d(TAG, "Adding the chatroom to the local database, if not already there.");
-        chatDatabase.chatroomDao().insert(new Chatroom(request.message.chatroom));
+        if (!Settings.isRegistered(context)) {
+            Log.d(TAG, "Upload before registration will be skipped...");
+            return request.getDummyResponse();
+        }
 
-        Log.d(TAG, "Inserting the message into the local database.");
-        long id = -1;  // Local PK of the message in the DB
-        // TODO insert the message into the local database
-        id = chatDatabase.requestDao().insert(request.message);
-        request.message.id = id;
         /*
-         * We will just insert the message into the database, and rely on periodic
-         * background synchronization to upload it asynchronously.
+         * The messages were stored when they were posted (see MessageSender).  If the live
+         * sync stream is open, they are uploaded on it.  Otherwise a sync uploads them now,
+         * with the rest of the backlog, rather than waiting for the next periodic sync.
          */
-        Log.d(TAG, "We will upload the message when we synchronize with the server later.");
-        return request.getDummyResponse();
-    }
+        if (LiveSync.getInstance(context).isLive()) {
+            Log.d(TAG, "Live sync is connected, messages are uploaded on the stream.");
+            return request.getDummyResponse();
+        }
 
-    public static final long SYNC_TIMEOUT = 10; // seconds
+        // An earlier upload (or a periodic sync) may already have taken them
+        if (chatDatabase.requestDao().countUnsentMessages(request.messageIds) == 0) {
+            Log.d(TAG, "Messages have already been uploaded.");
+            return request.getDummyResponse();
+        }
+
+        SynchronizeRequest sync = new SynchronizeRequest();
+        sync.appId = request.appId;
+        sync.chatName = request.chatName;
+        sync.version = request.version;
+        sync.latitude = request.latitude;
+        sync.longitude = request.longitude;
+        return sync(sync);
+    }
 
     /**
      * For SYNC: perform a sync using a request manager.  These requests are
-     * generated from an alarm that is scheduled at periodic intervals.
+     * scheduled by the sync scheduler, at intervals that adapt to activity.
      */
     public ChatServiceResponse perform(SynchronizeRequest request) {
 
@@ -152,121 +182,61 @@ public class RequestProcessor {
             return new DummyResponse();
         }
 
-        Log.d(TAG, "Performing synchronization request.");
-
-        /*
-         * Use this latch to wait until response from server has been completely processed.
-         */
-        CountDownLatch latch = new CountDownLatch(1);
-
-        UUID myAppID = Settings.getAppId(context);
-
-        /*
-         * This is the callback for processing streaming downloads from the server.
-         */
-        DownloadObserver responseConsumer = new DownloadObserver() {
-            @Override
-            public void onChatroom(Chatroom chatroom) {
-                chatDatabase.chatroomDao().insert(chatroom);
-            }
-
-            public void onPeer(Peer peer) {
-                chatDatabase.peerDao().upsert(peer);
-            }
-
-            public void onMessage(Message message) {
-                // TODO upsert the message (may be one of our own with a seq number updated by the server)
-                chatDatabase.requestDao().upsert(myAppID, message);
-                chatDatabase.requestDao().updateLastSequenceNumber(message.seqNum);
-            }
-
-            @Override
-            public void onError(Throwable t) {
-                /*
-                 * An error reported by the server, so the download is terminated.
-                 */
-                Log.e(TAG, "Error while downloading data from server", t);
-                latch.countDown();
-            }
-
-            @Override
-            public void onCompleted() {
-                /*
-                 * The server has signalled that downloading is now completed.
-                 */
-                Log.i(TAG, "Finished download from server");
-                latch.countDown();
-            }
-        };
+        if (LiveSync.getInstance(context).isLive()) {
+            Log.d(TAG, "Live sync is connected, periodic sync will be skipped...");
+            return request.getResponse();
+        }
 
-        /*
-         * Connect to the server with the above callback for consuming its response.
-         * The streaming call returns a listener to which we push uploads.
-         */
-        UploadObserver uploader = restMethod.perform(request, responseConsumer);
+        Log.d(TAG, "Performing synchronization request.");
 
-        try {
-            /*
-             * Start pushing uploads to the server via the observer we got back from the streaming call.
-             * These uploadds will be processed by the server.  The downloads it pushes to us will be
-             * processed by the listener we provided as the argument to the RPC.  The server will not
-             * start pushing downloads until we have finished pushing uploads.
-             */
-            /*
-             * The server needs the sequence number of the last message it downloaded to this device.
-             * The server will download any messages it has "seen" since it last synced with this device.
-             */
-            long lastSequenceNumber = chatDatabase.requestDao().getLastSequenceNumber();
-            uploader.onSync(lastSequenceNumber, request.longitude, request.latitude);
+        ChatServiceResponse response = sync(request);
 
-            /*
-             * We upload a list of all our chatrooms to the server.
-             */
-            final List<Chatroom> chatrooms = chatDatabase.chatroomDao().getAllChatrooms();
-            for (Chatroom chatroom : chatrooms) {
-                uploader.onChatroom(chatroom);
-            }
+        Log.d(TAG, "Connections to chat server: " + ChannelManager.getInstance(context));
+        CompressionInterceptor.logStats();
 
-            /*
-             * TODO Upload the messages that we have not yet uploaded to the server.
-             */
-            List<Message> messages = chatDatabase.requestDao().getUnsentMessages();
-            for(Message message : messages){
-                uploader.onMessage(message);
-            }
+        return response;
+    }
 
-            Log.i(TAG, "Finished uploading data to server");
-            uploader.onCompleted();
+    /*
+     * The sync engine runs one sync at a time; overlapping requests share its result.
+     * The scheduler is told whether the sync brought anything new, to pick the next interval.
+     * If the sync failed, the retry engine decides when to try again, and stops syncs while
+     * the server is failing (see RetryEngine).
+     */
+    private ChatServiceResponse sync(SynchronizeRequest request) {
+        SyncScheduler scheduler = SyncScheduler.getInstance(context);
+        if (!retryEngine.allowAttempt(SystemClock.elapsedRealtime())) {
+            Log.d(TAG, "Chat server is failing, sync will be skipped: " + retryEngine);
+            scheduler.onRetry(retryEngine.getRetryDelay(SystemClock.elapsedRealtime()));
+            return circuitOpen();
+        }
 
-            /*
-             * Now wait for the download of the server response to complete (see download observer,
-             * which will decrement the countdown latch when downloading is finished).
-             */
-            boolean completed = latch.await(SYNC_TIMEOUT, TimeUnit.SECONDS);
-
-            if (completed) {
-                return request.getResponse();
-            } else {
-                /*
-                 * The countdown latch timed out.
-                 */
-                Log.e(TAG, "Countdown latch in request processing timed out!");
-                ErrorResponse errorResponse = new ErrorResponse();
-                Status status = Status.ABORTED;
-                errorResponse.responseCode = status.getCode().value();
-                errorResponse.responseMessage = status.getCode().name();
-                errorResponse.errorMessage = status.getDescription();
-                return errorResponse;
+        long before = chatDatabase.requestDao().getLastSequenceNumber();
+        ChatServiceResponse response = syncEngine.sync(request, Settings.getAppId(context));
+        long after = chatDatabase.requestDao().getLastSequenceNumber();
+
+        if (response instanceof ErrorResponse) {
+            ErrorResponse error = (ErrorResponse) response;
+            long delay = retryEngine.onFailure(error.responseCode, error.retryPushback, SystemClock.elapsedRealtime());
+            Log.d(TAG, String.format("Sync failed (%s), retry in %d ms: %s",
+                    RetryEngine.classify(error.responseCode), delay, retryEngine));
+            if (delay != RetryEngine.NO_RETRY) {
+                scheduler.onRetry(delay);
+                return response;
             }
-
-        } catch (Exception e) {
-
-            Log.e(TAG, "Exception while uploading data to server!", e);
-            uploader.onError(e);
-            return RestMethod.getErrorResponse(e);
-
+        } else {
+            retryEngine.onSuccess();
         }
+        scheduler.onSynced(after > before, chatDatabase.requestDao().countUnsentMessages());
+        return response;
+    }
 
+    private static ErrorResponse circuitOpen() {
+        ErrorResponse response = new ErrorResponse();
+        response.responseCode = Status.Code.UNAVAILABLE.value();
+        response.responseMessage = "Circuit open";
+        response.errorMessage = "Chat server is failing, sync was not attempted.";
+        return response;
     }
 
 }
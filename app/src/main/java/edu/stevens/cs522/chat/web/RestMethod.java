@@ -4,23 +4,44 @@ import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import com.google.protobuf.ByteString;
 
 import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.ChatroomVersion;
 import edu.stevens.cs522.chat.entities.Message;
 import edu.stevens.cs522.chat.entities.Peer;
 import edu.stevens.cs522.chat.entities.TimestampConverter;
+import edu.stevens.cs522.chat.web.client.ChannelManager;
+import edu.stevens.cs522.chat.web.client.ChatroomDictionary;
+import edu.stevens.cs522.chat.web.client.CompressionInterceptor;
+import edu.stevens.cs522.chat.web.client.EndpointSelector;
 import edu.stevens.cs522.chat.web.client.HeaderInterceptor;
+import edu.stevens.cs522.chat.web.client.RetryEngine;
 import edu.stevens.cs522.chat.web.grpc.ChatServiceGrpc;
 import edu.stevens.cs522.chat.web.grpc.ChatServiceGrpc.ChatServiceBlockingStub;
 import edu.stevens.cs522.chat.web.grpc.ChatServiceGrpc.ChatServiceStub;
+import edu.stevens.cs522.chat.web.grpc.ChatroomRef;
 import edu.stevens.cs522.chat.web.grpc.DownloadItem;
 import edu.stevens.cs522.chat.web.grpc.Location;
+import edu.stevens.cs522.chat.web.grpc.MessageV2;
+import edu.stevens.cs522.chat.web.grpc.PeerV2;
 import edu.stevens.cs522.chat.web.grpc.RegistrationRequest;
+import edu.stevens.cs522.chat.web.grpc.SnapshotChunk;
+import edu.stevens.cs522.chat.web.grpc.SnapshotRequest;
 import edu.stevens.cs522.chat.web.grpc.SyncRequest;
 import edu.stevens.cs522.chat.web.grpc.UploadItem;
 import edu.stevens.cs522.chat.web.request.ChatServiceRequest;
@@ -30,10 +51,12 @@ import edu.stevens.cs522.chat.web.request.RegisterRequest;
 import edu.stevens.cs522.chat.web.request.SynchronizeRequest;
 import edu.stevens.cs522.chat.settings.Settings;
 import io.grpc.Channel;
-import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
 import io.grpc.ManagedChannel;
 import io.grpc.Status;
-import io.grpc.android.AndroidChannelBuilder;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 
 
@@ -49,6 +72,11 @@ public class RestMethod {
 
     public static final String CHARSET = "UTF-8";
 
+    /*
+     * The latest wire encoding we understand (advertised in SyncRequest).
+     */
+    public static final int WIRE_ENCODING = 2;
+
 
 
     /*
@@ -61,33 +89,39 @@ public class RestMethod {
 
     protected final Context context;
 
-    /*
-     * This is the underlying channel for sending requests to the server.
-     */
-    protected ManagedChannel channel;
+    private final EndpointSelector endpointSelector;
 
 
     public RestMethod(Context context) {
-        this.context = context.getApplicationContext();
+        this(context, null);
     }
 
     /*
-     * Create a retrofit client stub around an OkHttp client.
+     * With an endpoint selector of its own, rather than the one for the endpoints in settings.
      */
+    public RestMethod(Context context, EndpointSelector endpointSelector) {
+        this.context = context.getApplicationContext();
+        this.endpointSelector = endpointSelector;
+    }
 
-    protected Channel getChannel(Uri serverUri, ChatServiceRequest request) {
-        if (channel == null || channel.isShutdown() || channel.isTerminated()) {
-            String host = serverUri.getHost();
-            int port = serverUri.getPort();
-            ClientInterceptor interceptor = new HeaderInterceptor(request);
+    /**
+     * Chooses the server endpoint for each call, and learns from how the calls go.
+     */
+    public EndpointSelector getEndpointSelector() {
+        return endpointSelector != null ? endpointSelector : EndpointSelector.getInstance(context);
+    }
 
-            // https://github.com/grpc/grpc-java/blob/master/documentation/android-channel-builder.md
-            // TODO create the channel
-            channel = AndroidChannelBuilder.forAddress(host, port).context(context).intercept(interceptor).usePlaintext().idleTimeout(1, TimeUnit.MINUTES).build();
+    /*
+     * The underlying channel for sending requests to the server is shared by all requests
+     * to that server (see ChannelManager).  The identity of the app making the request is
+     * attached to each call, rather than to the channel.
+     */
 
-        }
-        return channel;
+    protected Channel getChannel(Uri serverUri, ChatServiceRequest request) {
+        ManagedChannel channel = ChannelManager.getInstance(context).getChannel(serverUri);
+        return ClientInterceptors.intercept(channel, new HeaderInterceptor(request));
     }
+
     protected ChatServiceBlockingStub createClient(Uri serverUri, ChatServiceRequest request) {
         /*
          * Create a blocking client stub (for registration).
@@ -97,9 +131,10 @@ public class RestMethod {
 
     protected ChatServiceStub createStreamingClient(Uri serverUri, ChatServiceRequest request) {
         /*
-         * Create a streaming client stub (for synchronization).
+         * Create a streaming client stub (for synchronization), with message compression.
          */
-        return ChatServiceGrpc.newStub(getChannel(serverUri, request));
+        return ChatServiceGrpc.newStub(getChannel(serverUri, request))
+                .withInterceptors(new CompressionInterceptor(context));
     }
 
     /*
@@ -111,6 +146,7 @@ public class RestMethod {
         errorResponse.responseCode = status.getCode().value();
         errorResponse.responseMessage = status.getDescription();
         errorResponse.errorMessage = t.getMessage();
+        errorResponse.retryPushback = RetryEngine.getPushback(Status.trailersFromThrowable(t));
         return errorResponse;
     }
 
@@ -136,11 +172,22 @@ public class RestMethod {
     }
 
     public interface UploadObserver {
-        public void onSync(long lastSequenceNumber, Double longitude, Double latitude);
+        public void onSync(long lastSequenceNumber, List<ChatroomVersion> subscriptions, Double longitude, Double latitude);
         public void onChatroom(Chatroom chatroom);
         public void onMessage(Message message);
         public void onCompleted();
         public void onError(Throwable t);
+        /*
+         * Flow control for uploads: only push while the transport is ready, and resume
+         * pushing when the handler is invoked.
+         */
+        public boolean isReady();
+        public void setOnReadyHandler(Runnable onReadyHandler);
+        /*
+         * Abandon the call, e.g. if the server stops making progress.  The download observer
+         * is notified with a CANCELLED error.
+         */
+        public void cancel(String message);
     }
 
     public interface DownloadObserver {
@@ -151,14 +198,175 @@ public class RestMethod {
         public void onError(Throwable t);
     }
 
+    /*
+     * Manual flow control for downloads: the server may only send as many items as
+     * the observer has requested.
+     */
+    public interface FlowControl {
+        public void request(int count);
+        public void cancel(String message, Throwable cause);
+    }
+
+    public interface FlowControlledObserver extends DownloadObserver {
+        /*
+         * Number of items the server may send before the observer has requested more.
+         */
+        public int getInitialRequests();
+        public void setFlowControl(FlowControl flowControl);
+    }
+
+    public interface SnapshotObserver extends DownloadObserver {
+        /*
+         * The end of a chunk of a snapshot taken at version (see SnapshotLoader).
+         */
+        public void onChunk(long version);
+    }
+
+    /**
+     * Download a snapshot of the server (only the messages in chatrooms, if any are listed),
+     * and pass it on to the observer a chunk at a time.  This blocks until the snapshot has
+     * been downloaded, or the call fails or exceeds the deadline (in milliseconds).
+     */
+    public ChatServiceResponse snapshot(SynchronizeRequest request, List<String> chatrooms, SnapshotObserver observer, long deadline) {
+        EndpointSelector selector = getEndpointSelector();
+        EndpointSelector.Endpoint endpoint = null;
+        try {
+            Log.d(TAG, String.format("Performing Web service call for snapshot: %d chatrooms listed", chatrooms.size()));
+
+            endpoint = selector.select(SystemClock.elapsedRealtime());
+            ChatServiceBlockingStub stub = createClient(endpoint.uri, request)
+                    .withInterceptors(new CompressionInterceptor(context))
+                    .withDeadlineAfter(deadline, TimeUnit.MILLISECONDS);
+            Iterator<SnapshotChunk> chunks = stub.snapshot(SnapshotRequest.newBuilder().addAllChatrooms(chatrooms).build());
+
+            ChatroomDictionary dictionary = new ChatroomDictionary();
+            while (chunks.hasNext()) {
+                SnapshotChunk chunk = chunks.next();
+                for (ChatroomRef ref : chunk.getChatroomsList()) {
+                    dictionary.put(ref.getId(), ref.getName());
+                    observer.onChatroom(new Chatroom(ref.getName()));
+                }
+                for (PeerV2 peer : chunk.getPeersList()) {
+                    observer.onPeer(intern(peer));
+                }
+                for (MessageV2 message : chunk.getMessagesList()) {
+                    observer.onMessage(intern(message, dictionary));
+                }
+                observer.onChunk(chunk.getVersion());
+            }
+            observer.onCompleted();
+            selector.onSuccess(endpoint, -1);
+
+            Log.d(TAG, "Snapshot request succeeded!");
+            return request.getResponse();
+
+        } catch (Exception e) {
+            if (endpoint != null && e instanceof StatusRuntimeException) {
+                selector.onFailure(endpoint, Status.fromThrowable(e).getCode().value(), SystemClock.elapsedRealtime());
+            }
+            observer.onError(e);
+            ErrorResponse response = getErrorResponse(e);
+            Log.e(TAG, "Snapshot: Web service error, status code = " + response.responseCode, e);
+            return response;
+        }
+    }
+
     public UploadObserver perform(SynchronizeRequest request, final DownloadObserver downloadObserver) {
+        return perform(request, downloadObserver, 0);
+    }
+
+    /**
+     * Start a sync with the server.  If deadline is positive, the call fails with DEADLINE_EXCEEDED
+     * if it has not completed within that many milliseconds.
+     */
+    public UploadObserver perform(SynchronizeRequest request, final DownloadObserver downloadObserver, long deadline) {
+        EndpointSelector.Endpoint endpoint = getEndpointSelector().select(SystemClock.elapsedRealtime());
+        ChatServiceStub stub = createStreamingClient(endpoint.uri, request);
+        if (deadline > 0) {
+            stub = stub.withDeadlineAfter(deadline, TimeUnit.MILLISECONDS);
+        }
+        return startStream(stub::sync, downloadObserver, endpoint, true);
+    }
+
+    /**
+     * Open a subscription stream with the server.  This has no deadline: it stays open until
+     * it is completed or cancelled by the client, or closed by the server.
+     */
+    public UploadObserver subscribe(SynchronizeRequest request, final DownloadObserver downloadObserver) {
+        EndpointSelector.Endpoint endpoint = getEndpointSelector().select(SystemClock.elapsedRealtime());
+        ChatServiceStub stub = createStreamingClient(endpoint.uri, request);
+        return startStream(stub::subscribe, downloadObserver, endpoint, false);
+    }
+
+    /*
+     * The outcome of the call is reported to the endpoint selector.  If measure is true, the
+     * time until the first response (or the end of the call) is its round-trip time.
+     */
+    private UploadObserver startStream(Function<StreamObserver<DownloadItem>, StreamObserver<UploadItem>> call,
+                                       final DownloadObserver downloadObserver,
+                                       final EndpointSelector.Endpoint endpoint, final boolean measure) {
+
+        final EndpointSelector selector = getEndpointSelector();
+
+        final long start = SystemClock.elapsedRealtime();
+
+        final AtomicBoolean responded = new AtomicBoolean();
+
+        /*
+         * The request stream, if the download observer does its own inbound flow control.
+         */
+        final AtomicReference<ClientCallStreamObserver<UploadItem>> flowControlled = new AtomicReference<>();
+
+        /*
+         * Handler to resume uploading when the transport becomes ready (set by the uploader).
+         */
+        final AtomicReference<Runnable> onReadyHandler = new AtomicReference<>();
+
+        /*
+         * Downloads are in v1 or v2 encoding, as the server chooses.  We only upload in v2
+         * once the server has told us (in an earlier stream) that it accepts it.
+         */
+        final int uploadEncoding = Math.min(Settings.getServerEncoding(context), WIRE_ENCODING);
+
+        final ChatroomDictionary downloadDictionary = new ChatroomDictionary();
+
+        final ChatroomDictionary uploadDictionary = new ChatroomDictionary();
 
         /*
          * The response consumer wraps the streaming response from the server.
          */
-        StreamObserver<DownloadItem> responseConsumer = new StreamObserver<DownloadItem>() {
+        ClientResponseObserver<UploadItem, DownloadItem> responseConsumer = new ClientResponseObserver<UploadItem, DownloadItem>() {
+            @Override
+            public void beforeStart(ClientCallStreamObserver<UploadItem> requestStream) {
+                if (downloadObserver instanceof FlowControlledObserver) {
+                    FlowControlledObserver observer = (FlowControlledObserver) downloadObserver;
+                    requestStream.disableAutoRequestWithInitial(observer.getInitialRequests());
+                    flowControlled.set(requestStream);
+                    observer.setFlowControl(new FlowControl() {
+                        @Override
+                        public void request(int count) {
+                            requestStream.request(count);
+                        }
+
+                        @Override
+                        public void cancel(String message, Throwable cause) {
+                            requestStream.cancel(message, cause);
+                        }
+                    });
+                }
+                requestStream.setOnReadyHandler(() -> {
+                    Runnable handler = onReadyHandler.get();
+                    if (handler != null) {
+                        handler.run();
+                    }
+                });
+            }
+
             @Override
             public void onNext(DownloadItem item) {
+                if (measure && responded.compareAndSet(false, true)) {
+                    selector.onSuccess(endpoint, SystemClock.elapsedRealtime() - start);
+                }
                 if (item.hasChatroom()) {
                     downloadObserver.onChatroom(intern(item.getChatroom()));
                 } else if (item.hasPeer()) {
@@ -167,24 +375,53 @@ public class RestMethod {
                     // TODO upsert the message (may be one of our own with updated seq number)
                     downloadObserver.onMessage(intern(item.getMessage()));
 
+                } else if (item.hasMessageV2()) {
+                    downloadObserver.onMessage(intern(item.getMessageV2(), downloadDictionary));
+                } else if (item.hasChatroomRef()) {
+                    downloadDictionary.put(item.getChatroomRef().getId(), item.getChatroomRef().getName());
+                    consumed();
+                } else if (item.hasPeerV2()) {
+                    downloadObserver.onPeer(intern(item.getPeerV2()));
+                } else if (item.hasEncoding()) {
+                    int encoding = item.getEncoding().getVersion();
+                    Log.d(TAG, "Server accepts wire encoding " + encoding);
+                    Settings.saveServerEncoding(context, encoding);
+                    consumed();
+                }
+            }
+
+            /*
+             * An item handled here, rather than by the download observer, which would otherwise
+             * give back its flow control credit once it had applied it.
+             */
+            private void consumed() {
+                ClientCallStreamObserver<UploadItem> requestStream = flowControlled.get();
+                if (requestStream != null) {
+                    requestStream.request(1);
                 }
             }
 
             @Override
             public void onError(Throwable t) {
+                // Before the download sees the error, so that a retry goes elsewhere
+                long now = SystemClock.elapsedRealtime();
+                if (measure && !responded.get()) {
+                    selector.onLatency(endpoint, now - start);
+                }
+                selector.onFailure(endpoint, Status.fromThrowable(t).getCode().value(), now);
                 downloadObserver.onError(t);
             }
 
             @Override
             public void onCompleted() {
+                if (!responded.getAndSet(true)) {
+                    selector.onSuccess(endpoint, measure ? SystemClock.elapsedRealtime() - start : -1);
+                }
                 downloadObserver.onCompleted();
             }
         };
 
-        //StreamObserver<UploadItem> requestProducer = null;
-        // TODO get and invoke a streaming client stub
-        ChatServiceStub stub = createStreamingClient(Settings.getServerUri(context), request);
-        StreamObserver<UploadItem> requestProducer = stub.sync(responseConsumer);
+        ClientCallStreamObserver<UploadItem> requestProducer = (ClientCallStreamObserver<UploadItem>) call.apply(responseConsumer);
 
         /*
          * Wrap the request producer in an upload observer.
@@ -192,10 +429,14 @@ public class RestMethod {
         return new UploadObserver() {
 
             @Override
-            public void onSync(long lastSequenceNumber, Double longitude, Double latitude) {
+            public void onSync(long lastSequenceNumber, List<ChatroomVersion> subscriptions, Double longitude, Double latitude) {
                 // TODO
                 Location location = Location.newBuilder().setLongitude(longitude).setLatitude(latitude).build();
-                SyncRequest request = SyncRequest.newBuilder().setLocation(location).setVersion(lastSequenceNumber).build();
+                SyncRequest.Builder request = SyncRequest.newBuilder().setLocation(location).setVersion(lastSequenceNumber)
+                        .setEncoding(WIRE_ENCODING);
+                for (ChatroomVersion subscription : subscriptions) {
+                    request.addSubscriptions(extern(subscription));
+                }
                 requestProducer.onNext(UploadItem.newBuilder().setRequest(request).build());
 
             }
@@ -208,8 +449,19 @@ public class RestMethod {
             @Override
             public void onMessage(Message message) {
                 // TODO
-                requestProducer.onNext(UploadItem.newBuilder().setMessage(extern(message)).build());
-
+                if (uploadEncoding < 2) {
+                    requestProducer.onNext(UploadItem.newBuilder().setMessage(extern(message)).build());
+                    return;
+                }
+                synchronized (uploadDictionary) {
+                    int chatroomId = uploadDictionary.getId(message.chatroom);
+                    if (chatroomId < 0) {
+                        chatroomId = uploadDictionary.assign(message.chatroom);
+                        ChatroomRef ref = ChatroomRef.newBuilder().setId(chatroomId).setName(message.chatroom).build();
+                        requestProducer.onNext(UploadItem.newBuilder().setChatroomRef(ref).build());
+                    }
+                    requestProducer.onNext(UploadItem.newBuilder().setMessageV2(extern(message, chatroomId)).build());
+                }
             }
 
             @Override
@@ -221,6 +473,21 @@ public class RestMethod {
             public void onError(Throwable t) {
                 requestProducer.onError(t);
             }
+
+            @Override
+            public boolean isReady() {
+                return requestProducer.isReady();
+            }
+
+            @Override
+            public void setOnReadyHandler(Runnable handler) {
+                onReadyHandler.set(handler);
+            }
+
+            @Override
+            public void cancel(String message) {
+                requestProducer.cancel(message, null);
+            }
         };
     }
 
@@ -240,6 +507,13 @@ public class RestMethod {
                 .build();
     }
 
+    protected static edu.stevens.cs522.chat.web.grpc.ChatroomVersion extern(ChatroomVersion version) {
+        return edu.stevens.cs522.chat.web.grpc.ChatroomVersion.newBuilder()
+                .setChatroom(version.chatroom)
+                .setVersion(version.version)
+                .build();
+    }
+
     protected static Peer intern(edu.stevens.cs522.chat.web.grpc.Peer p) {
         Peer peer = new Peer();
         peer.name = p.getName();
@@ -286,6 +560,71 @@ public class RestMethod {
                 .build();
     }
 
+    /*
+     * Converters for the v2 wire encoding.
+     */
+
+    protected static Peer intern(PeerV2 p) {
+        Peer peer = new Peer();
+        peer.name = p.getName();
+        peer.timestamp = fromMicros(p.getTimestamp());
+        peer.longitude = p.getLongitude();
+        peer.latitude = p.getLatitude();
+        return peer;
+    }
+
+    protected static Message intern(MessageV2 p, ChatroomDictionary chatrooms) {
+        Message message = new Message();
+        message.id = p.getId();
+        message.chatroom = chatrooms.getName(p.getChatroomId());
+        message.messageText = p.getMessageText();
+        message.seqNum = p.getSeqNum();
+        message.appID = fromBytes(p.getAppID());
+        message.timestamp = fromMicros(p.getTimestamp());
+        message.longitude = p.getLongitude();
+        message.latitude = p.getLatitude();
+        message.sender = p.getSender();
+        return message;
+    }
+
+    protected static MessageV2 extern(Message message, int chatroomId) {
+        return MessageV2.newBuilder()
+                .setId(message.id)
+                .setChatroomId(chatroomId)
+                .setMessageText(message.messageText)
+                .setSeqNum(message.seqNum)
+                .setAppID(toBytes(message.appID))
+                .setTimestamp(toMicros(message.timestamp))
+                .setLongitude(message.longitude)
+                .setLatitude(message.latitude)
+                .setSender(message.sender)
+                .build();
+    }
+
+    protected static long toMicros(Instant timestamp) {
+        return Math.addExact(Math.multiplyExact(timestamp.getEpochSecond(), 1000000L), timestamp.getNano() / 1000);
+    }
+
+    protected static Instant fromMicros(long micros) {
+        return Instant.ofEpochSecond(Math.floorDiv(micros, 1000000L), Math.floorMod(micros, 1000000L) * 1000L);
+    }
+
+    protected static ByteString toBytes(UUID uuid) {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+        buffer.flip();
+        return ByteString.copyFrom(buffer);
+    }
+
+    protected static UUID fromBytes(ByteString bytes) {
+        if (bytes.size() != 16) {
+            throw new IllegalArgumentException("UUID must be 16 bytes: " + bytes.size());
+        }
+        ByteBuffer buffer = bytes.asReadOnlyByteBuffer();
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
     /**
      * Build and return a user-agent string that can identify this application to remote servers. Contains the package
      * name and version code.
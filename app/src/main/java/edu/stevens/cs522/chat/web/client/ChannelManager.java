@@ -0,0 +1,203 @@
+package edu.stevens.cs522.chat.web.client;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.android.AndroidChannelBuilder;
+
+/**
+ * Process-wide registry of gRPC channels, keyed by server address.
+ *
+ * A channel (and the HTTP/2 connection under it) is shared by every request made to the same
+ * server, so periodic syncs reuse a warm connection rather than opening a new one each time.
+ * Identity headers are not baked into the channel: they are added per call (see HeaderInterceptor).
+ * There is a channel for each server endpoint in use (see EndpointSelector).  When the endpoints
+ * change, channels to servers that were dropped are shut down gracefully, letting calls in
+ * progress complete.  Connection failures are reported to the endpoint selector.
+ *
+ * The registry counts channels, connections (transitions to READY) and reconnections, so we can
+ * confirm that we hold one connection per server rather than one per sync.
+ */
+public class ChannelManager {
+
+    private static final String TAG = ChannelManager.class.getCanonicalName();
+
+    /*
+     * Keepalive pings detect dead connections (e.g. after a network change).  Servers reject
+     * pings more frequent than their permitted keepalive time (five minutes by default).
+     */
+    public static final long KEEPALIVE_TIME = 5; // minutes
+
+    public static final long KEEPALIVE_TIMEOUT = 20; // seconds
+
+    /*
+     * Keep the connection open across (at least) a few periodic syncs.
+     */
+    public static final long IDLE_TIMEOUT = 5; // minutes
+
+    private static ChannelManager instance;
+
+    public static synchronized ChannelManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new ChannelManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final Context context;
+
+    private final Map<String, ManagedChannel> channels = new HashMap<>();
+
+    private long channelsCreated;
+
+    private long connects;
+
+    private long reconnects;
+
+    private ChannelManager(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Get the channel for a server, creating it if necessary.
+     */
+    public synchronized ManagedChannel getChannel(Uri serverUri) {
+        String key = getKey(serverUri);
+        ManagedChannel channel = channels.get(key);
+        if (channel == null || channel.isShutdown()) {
+            Log.d(TAG, "Creating channel for chat server " + key);
+            // https://github.com/grpc/grpc-java/blob/master/documentation/android-channel-builder.md
+            channel = AndroidChannelBuilder.forAddress(serverUri.getHost(), serverUri.getPort())
+                    .context(context)
+                    .usePlaintext()
+                    .keepAliveTime(KEEPALIVE_TIME, TimeUnit.MINUTES)
+                    .keepAliveTimeout(KEEPALIVE_TIMEOUT, TimeUnit.SECONDS)
+                    .keepAliveWithoutCalls(false)
+                    .idleTimeout(IDLE_TIMEOUT, TimeUnit.MINUTES)
+                    .compressorRegistry(CompressionInterceptor.COMPRESSORS)
+                    .decompressorRegistry(CompressionInterceptor.DECOMPRESSORS)
+                    .build();
+            channels.put(key, channel);
+            channelsCreated++;
+            monitor(key, channel, ConnectivityState.IDLE, false);
+        }
+        return channel;
+    }
+
+    /**
+     * Shut down all channels, e.g. when the app is unregistered.
+     */
+    public synchronized void shutdown() {
+        shutdownExcept(Collections.emptySet());
+    }
+
+    /**
+     * Shut down the channels to servers that are no longer endpoints.
+     */
+    public synchronized void retain(Collection<Uri> serverUris) {
+        Set<String> keys = new HashSet<>();
+        for (Uri serverUri : serverUris) {
+            keys.add(getKey(serverUri));
+        }
+        shutdownExcept(keys);
+    }
+
+    private void shutdownExcept(Set<String> keys) {
+        Iterator<Map.Entry<String, ManagedChannel>> entries = channels.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, ManagedChannel> entry = entries.next();
+            if (!keys.contains(entry.getKey())) {
+                Log.d(TAG, "Shutting down channel for chat server " + entry.getKey());
+                entry.getValue().shutdown();
+                entries.remove();
+            }
+        }
+    }
+
+    /*
+     * Follow the connectivity state of a channel, counting connections and reconnections.
+     */
+    private void monitor(String key, ManagedChannel channel, ConnectivityState previous, boolean connected) {
+        ConnectivityState state = channel.getState(false);
+        boolean wasConnected = connected;
+        if (state == ConnectivityState.READY && previous != ConnectivityState.READY) {
+            synchronized (this) {
+                connects++;
+                if (wasConnected) {
+                    reconnects++;
+                }
+            }
+            wasConnected = true;
+            Log.d(TAG, "Connected to chat server " + key);
+        }
+        onStateChanged(EndpointSelector.getInstance(context), key, previous, state);
+        if (state == ConnectivityState.SHUTDOWN) {
+            return;
+        }
+        final boolean everConnected = wasConnected;
+        channel.notifyWhenStateChanged(state, () -> monitor(key, channel, state, everConnected));
+    }
+
+    /**
+     * Tell the selector when the connection to a server starts or stops failing.  A channel
+     * leaves TRANSIENT_FAILURE for IDLE as well as READY (e.g. on a network change or the idle
+     * timeout), and an idle channel only connects again when a call is sent to it, so the
+     * endpoint is back in rotation as soon as the channel is out of TRANSIENT_FAILURE.  Backing
+     * off from an endpoint whose calls keep failing is left to its ejection (see EndpointSelector).
+     */
+    public static void onStateChanged(EndpointSelector selector, String key, ConnectivityState previous, ConnectivityState state) {
+        boolean failing = state == ConnectivityState.TRANSIENT_FAILURE;
+        if (failing != (previous == ConnectivityState.TRANSIENT_FAILURE)) {
+            Log.d(TAG, String.format("Connection to chat server %s is %s", key, failing ? "failing" : state));
+            selector.onConnectivity(key, failing);
+        }
+    }
+
+    public static String getKey(Uri serverUri) {
+        return serverUri.getHost() + ":" + serverUri.getPort();
+    }
+
+    /**
+     * Number of channels currently open (one per server).
+     */
+    public synchronized int getChannelCount() {
+        return channels.size();
+    }
+
+    public synchronized long getChannelsCreated() {
+        return channelsCreated;
+    }
+
+    /**
+     * Number of times a channel has established a connection to its server.
+     */
+    public synchronized long getConnectCount() {
+        return connects;
+    }
+
+    /**
+     * Number of times a channel has had to re-establish a connection it had before.
+     */
+    public synchronized long getReconnectCount() {
+        return reconnects;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("channels=%d (created %d), connects=%d, reconnects=%d",
+                channels.size(), channelsCreated, connects, reconnects);
+    }
+
+}
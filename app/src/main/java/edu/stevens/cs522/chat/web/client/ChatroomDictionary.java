@@ -0,0 +1,57 @@
+package edu.stevens.cs522.chat.web.client;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-stream dictionary of chatroom names for the v2 wire encoding.
+ *
+ * The sender assigns each chatroom a small id the first time a message refers to it, and
+ * sends the (id, name) pair ahead of that message.  The receiver records the pairs, and
+ * resolves the ids in the messages that follow.  A dictionary is used for one direction
+ * of one stream only.
+ */
+public class ChatroomDictionary {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    private final Map<Integer, String> names = new HashMap<>();
+
+    /**
+     * Sender: the id for a chatroom, or -1 if it has not been assigned one yet.
+     */
+    public synchronized int getId(String chatroom) {
+        Integer id = ids.get(chatroom);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Sender: assign the next id to a chatroom.
+     */
+    public synchronized int assign(String chatroom) {
+        int id = ids.size() + 1;
+        ids.put(chatroom, id);
+        names.put(id, chatroom);
+        return id;
+    }
+
+    /**
+     * Receiver: record an id sent by the other side.
+     */
+    public synchronized void put(int id, String chatroom) {
+        ids.put(chatroom, id);
+        names.put(id, chatroom);
+    }
+
+    /**
+     * Receiver: the chatroom for an id.
+     */
+    public synchronized String getName(int id) {
+        String chatroom = names.get(id);
+        if (chatroom == null) {
+            throw new IllegalStateException("Unknown chatroom id in stream: " + id);
+        }
+        return chatroom;
+    }
+
+}
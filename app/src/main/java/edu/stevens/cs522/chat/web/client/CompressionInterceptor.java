@@ -0,0 +1,164 @@
+package edu.stevens.cs522.chat.web.client;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.protobuf.MessageLite;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.stevens.cs522.chat.settings.Settings;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientStreamTracer;
+import io.grpc.CompressorRegistry;
+import io.grpc.DecompressorRegistry;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+
+/**
+ * Compresses the messages we send on a streaming call, and counts raw and compressed bytes.
+ *
+ * Compression is negotiated: the server lists the encodings it accepts in the
+ * grpc-accept-encoding response header, which we remember (in Settings) for later calls.
+ * A call is compressed with the configured encoding only if the server has said it accepts
+ * it.  Messages smaller than MIN_COMPRESSED_SIZE are sent uncompressed.  The server
+ * compresses its responses as it chooses, from the encodings in our decompressor registry.
+ */
+public class CompressionInterceptor implements ClientInterceptor {
+
+    private static final String TAG = CompressionInterceptor.class.getCanonicalName();
+
+    /*
+     * Each message is compressed separately, so small messages gain little or nothing (gzip
+     * alone adds 18 bytes of header and trailer).
+     */
+    public static final int MIN_COMPRESSED_SIZE = 512; // bytes
+
+    /*
+     * Registries for channels: gzip (built in) and deflate.
+     */
+    public static final CompressorRegistry COMPRESSORS = CompressorRegistry.newEmptyInstance();
+
+    public static final DecompressorRegistry DECOMPRESSORS =
+            DecompressorRegistry.getDefaultInstance().with(new DeflateCodec(), true);
+
+    static {
+        COMPRESSORS.register(new io.grpc.Codec.Gzip());
+        COMPRESSORS.register(new DeflateCodec());
+    }
+
+    private static final Metadata.Key<String> ACCEPT_ENCODING_KEY =
+            Metadata.Key.of("grpc-accept-encoding", Metadata.ASCII_STRING_MARSHALLER);
+
+    /*
+     * Byte counters for all calls.  Wire sizes are after compression.
+     */
+    private static final AtomicLong sentRaw = new AtomicLong();
+
+    private static final AtomicLong sentWire = new AtomicLong();
+
+    private static final AtomicLong receivedRaw = new AtomicLong();
+
+    private static final AtomicLong receivedWire = new AtomicLong();
+
+    private static final ClientStreamTracer.Factory TRACER_FACTORY = new ClientStreamTracer.Factory() {
+        @Override
+        public ClientStreamTracer newClientStreamTracer(ClientStreamTracer.StreamInfo info, Metadata headers) {
+            return new ClientStreamTracer() {
+                @Override
+                public void outboundUncompressedSize(long bytes) {
+                    sentRaw.addAndGet(bytes);
+                }
+
+                @Override
+                public void outboundWireSize(long bytes) {
+                    sentWire.addAndGet(bytes);
+                }
+
+                @Override
+                public void inboundUncompressedSize(long bytes) {
+                    receivedRaw.addAndGet(bytes);
+                }
+
+                @Override
+                public void inboundWireSize(long bytes) {
+                    receivedWire.addAndGet(bytes);
+                }
+            };
+        }
+    };
+
+    private final Context context;
+
+    /*
+     * The encoding for messages on this call, or null for no compression.
+     */
+    private final String compression;
+
+    public CompressionInterceptor(Context context) {
+        this.context = context;
+        String preferred = Settings.getCompression(context);
+        Set<String> accepted = Settings.getServerAcceptEncodings(context);
+        this.compression = (preferred != null && accepted.contains(preferred)) ? preferred : null;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+        CallOptions options = callOptions.withStreamTracerFactory(TRACER_FACTORY);
+        if (compression != null) {
+            options = options.withCompression(compression);
+        }
+        return new SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, options)) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                super.start(new SimpleForwardingClientCallListener<RespT>(responseListener) {
+                    @Override
+                    public void onHeaders(Metadata headers) {
+                        String accepted = headers.get(ACCEPT_ENCODING_KEY);
+                        if (accepted != null) {
+                            Settings.saveServerAcceptEncodings(context, accepted);
+                        }
+                        super.onHeaders(headers);
+                    }
+                }, headers);
+            }
+
+            @Override
+            public void sendMessage(ReqT message) {
+                if (compression != null) {
+                    setMessageCompression(!(message instanceof MessageLite)
+                            || ((MessageLite) message).getSerializedSize() >= MIN_COMPRESSED_SIZE);
+                }
+                super.sendMessage(message);
+            }
+        };
+    }
+
+    public static long getSentRaw() {
+        return sentRaw.get();
+    }
+
+    public static long getSentWire() {
+        return sentWire.get();
+    }
+
+    public static long getReceivedRaw() {
+        return receivedRaw.get();
+    }
+
+    public static long getReceivedWire() {
+        return receivedWire.get();
+    }
+
+    public static void logStats() {
+        Log.d(TAG, String.format("Sent %d bytes (%d on the wire), received %d bytes (%d on the wire)",
+                sentRaw.get(), sentWire.get(), receivedRaw.get(), receivedWire.get()));
+    }
+
+}
@@ -0,0 +1,39 @@
+package edu.stevens.cs522.chat.web.client;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import io.grpc.Codec;
+
+/**
+ * The "deflate" message encoding (zlib format), as an alternative to gzip without the gzip
+ * header and trailer on every message.  Registered with the compressor and decompressor
+ * registries for our channels (see CompressionInterceptor).
+ */
+public class DeflateCodec implements Codec {
+
+    public static final String ENCODING = "deflate";
+
+    @Override
+    public String getMessageEncoding() {
+        return ENCODING;
+    }
+
+    /*
+     * The streams create their own deflater and inflater (at the default compression level), so
+     * that closing the stream releases its native zlib memory rather than leaving it to the GC.
+     */
+
+    @Override
+    public OutputStream compress(OutputStream os) {
+        return new DeflaterOutputStream(os);
+    }
+
+    @Override
+    public InputStream decompress(InputStream is) {
+        return new InflaterInputStream(is);
+    }
+
+}
@@ -0,0 +1,271 @@
+package edu.stevens.cs522.chat.web.client;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import edu.stevens.cs522.chat.settings.Settings;
+import io.grpc.Status;
+
+/**
+ * Client-side load balancing over the chat server endpoints in settings.
+ *
+ * Each call picks an endpoint by policy, from the endpoints that are healthy:
+ * PICK_FIRST takes the first in the configured order, ROUND_ROBIN takes turns, and
+ * LEAST_LATENCY takes the one with the lowest smoothed round-trip time for a sync (an
+ * endpoint that has not been measured yet is tried first, and every PROBE_INTERVAL calls
+ * go round-robin so that the measurements stay current).
+ *
+ * Health is checked passively: a call that fails for a reason other than the request itself
+ * ejects its endpoint, for BASE_EJECTION doubling with each failure in a row up to
+ * MAX_EJECTION.  An endpoint is also skipped while its channel's connection is failing
+ * (see ChannelManager).  The next call, e.g. a retry, goes to another endpoint.  If every
+ * endpoint is ejected, the one that comes back soonest is used.
+ */
+public class EndpointSelector {
+
+    private static final String TAG = EndpointSelector.class.getCanonicalName();
+
+    public enum Policy {
+        PICK_FIRST,
+        ROUND_ROBIN,
+        LEAST_LATENCY
+    }
+
+    /*
+     * Weight of a new round-trip time in the smoothed average.
+     */
+    public static final double RTT_WEIGHT = 0.3;
+
+    public static final int PROBE_INTERVAL = 20;
+
+    public static final long BASE_EJECTION = TimeUnit.SECONDS.toMillis(5);
+
+    public static final long MAX_EJECTION = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * A chat server endpoint, with what we have observed of it.
+     */
+    public static class Endpoint {
+
+        public final Uri uri;
+
+        private final String key;
+
+        private double rtt = Double.NaN;
+
+        private int failures;
+
+        private long ejectedUntil;
+
+        private boolean connectionFailing;
+
+        private long calls;
+
+        private long failed;
+
+        private Endpoint(Uri uri) {
+            this.uri = uri;
+            this.key = uri != null ? ChannelManager.getKey(uri) : "none";
+        }
+
+        private boolean isHealthy(long now) {
+            return now >= ejectedUntil && !connectionFailing;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: rtt=%.0fms calls=%d failed=%d%s", key, rtt, calls, failed, failures > 0 ? " (ejected)" : "");
+        }
+    }
+
+    private static EndpointSelector instance;
+
+    /*
+     * The endpoints are read from settings each time, as the user may change them.
+     */
+    public static synchronized EndpointSelector getInstance(Context context) {
+        List<Uri> uris = Settings.getServerUris(context);
+        Policy policy = Settings.getLoadBalancing(context);
+        if (instance == null) {
+            instance = new EndpointSelector(uris, policy);
+        } else if (instance.setEndpoints(uris, policy)) {
+            ChannelManager.getInstance(context).retain(uris);
+        }
+        return instance;
+    }
+
+    /*
+     * Until we have registered, there is no server (the caller supplies its own channel).
+     */
+    private final Endpoint none = new Endpoint(null);
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+
+    private Policy policy;
+
+    private int next;
+
+    private long selections;
+
+    public EndpointSelector(List<Uri> uris, Policy policy) {
+        setEndpoints(uris, policy);
+    }
+
+    /**
+     * Returns true if the endpoints have changed.  Endpoints that are kept keep their history.
+     */
+    public synchronized boolean setEndpoints(List<Uri> uris, Policy policy) {
+        this.policy = policy;
+        List<String> keys = new ArrayList<>();
+        for (Uri uri : uris) {
+            keys.add(ChannelManager.getKey(uri));
+        }
+        List<String> current = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            current.add(endpoint.key);
+        }
+        if (keys.equals(current)) {
+            return false;
+        }
+
+        Map<String, Endpoint> previous = new HashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            previous.put(endpoint.key, endpoint);
+        }
+        endpoints.clear();
+        for (Uri uri : uris) {
+            Endpoint endpoint = previous.get(ChannelManager.getKey(uri));
+            endpoints.add(endpoint != null ? endpoint : new Endpoint(uri));
+        }
+        Log.d(TAG, "Chat server endpoints: " + keys);
+        return true;
+    }
+
+    /**
+     * The endpoint for the next call.
+     */
+    public synchronized Endpoint select(long now) {
+        if (endpoints.isEmpty()) {
+            return none;
+        }
+        List<Endpoint> healthy = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isHealthy(now)) {
+                healthy.add(endpoint);
+            }
+        }
+
+        Endpoint selected;
+        if (healthy.isEmpty()) {
+            selected = endpoints.get(0);
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint.ejectedUntil < selected.ejectedUntil) {
+                    selected = endpoint;
+                }
+            }
+        } else if (policy == Policy.PICK_FIRST) {
+            selected = healthy.get(0);
+        } else if (policy == Policy.ROUND_ROBIN || ++selections % PROBE_INTERVAL == 0) {
+            selected = healthy.get(next++ % healthy.size());
+        } else {
+            selected = null;
+            for (Endpoint endpoint : healthy) {
+                if (Double.isNaN(endpoint.rtt)) {
+                    selected = endpoint;
+                    break;
+                }
+                if (selected == null || endpoint.rtt < selected.rtt) {
+                    selected = endpoint;
+                }
+            }
+        }
+        selected.calls++;
+        return selected;
+    }
+
+    /**
+     * A call to the endpoint succeeded.  rtt is the round-trip time in milliseconds, or
+     * negative if it was not measured.
+     */
+    public synchronized void onSuccess(Endpoint endpoint, long rtt) {
+        endpoint.failures = 0;
+        endpoint.ejectedUntil = 0;
+        if (rtt >= 0) {
+            onLatency(endpoint, rtt);
+        }
+    }
+
+    /**
+     * An observed round-trip time for the endpoint, in milliseconds (or a lower bound on it,
+     * if the call failed before the server responded).
+     */
+    public synchronized void onLatency(Endpoint endpoint, long rtt) {
+        endpoint.rtt = Double.isNaN(endpoint.rtt) ? rtt : (1 - RTT_WEIGHT) * endpoint.rtt + RTT_WEIGHT * rtt;
+    }
+
+    /**
+     * A call to the endpoint failed with this status code.  Calls that we cancelled, and
+     * requests that the server refused, say nothing about the health of the endpoint.
+     */
+    public synchronized void onFailure(Endpoint endpoint, int code, long now) {
+        if (code == Status.Code.CANCELLED.value() || RetryEngine.classify(code) == RetryEngine.Failure.FATAL) {
+            return;
+        }
+        endpoint.failed++;
+        endpoint.failures++;
+        long ejection = Math.min(MAX_EJECTION, BASE_EJECTION << Math.min(endpoint.failures - 1, 16));
+        endpoint.ejectedUntil = now + ejection;
+        Log.d(TAG, String.format("Ejecting %s for %d ms", endpoint.key, ejection));
+    }
+
+    /**
+     * The connection to a server is failing, or has recovered (see ChannelManager).
+     */
+    public synchronized void onConnectivity(String key, boolean failing) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.key.equals(key)) {
+                endpoint.connectionFailing = failing;
+            }
+        }
+    }
+
+    /**
+     * True if a call could go to a healthy endpoint now.
+     */
+    public synchronized boolean hasHealthy(long now) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isHealthy(now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        return endpoints.size();
+    }
+
+    public synchronized List<Endpoint> getEndpoints() {
+        return new ArrayList<>(endpoints);
+    }
+
+    /**
+     * Number of calls that have been sent to the endpoint.
+     */
+    public synchronized long getCalls(Endpoint endpoint) {
+        return endpoint.calls;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return policy + " " + endpoints;
+    }
+
+}
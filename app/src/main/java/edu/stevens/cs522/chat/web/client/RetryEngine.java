@@ -0,0 +1,210 @@
+package edu.stevens.cs522.chat.web.client;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+/**
+ * Decides when to call the server again after a call has failed.
+ *
+ * Failures are classified by status code: transient failures are retried, throttling by the
+ * server is retried after at least THROTTLE_DELAY, and fatal failures (the server answered,
+ * but will not accept the request as it is) are not retried early at all.  Retries back off
+ * exponentially with decorrelated jitter: each delay is random, between the base delay and
+ * three times the previous delay, up to the maximum.  Clients that failed together (e.g. in
+ * a server outage) so spread out, rather than coming back in a herd.  If the server sends
+ * retry pushback (PUSHBACK_KEY), we wait at least that long.
+ *
+ * After FAILURE_THRESHOLD failures in a row, the circuit opens: no calls are attempted until
+ * the retry delay has passed.  Then one trial call is let through (half open), which closes
+ * the circuit if it succeeds and opens it again if it fails.
+ *
+ * Times are in milliseconds, from any monotonic clock.
+ */
+public class RetryEngine {
+
+    public enum Failure {
+        RETRYABLE,
+        THROTTLED,
+        FATAL
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /*
+     * Retry pushback from the server, in milliseconds (a negative value means do not retry).
+     */
+    public static final Metadata.Key<String> PUSHBACK_KEY = Metadata.Key.of("grpc-retry-pushback-ms", Metadata.ASCII_STRING_MARSHALLER);
+
+    public static final long BASE_DELAY = TimeUnit.SECONDS.toMillis(1);
+
+    public static final long MAX_DELAY = TimeUnit.MINUTES.toMillis(5);
+
+    public static final long THROTTLE_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    public static final int FAILURE_THRESHOLD = 3;
+
+    /**
+     * Returned by onFailure if the call should not be retried early.
+     */
+    public static final long NO_RETRY = -1;
+
+    public static final long NO_PUSHBACK = -1;
+
+    private final Random random;
+
+    private final long baseDelay;
+
+    private final long maxDelay;
+
+    private State state = State.CLOSED;
+
+    private int failures;
+
+    private long delay;
+
+    private long openUntil;
+
+    private boolean trial;
+
+    private long opened;
+
+    private long rejected;
+
+    public RetryEngine(Random random) {
+        this(random, BASE_DELAY, MAX_DELAY);
+    }
+
+    public RetryEngine(Random random, long baseDelay, long maxDelay) {
+        this.random = random;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.delay = baseDelay;
+    }
+
+    public static Failure classify(int code) {
+        switch (Status.fromCodeValue(code).getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case ABORTED:
+            case INTERNAL:
+            case UNKNOWN:
+            case CANCELLED:
+                return Failure.RETRYABLE;
+            case RESOURCE_EXHAUSTED:
+                return Failure.THROTTLED;
+            default:
+                return Failure.FATAL;
+        }
+    }
+
+    /**
+     * Retry pushback in the trailers of a failed call, in milliseconds, or NO_PUSHBACK if there
+     * is none.  "Do not retry" is taken as the maximum delay.
+     */
+    public static long getPushback(Metadata trailers) {
+        if (trailers == null) {
+            return NO_PUSHBACK;
+        }
+        String value = trailers.get(PUSHBACK_KEY);
+        if (value == null) {
+            return NO_PUSHBACK;
+        }
+        try {
+            long pushback = Long.parseLong(value.trim());
+            return pushback < 0 ? MAX_DELAY : pushback;
+        } catch (NumberFormatException e) {
+            return MAX_DELAY;
+        }
+    }
+
+    /**
+     * May we call the server now?  While the circuit is open, no; once the retry delay
+     * has passed, one trial call is allowed.
+     */
+    public synchronized boolean allowAttempt(long now) {
+        switch (state) {
+            case OPEN:
+                if (now < openUntil) {
+                    rejected++;
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trial = true;
+                return true;
+            case HALF_OPEN:
+                if (trial) {
+                    rejected++;
+                    return false;
+                }
+                trial = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        delay = baseDelay;
+        trial = false;
+    }
+
+    /**
+     * A call has failed with this status code (and the server's retry pushback, or NO_PUSHBACK).
+     * Returns how long to wait before the next call, or NO_RETRY if the failure is fatal.
+     */
+    public synchronized long onFailure(int code, long pushback, long now) {
+        Failure failure = classify(code);
+        trial = false;
+        if (failure == Failure.FATAL) {
+            // The server is up, it just will not take this request
+            state = State.CLOSED;
+            failures = 0;
+            return NO_RETRY;
+        }
+
+        long lower = failure == Failure.THROTTLED ? Math.max(baseDelay, THROTTLE_DELAY) : baseDelay;
+        long upper = Math.max(lower, Math.min(maxDelay, 3 * delay));
+        delay = lower + (long) (random.nextDouble() * (upper - lower));
+        long wait = Math.max(delay, pushback);
+
+        failures++;
+        if (state == State.HALF_OPEN || failures >= FAILURE_THRESHOLD) {
+            if (state != State.OPEN) {
+                opened++;
+            }
+            state = State.OPEN;
+            openUntil = now + wait;
+        }
+        return wait;
+    }
+
+    /**
+     * How long until a call may be attempted, in milliseconds (0 if it may be attempted now).
+     */
+    public synchronized long getRetryDelay(long now) {
+        return state == State.OPEN ? Math.max(0, openUntil - now) : 0;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("circuit %s, %d failures in a row, opened %d times, %d calls rejected", state, failures, opened, rejected);
+    }
+
+}
@@ -4,6 +4,7 @@ import android.os.Parcel;
 import android.os.Parcelable;
 
 import edu.stevens.cs522.base.EnumUtils;
+import edu.stevens.cs522.chat.web.client.RetryEngine;
 
 /**
  * Created by dduggan.
@@ -17,6 +18,9 @@ public class ErrorResponse extends ChatServiceResponse implements Parcelable {
 
     public String errorMessage;
 
+    // Retry pushback from the server, in milliseconds (see RetryEngine)
+    public long retryPushback = RetryEngine.NO_PUSHBACK;
+
     public boolean isValid() {
         return false;
     }
@@ -30,6 +34,7 @@ public class ErrorResponse extends ChatServiceResponse implements Parcelable {
         out.writeInt(responseCode);
         out.writeString(responseMessage);
         out.writeString(errorMessage);
+        out.writeLong(retryPushback);
     }
 
     public ErrorResponse(Parcel in) {
@@ -37,6 +42,7 @@ public class ErrorResponse extends ChatServiceResponse implements Parcelable {
         responseCode = in.readInt();
         responseMessage = in.readString();
         errorMessage = in.readString();
+        retryPushback = in.readLong();
     }
 
     public static final Parcelable.Creator<ErrorResponse> CREATOR = new Parcelable.Creator<ErrorResponse>() {
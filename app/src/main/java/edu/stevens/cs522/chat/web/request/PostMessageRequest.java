@@ -3,21 +3,21 @@ package edu.stevens.cs522.chat.web.request;
 import android.os.Parcel;
 
 import edu.stevens.cs522.base.EnumUtils;
-import edu.stevens.cs522.chat.entities.Message;
 import edu.stevens.cs522.chat.web.RequestProcessor;
-import edu.stevens.cs522.chat.util.ParcelableUtil;
 
 /**
  * Created by dduggan.
+ *
+ * Upload messages that have already been stored (see MessageSender), identified by their ids.
  */
 
 public class PostMessageRequest extends ChatServiceRequest {
 
-    public Message message;
+    public long[] messageIds;
 
-    public PostMessageRequest(Message message) {
+    public PostMessageRequest(long[] messageIds) {
         super();
-        this.message = message;
+        this.messageIds = messageIds;
     }
 
     @Override
@@ -42,13 +42,13 @@ public class PostMessageRequest extends ChatServiceRequest {
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         EnumUtils.writeEnum(dest, RequestType.POST_MESSAGE);
-        dest.writeByteArray(ParcelableUtil.marshall(this.message));
+        super.writeToParcel(dest, flags);
+        dest.writeLongArray(messageIds);
     }
 
     public PostMessageRequest(Parcel in) {
         super(in);
-        // message = in.readParcelable(Message.class.getClassLoader());
-        this.message = ParcelableUtil.unmarshall(in.createByteArray(), Message.CREATOR);
+        this.messageIds = in.createLongArray();
     }
 
     public static Creator<PostMessageRequest> CREATOR = new Creator<PostMessageRequest>() {
@@ -0,0 +1,221 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.util.Log;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.stevens.cs522.chat.databases.DatabaseExecutors;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.web.RestMethod.DownloadObserver;
+import edu.stevens.cs522.chat.web.RestMethod.FlowControl;
+import edu.stevens.cs522.chat.web.RestMethod.FlowControlledObserver;
+
+/**
+ * Hands downloaded items from the gRPC callback thread to the database writer, the background
+ * lane of DatabaseExecutors, which runs one task at a time behind any reads for the UI.
+ *
+ * The gRPC thread only decodes an item and adds it to a lock-free queue, so it is never
+ * blocked by a database commit, and decoding the next items overlaps with committing the
+ * previous ones.  The queue is bounded by manual flow control: the server may only send
+ * capacity items ahead of the writer, and more are requested as the writer applies them.
+ * If the writer falls behind, the server is throttled rather than the queue growing.
+ *
+ * All callbacks on the underlying observer (including completion or error, which are
+ * queued behind the items) are made on the writer thread, in the order received.  The
+ * writer is given up after each chunk that a DownloadApplier commits.
+ */
+public class ApplyQueue implements FlowControlledObserver, Executor {
+
+    private static final String TAG = ApplyQueue.class.getCanonicalName();
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final DownloadObserver observer;
+
+    private final Executor writer;
+
+    private final int capacity;
+
+    /*
+     * Return credit to the server in batches, rather than one request per item.
+     */
+    private final int batch;
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    private volatile FlowControl flowControl;
+
+    /*
+     * Only accessed on the writer thread.
+     */
+    private int credit;
+
+    private boolean failed;
+
+    public ApplyQueue(DownloadObserver observer) {
+        this(observer, DatabaseExecutors.getInstance().getBackground(), DEFAULT_CAPACITY);
+    }
+
+    public ApplyQueue(DownloadObserver observer, Executor writer, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.observer = observer;
+        this.writer = writer;
+        this.capacity = capacity;
+        this.batch = Math.max(1, capacity / 2);
+    }
+
+    @Override
+    public int getInitialRequests() {
+        return capacity;
+    }
+
+    @Override
+    public void setFlowControl(FlowControl flowControl) {
+        this.flowControl = flowControl;
+    }
+
+    @Override
+    public void onChatroom(Chatroom chatroom) {
+        enqueue(() -> {
+            observer.onChatroom(chatroom);
+            applied();
+        });
+    }
+
+    @Override
+    public void onPeer(Peer peer) {
+        enqueue(() -> {
+            observer.onPeer(peer);
+            applied();
+        });
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        enqueue(() -> {
+            observer.onMessage(message);
+            applied();
+        });
+    }
+
+    @Override
+    public void onCompleted() {
+        enqueue(() -> {
+            Log.d(TAG, "Download applied, maximum queue depth " + maxDepth.get());
+            observer.onCompleted();
+        });
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        enqueue(() -> observer.onError(t));
+    }
+
+    /**
+     * Run a task on the writer thread, behind the items already queued (e.g. a timed flush).
+     */
+    @Override
+    public void execute(Runnable task) {
+        enqueue(task);
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    private void enqueue(Runnable task) {
+        queue.add(task);
+        int current = depth.incrementAndGet();
+        maxDepth.accumulateAndGet(current, Math::max);
+        if (draining.compareAndSet(false, true)) {
+            writer.execute(this::drain);
+        }
+    }
+
+    /*
+     * Runs on the writer thread.  Only one drain is scheduled at a time.  Once a chunk has been
+     * committed, the drain gives up the writer and carries on behind whatever was waiting for it
+     * (e.g. draining the message change log), so a long catch-up does not hold up other writes
+     * or change notifications until it has all been applied.
+     */
+    private void drain() {
+        long chunks = getChunksApplied();
+        do {
+            boolean yielded = false;
+            try {
+                Runnable task;
+                while ((task = queue.poll()) != null) {
+                    depth.decrementAndGet();
+                    run(task);
+                    if (getChunksApplied() != chunks && !queue.isEmpty()) {
+                        writer.execute(this::drain);
+                        yielded = true;
+                        return;
+                    }
+                }
+            } finally {
+                if (!yielded) {
+                    draining.set(false);
+                }
+            }
+            // An item may have been added after the queue was found empty but before the flag was cleared.
+        } while (!queue.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private long getChunksApplied() {
+        return observer instanceof DownloadApplier ? ((DownloadApplier) observer).getChunksApplied() : 0;
+    }
+
+    private void run(Runnable task) {
+        if (failed) {
+            return;
+        }
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            /*
+             * Could not apply a download: abandon the call, and drop anything queued behind it.
+             */
+            Log.e(TAG, "Exception while applying download, cancelling the call.", e);
+            failed = true;
+            FlowControl control = flowControl;
+            if (control != null) {
+                control.cancel("Failed to apply download", e);
+            }
+            try {
+                observer.onError(e);
+            } catch (RuntimeException onError) {
+                Log.e(TAG, "Exception while reporting a failed download.", onError);
+            }
+        }
+    }
+
+    /*
+     * An item has been applied, request more from the server once a batch has been applied.
+     */
+    private void applied() {
+        credit++;
+        if (credit >= batch) {
+            FlowControl control = flowControl;
+            if (control != null) {
+                control.request(credit);
+            }
+            credit = 0;
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.web.RestMethod.DownloadObserver;
+
+/**
+ * Applies the items that the server streams down during a sync to the local database.
+ *
+ * Rather than committing every chatroom, peer and message as its own transaction, items are
+ * buffered and committed in chunks, bounded by the number of items and by the time since the
+ * first item of the chunk arrived.  The sequence number counter is advanced once per chunk,
+ * in the same transaction as the messages, so a broken connection never leaves the counter
+ * ahead of (or behind) what has actually been stored.
+ */
+public class DownloadApplier implements DownloadObserver {
+
+    private static final String TAG = DownloadApplier.class.getCanonicalName();
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    public static final long DEFAULT_CHUNK_DELAY = 250; // milliseconds
+
+    private final ChatDatabase chatDatabase;
+
+    private final UUID appID;
+
+    private final int chunkSize;
+
+    private final long chunkDelay;
+
+    /*
+     * The current chunk.  Chatrooms and peers are applied before messages, since a message
+     * references its sender through a foreign key.  A peer may be reported more than once,
+     * only the latest metadata needs to be written.
+     */
+    private final List<Chatroom> chatrooms = new ArrayList<>();
+
+    private final Map<String, Peer> peers = new LinkedHashMap<>();
+
+    private final List<Message> messages = new ArrayList<>();
+
+    private int buffered;
+
+    private long chunkStarted;
+
+    /*
+     * Statistics for this download.
+     */
+    private long itemsApplied;
+
+    private long chunksApplied;
+
+    public DownloadApplier(ChatDatabase chatDatabase, UUID appID) {
+        this(chatDatabase, appID, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_DELAY);
+    }
+
+    public DownloadApplier(ChatDatabase chatDatabase, UUID appID, int chunkSize, long chunkDelay) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.chatDatabase = chatDatabase;
+        this.appID = appID;
+        this.chunkSize = chunkSize;
+        this.chunkDelay = chunkDelay;
+    }
+
+    @Override
+    public synchronized void onChatroom(Chatroom chatroom) {
+        chatrooms.add(chatroom);
+        buffered();
+    }
+
+    @Override
+    public synchronized void onPeer(Peer peer) {
+        peers.put(peer.name, peer);
+        buffered();
+    }
+
+    @Override
+    public synchronized void onMessage(Message message) {
+        messages.add(message);
+        buffered();
+    }
+
+    /**
+     * The server has finished the download, commit whatever is left in the current chunk.
+     */
+    @Override
+    public void onCompleted() {
+        flush();
+    }
+
+    /**
+     * The download was terminated.  Everything received up to this point was sequenced
+     * by the server, so it is still safe to commit.
+     */
+    @Override
+    public void onError(Throwable t) {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Already discarded: a sync after this one downloads it again
+            Log.e(TAG, "Could not commit the last chunk of a failed download.", e);
+        }
+    }
+
+    private void buffered() {
+        buffered++;
+        long now = SystemClock.elapsedRealtime();
+        if (buffered == 1) {
+            chunkStarted = now;
+        }
+        if (buffered >= chunkSize || now - chunkStarted >= chunkDelay) {
+            flush();
+        }
+    }
+
+    /**
+     * Commit the current chunk in a single transaction.
+     */
+    public synchronized void flush() {
+        if (buffered == 0) {
+            return;
+        }
+
+        try {
+            chatDatabase.runInTransaction(this::apply);
+        } catch (RuntimeException e) {
+            // Peers upserted in the chunk were rolled back, so the peer cache no longer matches
+            chatDatabase.peerDao().getCache().invalidate();
+            // Do not try the same chunk again (e.g. on error): the watermark was not advanced
+            discard();
+            throw e;
+        }
+
+        itemsApplied += buffered;
+        chunksApplied++;
+        Log.d(TAG, String.format("Committed %d downloaded items (%d messages).", buffered, messages.size()));
+        Log.d(TAG, "Peer cache: " + chatDatabase.peerDao().getCache());
+
+        discard();
+    }
+
+    private void discard() {
+        chatrooms.clear();
+        peers.clear();
+        messages.clear();
+        buffered = 0;
+    }
+
+    private void apply() {
+        for (Chatroom chatroom : chatrooms) {
+            chatDatabase.chatroomDao().insert(chatroom);
+        }
+        for (Peer peer : peers.values()) {
+            chatDatabase.peerDao().upsert(peer);
+        }
+        long lastSequenceNumber = 0;
+        for (Message message : messages) {
+            // May be one of our own messages, with the sequence number set by the server
+            chatDatabase.requestDao().upsert(appID, message);
+            lastSequenceNumber = Math.max(lastSequenceNumber, message.seqNum);
+        }
+        if (lastSequenceNumber > 0) {
+            chatDatabase.requestDao().updateLastSequenceNumber(lastSequenceNumber);
+        }
+    }
+
+    public synchronized long getItemsApplied() {
+        return itemsApplied;
+    }
+
+    public synchronized long getChunksApplied() {
+        return chunksApplied;
+    }
+
+}
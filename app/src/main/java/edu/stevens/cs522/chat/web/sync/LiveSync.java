@@ -0,0 +1,404 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.ChatroomVersion;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.location.CurrentLocation;
+import edu.stevens.cs522.chat.settings.Settings;
+import edu.stevens.cs522.chat.web.RestMethod;
+import edu.stevens.cs522.chat.web.RestMethod.UploadObserver;
+import edu.stevens.cs522.chat.web.client.RetryEngine;
+import edu.stevens.cs522.chat.web.request.ErrorResponse;
+import edu.stevens.cs522.chat.web.request.SynchronizeRequest;
+import io.grpc.Status;
+
+/**
+ * Keeps a subscription stream open with the server while the app is in the foreground.
+ *
+ * The stream starts like a sync: we send our sequence number watermark, our chatrooms and
+ * the backlog of unsent messages, and the server sends what we have missed.  After that the
+ * stream stays open: the server pushes messages as they are sequenced, and messages posted
+ * on this device are uploaded as soon as they are stored.  Downloads are applied on the
+ * database writer thread (see ApplyQueue) in small chunks, flushed after at most FLUSH_DELAY,
+ * so they show up without waiting for a sync.
+ *
+ * A device that has not downloaded anything yet first loads a snapshot (see SnapshotLoader).
+ *
+ * If the stream is closed by the server or the network, we reconnect when the retry engine
+ * says (jittered exponential backoff, see RetryEngine), resuming from the watermark in the
+ * Counter table.  Periodic sync is skipped while the stream is connected (see
+ * RequestProcessor).
+ */
+public class LiveSync {
+
+    private static final String TAG = LiveSync.class.getCanonicalName();
+
+    /*
+     * Maximum time that a pushed item waits before it is committed.
+     */
+    public static final long FLUSH_DELAY = 50; // milliseconds
+
+    public static final long INITIAL_BACKOFF = 1; // seconds
+
+    public static final long MAX_BACKOFF = 60; // seconds
+
+    private static LiveSync instance;
+
+    public static synchronized LiveSync getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            instance = new LiveSync(appContext, new RestMethod(appContext), ChatDatabase.getInstance(appContext));
+        }
+        return instance;
+    }
+
+    private final Context context;
+
+    private final RestMethod restMethod;
+
+    private final ChatDatabase chatDatabase;
+
+    private final CurrentLocation location;
+
+    private final SnapshotLoader snapshotLoader;
+
+    /*
+     * Connects, reconnects and schedules flushes of downloads, off the main thread.
+     */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    private boolean running;
+
+    private Subscription current;
+
+    private ScheduledFuture<?> reconnect;
+
+    private final RetryEngine retryEngine = new RetryEngine(new Random(),
+            TimeUnit.SECONDS.toMillis(INITIAL_BACKOFF), TimeUnit.SECONDS.toMillis(MAX_BACKOFF));
+
+    private long connects;
+
+    public LiveSync(Context context, RestMethod restMethod, ChatDatabase chatDatabase) {
+        this.context = context;
+        this.restMethod = restMethod;
+        this.chatDatabase = chatDatabase;
+        this.location = new CurrentLocation(context);
+        this.snapshotLoader = new SnapshotLoader(context, restMethod, chatDatabase);
+    }
+
+    /**
+     * Open the subscription stream (e.g. when the app comes to the foreground).
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        Log.d(TAG, "Starting live sync with chat server.");
+        running = true;
+        retryEngine.onSuccess();
+        executor.execute(this::connect);
+    }
+
+    /**
+     * Close the subscription stream (e.g. when the app goes to the background).
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        Log.d(TAG, "Stopping live sync with chat server.");
+        running = false;
+        if (reconnect != null) {
+            reconnect.cancel(false);
+            reconnect = null;
+        }
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    /**
+     * The chatrooms we follow have changed: reopen the stream so the server knows.
+     */
+    public synchronized void resubscribe() {
+        if (!running || current == null) {
+            return;
+        }
+        Log.d(TAG, "Chatroom subscriptions changed, reopening live sync.");
+        current.close();
+        current = null;
+        if (reconnect == null) {
+            executor.execute(this::connect);
+        }
+    }
+
+    /**
+     * True if the stream is open and the initial exchange has completed, so that new
+     * messages are being pushed in both directions.
+     */
+    public synchronized boolean isLive() {
+        return current != null && current.isLive();
+    }
+
+    /**
+     * A message has been posted (and stored) on this device: upload it now if we can.
+     * Otherwise it is uploaded with the backlog when the stream (or a sync) next starts.
+     */
+    public void post(Message message) {
+        Subscription subscription;
+        synchronized (this) {
+            subscription = current;
+        }
+        if (subscription != null) {
+            subscription.post(message);
+        }
+    }
+
+    public synchronized long getConnects() {
+        return connects;
+    }
+
+    private void connect() {
+        synchronized (this) {
+            reconnect = null;
+            if (!running || current != null) {
+                return;
+            }
+            if (!Settings.isRegistered(context)) {
+                Log.d(TAG, "Live sync before registration will be skipped...");
+                return;
+            }
+        }
+
+        SynchronizeRequest request = new SynchronizeRequest();
+        request.appId = Settings.getAppId(context);
+        request.chatName = Settings.getChatName(context);
+        request.latitude = location.getLatitude();
+        request.longitude = location.getLongitude();
+
+        /*
+         * A new device loads a snapshot of the server, rather than the history on the stream.
+         */
+        snapshotLoader.bootstrap(request, request.appId);
+
+        Subscription subscription;
+        synchronized (this) {
+            if (!running || current != null) {
+                return;
+            }
+            connects++;
+            subscription = current = new Subscription(request.appId);
+        }
+
+        try {
+            subscription.open(request);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Exception while opening subscription to chat server!", e);
+            subscription.close();
+            disconnected(subscription, e);
+        }
+    }
+
+    /*
+     * The stream has been closed (by the server, the network or an error): reconnect if still running.
+     * A stream that the server closed cleanly counts as unavailable.  If the server refuses the
+     * stream outright, we wait the longest backoff before trying again.
+     */
+    private synchronized void disconnected(Subscription subscription, Throwable t) {
+        if (current != subscription) {
+            return;
+        }
+        current = null;
+        if (running) {
+            long delay;
+            if (t != null) {
+                ErrorResponse error = RestMethod.getErrorResponse(t);
+                delay = retryEngine.onFailure(error.responseCode, error.retryPushback, SystemClock.elapsedRealtime());
+            } else {
+                delay = retryEngine.onFailure(Status.Code.UNAVAILABLE.value(), RetryEngine.NO_PUSHBACK, SystemClock.elapsedRealtime());
+            }
+            if (delay == RetryEngine.NO_RETRY) {
+                delay = TimeUnit.SECONDS.toMillis(MAX_BACKOFF);
+            }
+            Log.d(TAG, String.format("Reconnecting to chat server in %d ms (%s).", delay, retryEngine));
+            reconnect = executor.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void resetBackoff() {
+        retryEngine.onSuccess();
+    }
+
+    /*
+     * One subscription stream: applies downloads, and uploads messages once it is live.
+     */
+    private class Subscription extends DownloadApplier {
+
+        private final Object sendLock = new Object();
+
+        private UploadObserver uploader;
+
+        private ApplyQueue applyQueue;
+
+        private boolean live;
+
+        private boolean received;
+
+        private long lastSentId;
+
+        private ScheduledFuture<?> pendingFlush;
+
+        Subscription(UUID appID) {
+            super(chatDatabase, appID, DEFAULT_CHUNK_SIZE, FLUSH_DELAY);
+        }
+
+        void open(SynchronizeRequest request) {
+            applyQueue = new ApplyQueue(this);
+            uploader = restMethod.subscribe(request, applyQueue);
+
+            List<ChatroomVersion> subscriptions = chatDatabase.requestDao().getChatroomVersions(Settings.getSubscribedChatrooms(context));
+            uploader.onSync(chatDatabase.requestDao().getLastSequenceNumber(), subscriptions, request.longitude, request.latitude);
+
+            final List<Chatroom> chatrooms = chatDatabase.chatroomDao().getAllChatrooms();
+            for (Chatroom chatroom : chatrooms) {
+                uploader.onChatroom(chatroom);
+            }
+
+            /*
+             * Upload the backlog with flow control, then switch to uploading messages as they are posted.
+             */
+            new MessageUploader(chatDatabase.requestDao(), uploader) {
+                @Override
+                protected void onFinished() {
+                    goLive(getLastId());
+                }
+            }.start();
+        }
+
+        private void goLive(long lastId) {
+            synchronized (sendLock) {
+                lastSentId = lastId;
+                live = true;
+                /*
+                 * Messages posted after the uploader read its last page.
+                 */
+                for (Message message : chatDatabase.requestDao().getUnsentMessages(lastId, Integer.MAX_VALUE)) {
+                    send(message);
+                }
+            }
+            Log.i(TAG, "Live sync with chat server is connected.");
+        }
+
+        void post(Message message) {
+            synchronized (sendLock) {
+                if (live) {
+                    send(message);
+                }
+            }
+        }
+
+        private void send(Message message) {
+            // Messages are sent in order of primary key, and only once.
+            if (message.id > lastSentId) {
+                uploader.onMessage(message);
+                lastSentId = message.id;
+            }
+        }
+
+        boolean isLive() {
+            synchronized (sendLock) {
+                return live;
+            }
+        }
+
+        void close() {
+            synchronized (sendLock) {
+                live = false;
+            }
+            if (uploader != null) {
+                uploader.cancel("Live sync stopped");
+            }
+        }
+
+        @Override
+        public void onChatroom(Chatroom chatroom) {
+            super.onChatroom(chatroom);
+            pushed();
+        }
+
+        @Override
+        public void onPeer(Peer peer) {
+            super.onPeer(peer);
+            pushed();
+        }
+
+        @Override
+        public void onMessage(Message message) {
+            super.onMessage(message);
+            pushed();
+        }
+
+        /*
+         * Make sure a pushed item is committed within FLUSH_DELAY, even if nothing follows it.
+         */
+        private synchronized void pushed() {
+            if (!received) {
+                received = true;
+                resetBackoff();
+            }
+            if (pendingFlush == null) {
+                // The flush itself runs on the database writer thread
+                pendingFlush = executor.schedule(() -> applyQueue.execute(() -> {
+                    synchronized (this) {
+                        pendingFlush = null;
+                    }
+                    flush();
+                }), FLUSH_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            try {
+                super.onError(t);
+            } finally {
+                // Reconnect even if the last of the download could not be applied
+                Log.e(TAG, "Live sync with chat server was disconnected.", t);
+                closed(t);
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            try {
+                super.onCompleted();
+            } finally {
+                Log.i(TAG, "Live sync with chat server was closed by the server.");
+                closed(null);
+            }
+        }
+
+        private void closed(Throwable t) {
+            synchronized (sendLock) {
+                live = false;
+            }
+            disconnected(this, t);
+        }
+    }
+
+}
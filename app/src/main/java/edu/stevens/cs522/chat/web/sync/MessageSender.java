@@ -0,0 +1,220 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import edu.stevens.cs522.base.work.OneTimeWorkRequest;
+import edu.stevens.cs522.base.work.WorkManager;
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.databases.DatabaseExecutors;
+import edu.stevens.cs522.chat.databases.MessageChangeTracker;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.util.LatencyHistogram;
+import edu.stevens.cs522.chat.web.work.PostMessageWorker;
+
+/**
+ * The send path for messages posted on this device.
+ *
+ * A posted message is stored first, and then uploaded right away: on the live stream if it
+ * is open, otherwise by an upload that is scheduled DEBOUNCE after the first message of a
+ * burst, so that a burst of messages goes up in one stream.  Only the ids of the stored
+ * messages are passed to the upload (see PostMessageWorker), which reads the unsent backlog
+ * from the database.  Periodic sync remains the fallback if the upload fails.
+ *
+ * A message is acknowledged when the server has given it a sequence number.  The time from
+ * send to acknowledgement is recorded (see getAckLatency).
+ */
+public class MessageSender {
+
+    private static final String TAG = MessageSender.class.getCanonicalName();
+
+    /*
+     * How long to wait for more messages before uploading.
+     */
+    public static final long DEBOUNCE = 20; // milliseconds
+
+    /**
+     * Uploads the stored messages with these ids (and any other unsent messages).
+     */
+    public interface Uploader {
+        void upload(long[] ids);
+    }
+
+    private static MessageSender instance;
+
+    public static synchronized MessageSender getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            WorkManager workManager = WorkManager.getInstance(appContext);
+            instance = new MessageSender(ChatDatabase.getInstance(appContext), LiveSync.getInstance(appContext), ids -> {
+                Bundle data = new Bundle();
+                data.putLongArray(PostMessageWorker.MESSAGE_IDS_KEY, ids);
+                workManager.enqueueUniqueWork(new OneTimeWorkRequest(PostMessageWorker.class, data));
+            });
+        }
+        return instance;
+    }
+
+    private final ChatDatabase chatDatabase;
+
+    private final LiveSync liveSync;
+
+    private final Uploader uploader;
+
+    /*
+     * Storing a message is a write transaction, so it goes with the other writes rather than
+     * holding up reads for the UI.  Downloads give up the lane after each chunk (see ApplyQueue),
+     * so it does not wait for a whole catch-up.
+     */
+    private final Executor executor = DatabaseExecutors.getInstance().getBackground();
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    /*
+     * Messages that have not been acknowledged, by id, with the time they were sent.
+     */
+    private final Map<Long, Long> pending = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram ackLatency = new LatencyHistogram();
+
+    /*
+     * Messages stored since the last upload was scheduled.
+     */
+    private final List<Long> batch = new ArrayList<>();
+
+    private ScheduledFuture<?> flush;
+
+    private long uploads;
+
+    private MessageChangeTracker.Observer observer;
+
+    private String sender;
+
+    public MessageSender(ChatDatabase chatDatabase, LiveSync liveSync, Uploader uploader) {
+        this.chatDatabase = chatDatabase;
+        this.liveSync = liveSync;
+        this.uploader = uploader;
+    }
+
+    /**
+     * Store the message, and upload it as soon as we can.
+     */
+    public void send(Message message) {
+        long sent = System.nanoTime();
+        executor.execute(() -> store(message, sent));
+    }
+
+    private void store(Message message, long sent) {
+        try {
+            message.id = chatDatabase.runInTransaction(() -> {
+                chatDatabase.chatroomDao().insert(new Chatroom(message.chatroom));
+                return chatDatabase.requestDao().insert(message);
+            });
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not store message: " + message.messageText, e);
+            return;
+        }
+        pending.put(message.id, sent);
+        observe(message.sender);
+
+        if (liveSync.isLive()) {
+            Log.d(TAG, "Uploading message on the live stream: " + message.id);
+            liveSync.post(message);
+        } else {
+            schedule(message.id);
+        }
+    }
+
+    private synchronized void schedule(long id) {
+        batch.add(id);
+        if (flush == null) {
+            flush = timer.schedule(this::upload, DEBOUNCE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void upload() {
+        long[] ids;
+        synchronized (this) {
+            ids = new long[batch.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = batch.get(i);
+            }
+            batch.clear();
+            flush = null;
+            uploads++;
+        }
+        Log.d(TAG, String.format("Uploading %d messages", ids.length));
+        try {
+            uploader.upload(ids);
+        } catch (RuntimeException e) {
+            // Left for periodic sync
+            Log.e(TAG, "Could not schedule upload of messages.", e);
+        }
+    }
+
+    /*
+     * Our messages are acknowledged when the server echoes them back with their sequence
+     * numbers, so check the pending messages whenever messages from us change.
+     */
+    private synchronized void observe(String sender) {
+        if (sender == null || sender.equals(this.sender)) {
+            return;
+        }
+        MessageChangeTracker changeTracker = chatDatabase.getMessageChangeTracker();
+        if (observer != null) {
+            changeTracker.removeObserver(observer);
+        }
+        this.sender = sender;
+        observer = changeTracker.observeSender(sender, () -> {
+            if (!pending.isEmpty()) {
+                DatabaseExecutors.getInstance().getBackground().execute(this::acknowledged);
+            }
+        });
+    }
+
+    private void acknowledged() {
+        List<Long> ids = new ArrayList<>(pending.keySet());
+        if (ids.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (long id : chatDatabase.requestDao().getSentMessageIds(ids)) {
+            Long sent = pending.remove(id);
+            if (sent != null) {
+                ackLatency.record(now - sent);
+            }
+        }
+    }
+
+    /**
+     * Time from send to acknowledgement by the server.
+     */
+    public LatencyHistogram getAckLatency() {
+        return ackLatency;
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    public synchronized long getUploads() {
+        return uploads;
+    }
+
+    public void logStats() {
+        Log.i(TAG, String.format("Send to ack: %s (%d pending, %d uploads)", ackLatency, getPending(), getUploads()));
+    }
+
+}
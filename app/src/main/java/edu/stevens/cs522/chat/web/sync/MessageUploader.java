@@ -0,0 +1,111 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import edu.stevens.cs522.chat.databases.RequestDao;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.web.RestMethod.UploadObserver;
+
+/**
+ * Uploads the backlog of unsent messages to the server, one page at a time.
+ *
+ * Messages are read in pages keyed on the primary key of the last message sent, and pushed
+ * only while the call is ready to accept them.  When the transport buffer fills, the uploader
+ * stops and resumes from the on-ready callback, so at most one page of messages is held in
+ * memory however large the backlog is.  The upload stream is completed once the last page
+ * has been sent.
+ */
+public class MessageUploader implements Runnable {
+
+    private static final String TAG = MessageUploader.class.getCanonicalName();
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final RequestDao requestDao;
+
+    private final UploadObserver uploader;
+
+    private final int pageSize;
+
+    private final Deque<Message> page = new ArrayDeque<>();
+
+    private long lastId = 0;
+
+    private long uploaded = 0;
+
+    private boolean finished = false;
+
+    public MessageUploader(RequestDao requestDao, UploadObserver uploader) {
+        this(requestDao, uploader, DEFAULT_PAGE_SIZE);
+    }
+
+    public MessageUploader(RequestDao requestDao, UploadObserver uploader, int pageSize) {
+        this.requestDao = requestDao;
+        this.uploader = uploader;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Start uploading on the calling thread.  Uploading continues on the transport's
+     * callback thread whenever the call becomes ready again.
+     */
+    public void start() {
+        uploader.setOnReadyHandler(this);
+        run();
+    }
+
+    /**
+     * Push messages for as long as the call is ready.
+     */
+    @Override
+    public synchronized void run() {
+        if (finished) {
+            return;
+        }
+        try {
+            while (uploader.isReady()) {
+                if (page.isEmpty()) {
+                    List<Message> messages = requestDao.getUnsentMessages(lastId, pageSize);
+                    if (messages.isEmpty()) {
+                        finished = true;
+                        Log.i(TAG, String.format("Finished uploading %d messages to server", uploaded));
+                        onFinished();
+                        return;
+                    }
+                    page.addAll(messages);
+                }
+                Message message = page.poll();
+                lastId = message.id;
+                uploader.onMessage(message);
+                uploaded++;
+            }
+        } catch (RuntimeException e) {
+            finished = true;
+            Log.e(TAG, "Exception while uploading messages to server!", e);
+            uploader.onError(e);
+        }
+    }
+
+    /**
+     * The backlog has been uploaded.  By default this completes the upload stream.
+     */
+    protected void onFinished() {
+        uploader.onCompleted();
+    }
+
+    /**
+     * The primary key of the last message uploaded.
+     */
+    public synchronized long getLastId() {
+        return lastId;
+    }
+
+    public synchronized long getUploaded() {
+        return uploaded;
+    }
+
+}
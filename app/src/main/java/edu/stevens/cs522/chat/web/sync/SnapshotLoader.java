@@ -0,0 +1,134 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.settings.Settings;
+import edu.stevens.cs522.chat.web.RestMethod;
+import edu.stevens.cs522.chat.web.RestMethod.SnapshotObserver;
+import edu.stevens.cs522.chat.web.request.ChatServiceResponse;
+import edu.stevens.cs522.chat.web.request.ErrorResponse;
+import edu.stevens.cs522.chat.web.request.SynchronizeRequest;
+import io.grpc.Status;
+
+/**
+ * Bootstraps a device that has not downloaded anything from the server yet (e.g. just after
+ * registration), from a snapshot of the server rather than the first sync.
+ *
+ * The snapshot is streamed in large chunks, and committed TRANSACTION_SIZE items at a time.
+ * Messages come in order of sequence number, so each commit leaves the watermarks where a
+ * sync can resume from, if the snapshot is interrupted.  Once the snapshot is complete, the
+ * sequence number counter is set to the version it was taken at, and syncs continue from there.
+ *
+ * If the server does not support snapshots, or the snapshot fails, the first sync downloads
+ * the history as before.
+ */
+public class SnapshotLoader {
+
+    private static final String TAG = SnapshotLoader.class.getCanonicalName();
+
+    /*
+     * Number of items committed in each transaction.
+     */
+    public static final int TRANSACTION_SIZE = 5000;
+
+    public static final long DEADLINE = 10; // minutes
+
+    /*
+     * Sync and live sync both bootstrap before they first connect, but only one of them loads the snapshot.
+     */
+    private static final Object lock = new Object();
+
+    private final Context context;
+
+    private final RestMethod restMethod;
+
+    private final ChatDatabase chatDatabase;
+
+    public SnapshotLoader(Context context, RestMethod restMethod, ChatDatabase chatDatabase) {
+        this.context = context;
+        this.restMethod = restMethod;
+        this.chatDatabase = chatDatabase;
+    }
+
+    /**
+     * Load a snapshot from the server, if we have not downloaded anything from it yet.
+     * Returns true if the snapshot was loaded.
+     */
+    public boolean bootstrap(SynchronizeRequest request, UUID myAppID) {
+        synchronized (lock) {
+            if (chatDatabase.requestDao().getLastSequenceNumber() > 0) {
+                return false;
+            }
+
+            List<String> chatrooms = new ArrayList<>(Settings.getSubscribedChatrooms(context));
+            Loader loader = new Loader(chatDatabase, myAppID);
+            long start = SystemClock.elapsedRealtime();
+
+            ChatServiceResponse response;
+            try {
+                response = restMethod.snapshot(request, chatrooms, loader, TimeUnit.MINUTES.toMillis(DEADLINE));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Exception while loading snapshot!", e);
+                return false;
+            }
+
+            if (response instanceof ErrorResponse) {
+                ErrorResponse error = (ErrorResponse) response;
+                if (error.responseCode == Status.Code.UNIMPLEMENTED.value()) {
+                    Log.i(TAG, "Server does not support snapshots, the first sync will download the history.");
+                } else {
+                    Log.e(TAG, String.format("Snapshot failed after %d items, the first sync will resume from there.", loader.getItemsApplied()));
+                }
+                return false;
+            }
+
+            Log.i(TAG, String.format("Loaded snapshot at version %d: %d items in %d transactions, %d ms",
+                    loader.getVersion(), loader.getItemsApplied(), loader.getChunksApplied(), SystemClock.elapsedRealtime() - start));
+            return true;
+        }
+    }
+
+    /*
+     * Commits the snapshot in transactions of TRANSACTION_SIZE items, regardless of how the
+     * server chunks it, and sets the watermark once the whole snapshot has been committed.
+     */
+    private static class Loader extends DownloadApplier implements SnapshotObserver {
+
+        private final ChatDatabase chatDatabase;
+
+        private long version;
+
+        Loader(ChatDatabase chatDatabase, UUID appID) {
+            super(chatDatabase, appID, TRANSACTION_SIZE, Long.MAX_VALUE);
+            this.chatDatabase = chatDatabase;
+        }
+
+        @Override
+        public synchronized void onChunk(long version) {
+            this.version = version;
+        }
+
+        @Override
+        public void onCompleted() {
+            super.onCompleted();
+            synchronized (this) {
+                if (version > chatDatabase.requestDao().getLastSequenceNumber()) {
+                    chatDatabase.requestDao().updateLastSequenceNumber(version);
+                }
+            }
+        }
+
+        synchronized long getVersion() {
+            return version;
+        }
+    }
+
+}
@@ -0,0 +1,438 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.ChatroomVersion;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.settings.Settings;
+import edu.stevens.cs522.chat.web.RestMethod;
+import edu.stevens.cs522.chat.web.RestMethod.UploadObserver;
+import edu.stevens.cs522.chat.web.client.EndpointSelector;
+import edu.stevens.cs522.chat.web.client.RetryEngine;
+import edu.stevens.cs522.chat.web.request.ChatServiceResponse;
+import edu.stevens.cs522.chat.web.request.ErrorResponse;
+import edu.stevens.cs522.chat.web.request.SynchronizeRequest;
+import io.grpc.Status;
+
+/**
+ * Runs a sync with the server: uploads our chatrooms and unsent messages, and applies
+ * the chatrooms, peers and messages that the server streams back.
+ *
+ * Only one sync is in flight at a time.  A request to sync while another is running joins
+ * the running sync and gets its result, rather than starting a second stream.
+ *
+ * A sync is not abandoned just because it is taking a while: the sync has a deadline sized
+ * from the upload backlog, which the watchdog extends for as long as items keep arriving,
+ * and it cancels the call if no items have been sent or received for INACTIVITY_TIMEOUT.  When a call is cancelled, we wait for it to terminate
+ * before returning, so a stale stream never writes to the database behind the next sync.
+ * Downloads are committed in chunks, so an interrupted catch-up resumes where it stopped.
+ * A device that has not downloaded anything yet first loads a snapshot (see SnapshotLoader).
+ * If the server has several endpoints, a sync that fails on one is run again on another.
+ */
+public class SyncEngine {
+
+    private static final String TAG = SyncEngine.class.getCanonicalName();
+
+    public enum State {
+        IDLE,
+        BOOTSTRAPPING,
+        UPLOADING,
+        DOWNLOADING,
+        CANCELLING
+    }
+
+    /*
+     * Cancel the call if nothing has been sent or received for this long.
+     */
+    public static final long INACTIVITY_TIMEOUT = 10; // seconds
+
+    /*
+     * The deadline for the sync allows BASE_DEADLINE for the connection and the download,
+     * plus an allowance for each message to be uploaded, up to MAX_DEADLINE.  Each item sent
+     * or received extends it to at least BASE_DEADLINE from then, so a long catch-up that is
+     * still making progress is not cut off.
+     */
+    public static final long BASE_DEADLINE = 60; // seconds
+
+    public static final long PER_MESSAGE_DEADLINE = 20; // milliseconds
+
+    public static final long MAX_DEADLINE = 10; // minutes
+
+    /*
+     * How long to wait for a cancelled call to terminate.
+     */
+    public static final long CANCEL_TIMEOUT = 5; // seconds
+
+    private static final long WATCHDOG_INTERVAL = 1000; // milliseconds
+
+    private final Context context;
+
+    private final RestMethod restMethod;
+
+    private final ChatDatabase chatDatabase;
+
+    private final SnapshotLoader snapshotLoader;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.IDLE);
+
+    /*
+     * The sync currently in flight, if any.
+     */
+    private Sync current;
+
+    private long merged;
+
+    private long failovers;
+
+    public SyncEngine(Context context, RestMethod restMethod, ChatDatabase chatDatabase) {
+        this.context = context;
+        this.restMethod = restMethod;
+        this.chatDatabase = chatDatabase;
+        this.snapshotLoader = new SnapshotLoader(context, restMethod, chatDatabase);
+    }
+
+    /**
+     * Sync with the server, or wait for the sync already in flight.
+     */
+    public ChatServiceResponse sync(SynchronizeRequest request, UUID myAppID) {
+        Sync sync;
+        boolean owner;
+        synchronized (this) {
+            if (current == null) {
+                current = new Sync();
+                owner = true;
+            } else {
+                merged++;
+                Log.d(TAG, "Sync already in progress, waiting for it to finish.");
+                owner = false;
+            }
+            sync = current;
+        }
+
+        if (owner) {
+            try {
+                sync.finish(runWithFailover(request, myAppID));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Exception while synchronizing with server!", e);
+                sync.finish(RestMethod.getErrorResponse(e));
+            } finally {
+                setState(State.IDLE);
+                synchronized (this) {
+                    current = null;
+                }
+            }
+        }
+
+        return sync.await();
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * Number of syncs that were tried again at once on another endpoint.
+     */
+    public synchronized long getFailovers() {
+        return failovers;
+    }
+
+    /*
+     * A sync that fails on one endpoint goes straight to the next healthy endpoint (the failed
+     * one has been ejected, see EndpointSelector), rather than waiting to retry.  Downloads are
+     * idempotent and unsent messages are still unsent, so the sync can simply run again.
+     */
+    private ChatServiceResponse runWithFailover(SynchronizeRequest request, UUID myAppID) {
+        EndpointSelector endpoints = restMethod.getEndpointSelector();
+        ChatServiceResponse response = run(request, myAppID);
+        for (int attempt = 1; attempt < endpoints.size(); attempt++) {
+            if (!(response instanceof ErrorResponse)) {
+                break;
+            }
+            int code = ((ErrorResponse) response).responseCode;
+            if (RetryEngine.classify(code) == RetryEngine.Failure.FATAL || !endpoints.hasHealthy(SystemClock.elapsedRealtime())) {
+                break;
+            }
+            synchronized (this) {
+                failovers++;
+            }
+            Log.i(TAG, String.format("Sync failed (%s), failing over: %s", Status.fromCodeValue(code).getCode(), endpoints));
+            response = run(request, myAppID);
+        }
+        return response;
+    }
+
+    /**
+     * Number of sync requests that joined a sync already in flight.
+     */
+    public synchronized long getMerged() {
+        return merged;
+    }
+
+    private void setState(State newState) {
+        State oldState = state.getAndSet(newState);
+        if (oldState != newState) {
+            Log.d(TAG, String.format("Sync state %s -> %s", oldState, newState));
+        }
+    }
+
+    /*
+     * Initial deadline for the sync, in milliseconds.
+     */
+    private static long getDeadline(long backlog) {
+        long deadline = TimeUnit.SECONDS.toMillis(BASE_DEADLINE) + backlog * PER_MESSAGE_DEADLINE;
+        return Math.min(deadline, TimeUnit.MINUTES.toMillis(MAX_DEADLINE));
+    }
+
+    private ChatServiceResponse run(SynchronizeRequest request, UUID myAppID) {
+
+        /*
+         * The first sync of a new device starts from a snapshot of the server, and then
+         * only downloads what has been posted since.
+         */
+        setState(State.BOOTSTRAPPING);
+        snapshotLoader.bootstrap(request, myAppID);
+
+        setState(State.UPLOADING);
+
+        long backlog = chatDatabase.requestDao().countUnsentMessages();
+        long deadline = getDeadline(backlog);
+        Log.d(TAG, String.format("Starting sync: %d messages to upload, deadline %d ms", backlog, deadline));
+
+        Download download = new Download(chatDatabase, myAppID);
+
+        /*
+         * Connect to the server with the download observer for consuming its response.
+         * Downloads are handed off to the database writer thread, with flow control.
+         * The streaming call returns a listener to which we push uploads.
+         */
+        long started = SystemClock.elapsedRealtime();
+        /*
+         * The call itself has no deadline: a gRPC deadline cannot be extended, so the watchdog
+         * below enforces ours.
+         */
+        UploadObserver uploader = restMethod.perform(request, new ApplyQueue(download), 0);
+
+        MessageUploader messageUploader = new MessageUploader(chatDatabase.requestDao(), uploader);
+
+        try {
+            /*
+             * The server needs the sequence number of the last message it downloaded to this device.
+             */
+            long lastSequenceNumber = chatDatabase.requestDao().getLastSequenceNumber();
+            /*
+             * If we only follow some chatrooms, the server only sends messages in those chatrooms,
+             * after the last message we have in each of them.
+             */
+            List<ChatroomVersion> subscriptions = chatDatabase.requestDao().getChatroomVersions(Settings.getSubscribedChatrooms(context));
+            uploader.onSync(lastSequenceNumber, subscriptions, request.longitude, request.latitude);
+
+            /*
+             * We upload a list of all our chatrooms to the server.
+             */
+            final List<Chatroom> chatrooms = chatDatabase.chatroomDao().getAllChatrooms();
+            for (Chatroom chatroom : chatrooms) {
+                uploader.onChatroom(chatroom);
+            }
+
+            /*
+             * Upload the messages that we have not yet uploaded, a page at a time.  The uploader
+             * completes the upload stream once the backlog has been sent.
+             */
+            messageUploader.start();
+
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Exception while uploading data to server!", e);
+            uploader.onError(e);
+            awaitCancelled(download);
+            return RestMethod.getErrorResponse(e);
+        }
+
+        /*
+         * Wait for the download to complete, for as long as the call is making progress.
+         */
+        try {
+            long progress = -1;
+            long lastProgress = SystemClock.elapsedRealtime();
+            long expires = started + deadline;
+            while (!download.awaitTermination(WATCHDOG_INTERVAL)) {
+                long now = SystemClock.elapsedRealtime();
+                long count = messageUploader.getUploaded() + download.getItemsReceived();
+                if (count != progress) {
+                    progress = count;
+                    lastProgress = now;
+                    expires = Math.max(expires, now + TimeUnit.SECONDS.toMillis(BASE_DEADLINE));
+                } else if (now - lastProgress >= TimeUnit.SECONDS.toMillis(INACTIVITY_TIMEOUT)) {
+                    Log.e(TAG, String.format("No progress for %d seconds, cancelling sync.", INACTIVITY_TIMEOUT));
+                    cancel(uploader, download, "No progress from server");
+                    return getDeadlineExceeded("No progress from server");
+                }
+                if (now >= expires) {
+                    Log.e(TAG, String.format("Sync deadline exceeded after %d ms, cancelling sync.", now - started));
+                    cancel(uploader, download, "Sync deadline exceeded");
+                    return getDeadlineExceeded("Sync deadline exceeded");
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Sync interrupted, cancelling.", e);
+            cancel(uploader, download, "Sync interrupted");
+            Thread.currentThread().interrupt();
+            return RestMethod.getErrorResponse(e);
+        }
+
+        Log.i(TAG, String.format("Sync finished: uploaded %d messages, downloaded %d items in %d chunks",
+                messageUploader.getUploaded(), download.getItemsApplied(), download.getChunksApplied()));
+
+        Throwable error = download.getError();
+        if (error != null) {
+            return RestMethod.getErrorResponse(error);
+        }
+        return request.getResponse();
+    }
+
+    private static ErrorResponse getDeadlineExceeded(String message) {
+        ErrorResponse errorResponse = new ErrorResponse();
+        Status status = Status.DEADLINE_EXCEEDED;
+        errorResponse.responseCode = status.getCode().value();
+        errorResponse.responseMessage = status.getCode().name();
+        errorResponse.errorMessage = message;
+        return errorResponse;
+    }
+
+    private void cancel(UploadObserver uploader, Download download, String message) {
+        setState(State.CANCELLING);
+        uploader.cancel(message);
+        awaitCancelled(download);
+    }
+
+    /*
+     * Wait for a call that has been cancelled to deliver its final callback.
+     */
+    private static void awaitCancelled(Download download) {
+        boolean terminated;
+        try {
+            terminated = download.awaitTermination(TimeUnit.SECONDS.toMillis(CANCEL_TIMEOUT));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            terminated = false;
+        }
+        if (!terminated) {
+            Log.e(TAG, "Cancelled sync did not terminate!");
+        }
+    }
+
+    /*
+     * Applies downloaded items, counting them for the watchdog and recording how the call ended.
+     */
+    private class Download extends DownloadApplier {
+
+        private final AtomicLong itemsReceived = new AtomicLong();
+
+        private final CountDownLatch terminated = new CountDownLatch(1);
+
+        private volatile Throwable error;
+
+        Download(ChatDatabase chatDatabase, UUID appID) {
+            super(chatDatabase, appID);
+        }
+
+        private void received() {
+            if (itemsReceived.getAndIncrement() == 0) {
+                setState(State.DOWNLOADING);
+            }
+        }
+
+        @Override
+        public void onChatroom(Chatroom chatroom) {
+            received();
+            super.onChatroom(chatroom);
+        }
+
+        @Override
+        public void onPeer(Peer peer) {
+            received();
+            super.onPeer(peer);
+        }
+
+        @Override
+        public void onMessage(Message message) {
+            received();
+            super.onMessage(message);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            /*
+             * The download is terminated (by the server or cancellation).
+             * Chunks already received are still committed.
+             */
+            Log.e(TAG, "Error while downloading data from server", t);
+            error = t;
+            try {
+                super.onError(t);
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            Log.i(TAG, "Finished download from server");
+            try {
+                super.onCompleted();
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        long getItemsReceived() {
+            return itemsReceived.get();
+        }
+
+        Throwable getError() {
+            return error;
+        }
+
+        boolean awaitTermination(long millis) throws InterruptedException {
+            return terminated.await(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * The result of a sync, shared by every request that joined it.
+     */
+    private static class Sync {
+
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        private volatile ChatServiceResponse response;
+
+        void finish(ChatServiceResponse response) {
+            this.response = response;
+            finished.countDown();
+        }
+
+        ChatServiceResponse await() {
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return RestMethod.getErrorResponse(e);
+            }
+            return response;
+        }
+    }
+
+}
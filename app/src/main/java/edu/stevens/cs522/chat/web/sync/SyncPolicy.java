@@ -0,0 +1,115 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long to wait before the next sync (see SyncScheduler).
+ *
+ * While a chatroom is open and messages are flowing, we sync every ACTIVE_INTERVAL.  Once
+ * messages stop, each sync that brings nothing new doubles the interval, from BASE_INTERVAL
+ * up to MAX_INTERVAL, and any activity resets it.  Messages waiting to be uploaded cap the
+ * interval at BASE_INTERVAL.  Every delay is jittered by +/- JITTER, so that devices that
+ * came online together do not keep syncing in lockstep.
+ *
+ * Times are in milliseconds, from any monotonic clock.
+ */
+public class SyncPolicy {
+
+    public static final long ACTIVE_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    public static final long BASE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    public static final long MAX_INTERVAL = TimeUnit.MINUTES.toMillis(30);
+
+    /*
+     * Messages sent or received this recently mean the conversation is still going.
+     */
+    public static final long ACTIVE_WINDOW = TimeUnit.MINUTES.toMillis(2);
+
+    public static final double JITTER = 0.2;
+
+    private final Random random;
+
+    private boolean chatroomOpen;
+
+    private boolean activity;
+
+    private long lastActivity;
+
+    private long backlog;
+
+    private long idleInterval = BASE_INTERVAL;
+
+    public SyncPolicy(Random random) {
+        this.random = random;
+    }
+
+    public synchronized void setChatroomOpen(boolean open, long now) {
+        chatroomOpen = open;
+        if (open) {
+            onActivity(now);
+        }
+    }
+
+    /**
+     * A message was sent or received.
+     */
+    public synchronized void onActivity(long now) {
+        activity = true;
+        lastActivity = now;
+        idleInterval = BASE_INTERVAL;
+    }
+
+    /**
+     * A sync has finished: received is true if it downloaded anything, and backlog is the
+     * number of messages still waiting to be uploaded.
+     */
+    public synchronized void onSynced(boolean received, long backlog, long now) {
+        this.backlog = backlog;
+        if (received) {
+            onActivity(now);
+        } else if (!isFlowing(now)) {
+            idleInterval = Math.min(MAX_INTERVAL, 2 * idleInterval);
+        }
+    }
+
+    /**
+     * The network has come back: whatever we missed is worth fetching soon.
+     */
+    public synchronized void onNetworkAvailable() {
+        idleInterval = BASE_INTERVAL;
+    }
+
+    private boolean isFlowing(long now) {
+        return activity && now - lastActivity < ACTIVE_WINDOW;
+    }
+
+    /**
+     * The interval before jitter.
+     */
+    public synchronized long getInterval(long now) {
+        long interval;
+        if (isFlowing(now)) {
+            interval = chatroomOpen ? ACTIVE_INTERVAL : BASE_INTERVAL;
+        } else {
+            interval = idleInterval;
+        }
+        if (backlog > 0) {
+            interval = Math.min(interval, BASE_INTERVAL);
+        }
+        return interval;
+    }
+
+    /**
+     * The delay before the next sync.
+     */
+    public long nextDelay(long now) {
+        return jitter(getInterval(now));
+    }
+
+    public synchronized long jitter(long interval) {
+        return Math.round(interval * (1 - JITTER + 2 * JITTER * random.nextDouble()));
+    }
+
+}
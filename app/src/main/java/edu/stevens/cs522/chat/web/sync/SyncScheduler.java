@@ -0,0 +1,215 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import edu.stevens.cs522.base.work.OneTimeWorkRequest;
+import edu.stevens.cs522.base.work.WorkManager;
+import edu.stevens.cs522.chat.web.work.SynchronizeWorker;
+
+/**
+ * Schedules background syncs while the app is in the foreground, at intervals that adapt to
+ * what the user is doing (see SyncPolicy), rather than at a fixed period.
+ *
+ * Each sync is a one-time request to the work manager, scheduled when the previous one
+ * finishes (see onSynced), or after the current interval if it never reports back.  Activity
+ * (a message posted, or a chatroom opened) brings the next sync forward.  After a failure,
+ * the next sync is when the retry engine says (see onRetry).  While there is no
+ * network, nothing is scheduled; when a network becomes available, we sync after a short
+ * random delay, up to RECONNECT_JITTER.
+ */
+public class SyncScheduler {
+
+    private static final String TAG = SyncScheduler.class.getCanonicalName();
+
+    public static final long RECONNECT_JITTER = 5000; // milliseconds
+
+    private static SyncScheduler instance;
+
+    public static synchronized SyncScheduler getInstance(Context context) {
+        if (instance == null) {
+            instance = new SyncScheduler(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final WorkManager workManager;
+
+    private final ConnectivityManager connectivityManager;
+
+    private final Random random = new Random();
+
+    private final SyncPolicy policy = new SyncPolicy(random);
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    private boolean running;
+
+    private boolean networkAvailable;
+
+    private ScheduledFuture<?> next;
+
+    private long scheduled;
+
+    private long empty;
+
+    private long retries;
+
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(@NonNull Network network) {
+            networkAvailable(true);
+        }
+
+        @Override
+        public void onLost(@NonNull Network network) {
+            networkAvailable(false);
+        }
+    };
+
+    private SyncScheduler(Context context) {
+        this.workManager = WorkManager.getInstance(context);
+        this.connectivityManager = context.getSystemService(ConnectivityManager.class);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        Log.d(TAG, "Starting adaptive sync.");
+        running = true;
+        // Reports the current network (if any) straight away, which schedules the first sync
+        connectivityManager.registerDefaultNetworkCallback(networkCallback);
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        Log.d(TAG, "Stopping adaptive sync.");
+        running = false;
+        connectivityManager.unregisterNetworkCallback(networkCallback);
+        networkAvailable = false;
+        cancel();
+    }
+
+    /**
+     * A chatroom is on the screen, or no longer is.
+     */
+    public void setChatroomOpen(boolean open) {
+        policy.setChatroomOpen(open, SystemClock.elapsedRealtime());
+        if (open) {
+            expedite();
+        }
+    }
+
+    /**
+     * A message has been posted on this device.
+     */
+    public void onActivity() {
+        policy.onActivity(SystemClock.elapsedRealtime());
+        expedite();
+    }
+
+    /**
+     * A sync has finished (see RequestProcessor): schedule the next one.
+     */
+    public void onSynced(boolean received, long backlog) {
+        policy.onSynced(received, backlog, SystemClock.elapsedRealtime());
+        synchronized (this) {
+            if (!received) {
+                empty++;
+            }
+        }
+        reschedule(policy.nextDelay(SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * A sync has failed, or was not attempted because the server is failing: try again after
+     * the delay given by the retry engine (already jittered).
+     */
+    public void onRetry(long delay) {
+        synchronized (this) {
+            retries++;
+        }
+        reschedule(delay);
+    }
+
+    private void networkAvailable(boolean available) {
+        synchronized (this) {
+            if (!running || networkAvailable == available) {
+                return;
+            }
+            networkAvailable = available;
+        }
+        if (available) {
+            Log.d(TAG, "Network is available.");
+            policy.onNetworkAvailable();
+            reschedule((long) (random.nextDouble() * RECONNECT_JITTER));
+        } else {
+            Log.d(TAG, "Network was lost, syncs are suspended.");
+            synchronized (this) {
+                cancel();
+            }
+        }
+    }
+
+    /*
+     * Bring the next sync forward, if the interval is now shorter than the wait.
+     */
+    private void expedite() {
+        long delay = policy.nextDelay(SystemClock.elapsedRealtime());
+        synchronized (this) {
+            if (next != null && next.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+                return;
+            }
+        }
+        reschedule(delay);
+    }
+
+    private synchronized void reschedule(long delay) {
+        cancel();
+        if (!running || !networkAvailable) {
+            return;
+        }
+        Log.d(TAG, String.format("Next sync in %d ms", delay));
+        next = timer.schedule(this::sync, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancel() {
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+
+    private void sync() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            scheduled++;
+        }
+        workManager.enqueueUniqueWork(new OneTimeWorkRequest(SynchronizeWorker.class, new Bundle()));
+        // In case the sync never reports back (e.g. it is skipped while the live stream is up)
+        reschedule(policy.nextDelay(SystemClock.elapsedRealtime()));
+    }
+
+    public synchronized void logStats() {
+        Log.i(TAG, String.format("Adaptive sync: %d syncs scheduled, %d empty, %d retries, interval now %d ms",
+                scheduled, empty, retries, policy.getInterval(SystemClock.elapsedRealtime())));
+    }
+
+}
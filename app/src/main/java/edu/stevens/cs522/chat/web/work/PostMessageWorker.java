@@ -7,7 +7,6 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import edu.stevens.cs522.base.work.Worker;
-import edu.stevens.cs522.chat.entities.Message;
 import edu.stevens.cs522.chat.web.RequestProcessor;
 import edu.stevens.cs522.chat.web.request.ChatServiceResponse;
 import edu.stevens.cs522.chat.web.request.ErrorResponse;
@@ -17,33 +16,33 @@ public class PostMessageWorker extends Worker {
 
     private static final String TAG = PostMessageWorker.class.getCanonicalName();
 
-    public static final String MESSAGE_KEY = "message";
+    public static final String MESSAGE_IDS_KEY = "message-ids";
 
-    private final Message message;
+    private final long[] messageIds;
 
     public PostMessageWorker(@NonNull Context context, @NonNull Bundle data) {
         super(context, data);
 
-        message = data.getParcelable(MESSAGE_KEY);
-        if (message == null) {
-            throw new IllegalStateException("Missing message for post message worker!");
+        messageIds = data.getLongArray(MESSAGE_IDS_KEY);
+        if (messageIds == null) {
+            throw new IllegalStateException("Missing messages for post message worker!");
         }
     }
 
     @Override
     public boolean doWork() {
 
-        PostMessageRequest postMessageRequest = new PostMessageRequest(message);
+        PostMessageRequest postMessageRequest = new PostMessageRequest(messageIds);
 
         RequestProcessor processor = RequestProcessor.getInstance(context);
 
         ChatServiceResponse response = processor.process(postMessageRequest);
 
         if (response instanceof ErrorResponse) {
-            Log.d(TAG, String.format("Failed to add message ('%s'): %s", message.messageText, ((ErrorResponse) response).errorMessage));
+            Log.d(TAG, String.format("Failed to upload %d messages: %s", messageIds.length, ((ErrorResponse) response).errorMessage));
             return false;
         } else {
-            Log.d(TAG, String.format("Message added ('%s')!", message.messageText));
+            Log.d(TAG, String.format("Uploaded %d messages!", messageIds.length));
             return true;
         }
 
@@ -0,0 +1,36 @@
+package edu.stevens.cs522.chat.web.work;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.time.Instant;
+
+import edu.stevens.cs522.base.work.Worker;
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.databases.MessageRetention;
+import edu.stevens.cs522.chat.settings.Settings;
+
+public class RetentionWorker extends Worker {
+
+    private static final String TAG = RetentionWorker.class.getCanonicalName();
+
+    public RetentionWorker(@NonNull Context context, @NonNull Bundle data) {
+        super(context, data);
+    }
+
+    @Override
+    public boolean doWork() {
+        try {
+            MessageRetention retention = new MessageRetention(ChatDatabase.getInstance(context), Settings.getRetainDays(context));
+            MessageRetention.Report report = retention.run(Instant.now());
+            Log.i(TAG, "Retention job finished: " + report);
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Retention job failed, will retry.", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package edu.stevens.cs522.chat.databases;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.TimestampConverter;
+import edu.stevens.cs522.chat.entities.UUIDConverter;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Materializes Message entities from a cursor over 100k rows, with timestamps stored as ISO-8601
+ * text (schema version 2) and as epoch milliseconds (version 3).  Also checks that the SQL that
+ * the migration uses to convert timestamps agrees with the converters.  Not part of the unit
+ * tests: run it with ./gradlew :app:benchmark.
+ */
+public class ColumnEncodingBenchmark {
+
+    private static final int ROWS = 100000;
+
+    private static final int SENDERS = 100;
+
+    private static final int ROUNDS = 5;
+
+    private static final String COLUMNS = "`id`, `chatroom`, `messageText`, `seqNum`, `appID`, `timestamp`, `latitude`, `longitude`, `sender`";
+
+    private static Connection connection;
+
+    @BeforeClass
+    public static void createTables() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE `Message_v2` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `chatroom` TEXT, `messageText` TEXT, " +
+                    "`seqNum` INTEGER NOT NULL, `appID` BLOB, `timestamp` TEXT, `latitude` REAL, `longitude` REAL, `sender` TEXT)");
+            statement.execute("CREATE TABLE `Message_v3` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `chatroom` TEXT, `messageText` TEXT, " +
+                    "`seqNum` INTEGER NOT NULL, `appID` BLOB, `timestamp` INTEGER, `latitude` REAL, `longitude` REAL, `sender` TEXT)");
+        }
+
+        Random random = new Random(522);
+        List<UUID> appIds = new ArrayList<>();
+        for (int i = 0; i < SENDERS; i++) {
+            appIds.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+        Instant start = Instant.parse("2025-01-01T00:00:00Z");
+        connection.setAutoCommit(false);
+        try (PreparedStatement v2 = connection.prepareStatement("INSERT INTO `Message_v2` (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement v3 = connection.prepareStatement("INSERT INTO `Message_v3` (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (int i = 1; i <= ROWS; i++) {
+                int sender = random.nextInt(SENDERS);
+                // Timestamps to the millisecond, as they are stored from version 3
+                Instant timestamp = start.plusMillis(i * 1500L + random.nextInt(1000));
+                byte[] appID = UUIDConverter.toBytes(appIds.get(sender));
+                double latitude = 40.7 + random.nextDouble();
+                double longitude = -74.0 + random.nextDouble();
+                for (PreparedStatement insert : new PreparedStatement[] { v2, v3 }) {
+                    insert.setLong(1, i);
+                    insert.setString(2, "chatroom-" + (i % 10));
+                    insert.setString(3, "Message number " + i);
+                    insert.setLong(4, i);
+                    insert.setBytes(5, appID);
+                    insert.setDouble(7, latitude);
+                    insert.setDouble(8, longitude);
+                    insert.setString(9, "peer-" + sender);
+                }
+                v2.setString(6, TimestampConverter.serialize(timestamp));
+                v3.setLong(6, TimestampConverter.toEpochMillis(timestamp));
+                v2.executeUpdate();
+                v3.executeUpdate();
+            }
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    @AfterClass
+    public static void closeTables() throws SQLException {
+        connection.close();
+    }
+
+    /*
+     * As Room did for version 2: the timestamp is parsed, and the UUID is read through a ByteBuffer.
+     */
+    private static Message readV2(ResultSet rs) throws SQLException {
+        Message message = new Message();
+        message.id = rs.getLong(1);
+        message.chatroom = rs.getString(2);
+        message.messageText = rs.getString(3);
+        message.seqNum = rs.getLong(4);
+        byte[] bytes = rs.getBytes(5);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        message.appID = new UUID(buffer.getLong(), buffer.getLong());
+        message.timestamp = TimestampConverter.deserialize(rs.getString(6));
+        message.latitude = rs.getDouble(7);
+        message.longitude = rs.getDouble(8);
+        message.sender = rs.getString(9);
+        return message;
+    }
+
+    private static Message readV3(ResultSet rs) throws SQLException {
+        Message message = new Message();
+        message.id = rs.getLong(1);
+        message.chatroom = rs.getString(2);
+        message.messageText = rs.getString(3);
+        message.seqNum = rs.getLong(4);
+        message.appID = UUIDConverter.fromBytes(rs.getBytes(5));
+        message.timestamp = TimestampConverter.fromEpochMillis(rs.getLong(6));
+        message.latitude = rs.getDouble(7);
+        message.longitude = rs.getDouble(8);
+        message.sender = rs.getString(9);
+        return message;
+    }
+
+    private interface RowReader {
+        Message read(ResultSet rs) throws SQLException;
+    }
+
+    private static List<Message> materialize(String table, RowReader reader) throws SQLException {
+        List<Message> messages = new ArrayList<>(ROWS);
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT " + COLUMNS + " FROM `" + table + "` ORDER BY `id`")) {
+            while (rs.next()) {
+                messages.add(reader.read(rs));
+            }
+        }
+        return messages;
+    }
+
+    /*
+     * Best of several rounds, in milliseconds for all the rows.
+     */
+    private static double time(String table, RowReader reader) throws SQLException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            List<Message> messages = materialize(table, reader);
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(ROWS, messages.size());
+        }
+        return best / 1e6;
+    }
+
+    @Test
+    public void compareMaterialization() throws SQLException {
+        double v2 = time("Message_v2", ColumnEncodingBenchmark::readV2);
+        double v3 = time("Message_v3", ColumnEncodingBenchmark::readV3);
+        System.out.printf("Text timestamps: %.0f ms for %d rows%n", v2, ROWS);
+        System.out.printf("Epoch millis timestamps: %.0f ms for %d rows%n", v3, ROWS);
+    }
+
+    @Test
+    public void sameEntities() throws SQLException {
+        List<Message> v2 = materialize("Message_v2", ColumnEncodingBenchmark::readV2);
+        List<Message> v3 = materialize("Message_v3", ColumnEncodingBenchmark::readV3);
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(v2.get(i).timestamp, v3.get(i).timestamp);
+            assertEquals(v2.get(i).appID, v3.get(i).appID);
+        }
+    }
+
+    @Test
+    public void migrationConvertsTimestamps() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM `Message_v2` JOIN `Message_v3` USING (`id`) " +
+                     "WHERE " + ChatDatabase.epochMillis("`Message_v2`.`timestamp`") + " = `Message_v3`.`timestamp`")) {
+            rs.next();
+            assertEquals(ROWS, rs.getLong(1));
+        }
+    }
+
+}
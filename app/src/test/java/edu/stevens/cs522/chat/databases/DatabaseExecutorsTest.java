@@ -0,0 +1,109 @@
+package edu.stevens.cs522.chat.databases;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.stevens.cs522.chat.databases.DatabaseExecutors.Lane;
+import edu.stevens.cs522.chat.util.LatencyHistogram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that foreground tasks run ahead of a backlog of background tasks, and that
+ * background tasks run one at a time, in order.
+ */
+public class DatabaseExecutorsTest {
+
+    private static final int BACKLOG = 50;
+
+    private static final long TASK_TIME = 20; // milliseconds
+
+    @Test
+    public void foregroundRunsFirst() throws InterruptedException {
+        DatabaseExecutors executors = new DatabaseExecutors(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(5);
+
+        // Hold the only thread while the queue fills up
+        executors.getForeground().execute(() -> await(blocked));
+        executors.getBackground().execute(() -> { order.add("b1"); done.countDown(); });
+        executors.getBackground().execute(() -> { order.add("b2"); done.countDown(); });
+        executors.getForeground().execute(() -> { order.add("f1"); done.countDown(); });
+        executors.getBackground().execute(() -> { order.add("b3"); done.countDown(); });
+        executors.getForeground().execute(() -> { order.add("f2"); done.countDown(); });
+        blocked.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("f1", "f2", "b1", "b2", "b3"), order);
+    }
+
+    @Test
+    public void foregroundDoesNotWaitForBacklog() throws InterruptedException {
+        DatabaseExecutors executors = new DatabaseExecutors(DatabaseExecutors.THREADS);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch backlog = new CountDownLatch(BACKLOG);
+        for (int i = 0; i < BACKLOG; i++) {
+            executors.getBackground().execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(TASK_TIME);
+                running.decrementAndGet();
+                backlog.countDown();
+            });
+        }
+
+        // Reads for the UI, while sync work is queued
+        for (int i = 0; i < 20; i++) {
+            CountDownLatch read = new CountDownLatch(1);
+            executors.getForeground().execute(read::countDown);
+            assertTrue(read.await(1, TimeUnit.SECONDS));
+            sleep(5);
+        }
+        assertTrue(backlog.await(BACKLOG * TASK_TIME * 2, TimeUnit.MILLISECONDS));
+
+        assertEquals("Background tasks run one at a time", 1, maxRunning.get());
+        assertEquals(20, executors.getQueueWait(Lane.FOREGROUND).getCount());
+        assertEquals(BACKLOG, executors.getQueueWait(Lane.BACKGROUND).getCount());
+        assertEquals(BACKLOG, executors.getExecution(Lane.BACKGROUND).getCount());
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000000L); // 1 to 100 ms
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        // Within a factor of two, and never more than the maximum
+        long p50 = histogram.getPercentile(0.5);
+        assertTrue(p50 >= 50000 && p50 <= 100000);
+        assertEquals(100000, histogram.getPercentile(0.99));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package edu.stevens.cs522.chat.databases;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The latest Room schema exported to app/schemas, and the queries in the DAO sources, for
+ * running the DAO queries against SQLite on the JVM.
+ */
+class ExportedSchema {
+
+    private static final File SCHEMA_DIR = new File("schemas/" + ChatDatabase.class.getName());
+
+    private static final File DAO_DIR = new File("src/main/java/edu/stevens/cs522/chat/databases");
+
+    /*
+     * The annotation argument may be several string literals joined with +.
+     */
+    private static final Pattern QUERY = Pattern.compile("@Query\\(((?:\\s*\"(?:[^\"\\\\]|\\\\.)*\"\\s*\\+?)+)\\)[^(]*?(\\w+)\\s*\\(", Pattern.DOTALL);
+
+    private static final Pattern LITERAL = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private static final Pattern PARAMETER = Pattern.compile(":\\w+");
+
+    /**
+     * An in-memory database with the tables, indices and triggers of the latest schema,
+     * plus the indices that ChatDatabase creates itself.
+     */
+    static Connection create() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = connection.createStatement()) {
+            JsonObject database = latest().getAsJsonObject("database");
+            for (JsonElement element : database.getAsJsonArray("entities")) {
+                JsonObject entity = element.getAsJsonObject();
+                String table = entity.get("tableName").getAsString();
+                statement.execute(entity.get("createSql").getAsString().replace("${TABLE_NAME}", table));
+                if (entity.has("indices")) {
+                    for (JsonElement index : entity.getAsJsonArray("indices")) {
+                        statement.execute(index.getAsJsonObject().get("createSql").getAsString().replace("${TABLE_NAME}", table));
+                    }
+                }
+                if (entity.has("contentSyncTriggers")) {
+                    for (JsonElement trigger : entity.getAsJsonArray("contentSyncTriggers")) {
+                        statement.execute(trigger.getAsString());
+                    }
+                }
+            }
+            for (String sql : ChatDatabase.UNMANAGED_INDICES) {
+                statement.execute(sql);
+            }
+        }
+        return connection;
+    }
+
+    /*
+     * The schema for the highest database version in the schema directory.
+     */
+    private static JsonObject latest() throws IOException {
+        File[] files = SCHEMA_DIR.listFiles((dir, name) -> name.endsWith(".json"));
+        assertTrue("No exported schema in " + SCHEMA_DIR.getAbsolutePath(), files != null && files.length > 0);
+        File latest = null;
+        int latestVersion = 0;
+        for (File file : files) {
+            int version = Integer.parseInt(file.getName().replace(".json", ""));
+            if (version > latestVersion) {
+                latestVersion = version;
+                latest = file;
+            }
+        }
+        try (Reader reader = new FileReader(latest)) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
+        }
+    }
+
+    /**
+     * Every @Query in the DAO sources, keyed by Dao.method (Dao.method#2 and so on for overloads).
+     */
+    static Map<String, String> queries() throws IOException {
+        Map<String, String> queries = new LinkedHashMap<>();
+        File[] files = DAO_DIR.listFiles((dir, name) -> name.endsWith("Dao.java"));
+        assertTrue("No DAOs in " + DAO_DIR.getAbsolutePath(), files != null && files.length > 0);
+        for (File file : files) {
+            String dao = file.getName().replace(".java", "");
+            String source = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            Matcher matcher = QUERY.matcher(source);
+            while (matcher.find()) {
+                StringBuilder query = new StringBuilder();
+                Matcher literal = LITERAL.matcher(matcher.group(1));
+                while (literal.find()) {
+                    query.append(literal.group(1).replace("\\\"", "\""));
+                }
+                String key = dao + "." + matcher.group(2);
+                for (int n = 2; queries.containsKey(key); n++) {
+                    key = dao + "." + matcher.group(2) + "#" + n;
+                }
+                queries.put(key, query.toString());
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * A query with its named parameters replaced by JDBC placeholders.
+     */
+    static String jdbc(String query) {
+        return PARAMETER.matcher(query).replaceAll("?");
+    }
+
+    private ExportedSchema() {
+    }
+
+}
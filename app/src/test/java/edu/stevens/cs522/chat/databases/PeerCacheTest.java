@@ -0,0 +1,75 @@
+package edu.stevens.cs522.chat.databases;
+
+import org.junit.Test;
+
+import java.time.Instant;
+
+import edu.stevens.cs522.chat.entities.Peer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PeerCacheTest {
+
+    private static final Instant SEEN = Instant.parse("2025-01-01T00:00:00.123456Z");
+
+    private static Peer peer(String name, Instant timestamp, double latitude) {
+        Peer peer = new Peer();
+        peer.name = name;
+        peer.timestamp = timestamp;
+        peer.latitude = latitude;
+        peer.longitude = -74.0;
+        return peer;
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        PeerCache cache = new PeerCache(2);
+        cache.put(1, peer("alice", SEEN, 40.7));
+        cache.put(2, peer("bob", SEEN, 40.7));
+        // Alice is now more recently used than Bob
+        assertNotNull(cache.get("alice"));
+        cache.put(3, peer("carol", SEEN, 40.7));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("bob"));
+        assertEquals(1, cache.get("alice").id);
+        assertEquals(3, cache.get("carol").id);
+    }
+
+    @Test
+    public void matchesAsStored() {
+        PeerCache cache = new PeerCache(PeerCache.DEFAULT_CAPACITY);
+        cache.put(1, peer("alice", SEEN, 40.7));
+        PeerCache.Entry entry = cache.get("alice");
+
+        // Timestamps are only stored to the millisecond
+        assertTrue(entry.matches(peer("alice", SEEN.plusNanos(500), 40.7)));
+        assertFalse(entry.matches(peer("alice", SEEN.plusMillis(1), 40.7)));
+        assertFalse(entry.matches(peer("alice", SEEN, 40.8)));
+        assertFalse(entry.matches(peer("alice", null, 40.7)));
+    }
+
+    @Test
+    public void counters() {
+        PeerCache cache = new PeerCache(PeerCache.DEFAULT_CAPACITY);
+        assertNull(cache.get("alice"));
+        cache.put(1, peer("alice", SEEN, 40.7));
+        assertNotNull(cache.get("alice"));
+        assertNotNull(cache.get("alice"));
+        cache.skipped();
+
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getSkippedWrites());
+        assertEquals(2.0 / 3, cache.getHitRate(), 1e-9);
+
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("alice"));
+    }
+
+}
@@ -0,0 +1,131 @@
+package edu.stevens.cs522.chat.databases;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs EXPLAIN QUERY PLAN on every @Query in the DAOs, against the latest exported Room schema
+ * (plus the partial indices that ChatDatabase creates itself), and fails if a query scans a
+ * table, or scans an index that is not partial.  Only the queries that are meant to read a
+ * whole (small) table are allowed to scan it.
+ *
+ * The queries are read from the DAO sources, so a new query is checked without changing this test.
+ * A full-text query on an FTS table is not a scan, but a full scan of the FTS table is.
+ */
+public class QueryPlanTest {
+
+    /*
+     * Queries that read every row in a table, by design.
+     */
+    private static final Set<String> WHOLE_TABLE_QUERIES = new HashSet<>(Arrays.asList(
+            "PeerDao.fetchAllPeers",
+            "ChatroomDao.fetchAllChatrooms",
+            "ChatroomDao.getAllChatrooms",
+            "RetentionDao.getChatroomsWithRetention"
+    ));
+
+    /*
+     * Scanning a partial index only reads the rows in the index (e.g. unsent messages).
+     */
+    private static final Set<String> PARTIAL_INDICES = new HashSet<>(Arrays.asList(
+            "index_Message_unsent"
+    ));
+
+    private static final Pattern SCAN = Pattern.compile("^SCAN (\\w+)(?: USING (?:COVERING )?INDEX (\\w+))?");
+
+    /*
+     * Index 0 of an FTS table is a full scan, other indices are lookups or full-text queries.
+     */
+    private static final Pattern VIRTUAL_TABLE_LOOKUP = Pattern.compile("VIRTUAL TABLE INDEX [1-9]\\d*:");
+
+    private static Connection connection;
+
+    private static Map<String, String> queries;
+
+    @BeforeClass
+    public static void createSchema() throws Exception {
+        connection = ExportedSchema.create();
+        queries = ExportedSchema.queries();
+    }
+
+    @AfterClass
+    public static void closeSchema() throws SQLException {
+        connection.close();
+    }
+
+    private static List<String> explain(String query) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        String sql = "EXPLAIN QUERY PLAN " + ExportedSchema.jdbc(query);
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            while (rs.next()) {
+                plan.add(rs.getString("detail"));
+            }
+        }
+        return plan;
+    }
+
+    @Test
+    public void noHotQueryScans() throws SQLException {
+        assertFalse("No queries found in DAOs", queries.isEmpty());
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, String> entry : queries.entrySet()) {
+            List<String> plan = explain(entry.getValue());
+            assertFalse(entry.getKey() + " has no query plan", plan.isEmpty());
+            if (WHOLE_TABLE_QUERIES.contains(entry.getKey())) {
+                continue;
+            }
+            for (String step : plan) {
+                Matcher matcher = SCAN.matcher(step);
+                if (matcher.find() && !PARTIAL_INDICES.contains(matcher.group(2)) && !VIRTUAL_TABLE_LOOKUP.matcher(step).find()) {
+                    failures.add(entry.getKey() + " (" + entry.getValue() + "): " + step);
+                }
+            }
+        }
+        if (!failures.isEmpty()) {
+            fail("Queries that scan a table:\n" + String.join("\n", failures));
+        }
+    }
+
+    @Test
+    public void timelineUsesChatroomIndex() throws SQLException {
+        for (String key : Arrays.asList("MessageDao.fetchNewestMessages", "MessageDao.fetchMessagesBefore", "MessageDao.fetchMessagesFrom")) {
+            assertUsesIndex(key, "index_Message_chatroom_seqNum");
+            // Pages are read in index order, without sorting the chatroom
+            List<String> plan = explain(queries.get(key));
+            assertFalse(key + " should not sort: " + plan, plan.stream().anyMatch(step -> step.contains("TEMP B-TREE")));
+        }
+        assertUsesIndex("RequestDao.fetchChatroomVersions", "index_Message_chatroom_seqNum");
+    }
+
+    @Test
+    public void unsentMessagesUsePartialIndex() throws SQLException {
+        assertUsesIndex("RequestDao.getUnsentMessages", "index_Message_unsent");
+        assertUsesIndex("RequestDao.countUnsentMessages", "index_Message_unsent");
+    }
+
+    private void assertUsesIndex(String key, String index) throws SQLException {
+        String query = queries.get(key);
+        assertTrue("No query for " + key, query != null);
+        List<String> plan = explain(query);
+        assertTrue(key + " should use " + index + ": " + plan, plan.stream().anyMatch(step -> step.contains(index)));
+    }
+
+}
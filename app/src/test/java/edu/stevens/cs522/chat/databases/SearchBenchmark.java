@@ -0,0 +1,217 @@
+package edu.stevens.cs522.chat.databases;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import edu.stevens.cs522.chat.entities.SearchHit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the queries in SearchDao against 1M messages in the latest exported schema (including
+ * the FTS table and its triggers), ranking the matches as SearchDao.search does, and checks
+ * that a search is interactive.  Not part of the unit tests: run it with ./gradlew :app:benchmark.
+ */
+public class SearchBenchmark {
+
+    private static final int MESSAGES = 1000000;
+
+    private static final int WORDS = 20000;
+
+    private static final int CHATROOMS = 50;
+
+    private static final int SENDERS = 500;
+
+    private static final int PAGE = 20;
+
+    private static final int ROUNDS = 5;
+
+    private static final long MAX_MEDIAN_LATENCY = 100; // milliseconds
+
+    private static Connection connection;
+
+    private static String fetchMatches;
+
+    private static String fetchMessages;
+
+    @BeforeClass
+    public static void createMessages() throws Exception {
+        connection = ExportedSchema.create();
+        Map<String, String> queries = ExportedSchema.queries();
+        fetchMatches = ExportedSchema.jdbc(queries.get("SearchDao.fetchMatches"));
+        fetchMessages = ExportedSchema.jdbc(queries.get("SearchDao.fetchMessages"));
+
+        // Word frequencies roughly follow Zipf's law, as in natural language
+        Random random = new Random(522);
+        double[] cumulative = new double[WORDS];
+        double total = 0;
+        for (int i = 0; i < WORDS; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO Message (chatroom, messageText, seqNum, timestamp, sender) VALUES (?, ?, ?, ?, ?)")) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 1; i <= MESSAGES; i++) {
+                text.setLength(0);
+                int length = 3 + random.nextInt(15);
+                for (int j = 0; j < length; j++) {
+                    int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                    text.append(word(rank < 0 ? -rank - 1 : rank)).append(' ');
+                }
+                insert.setString(1, "chatroom" + random.nextInt(CHATROOMS));
+                insert.setString(2, text.toString());
+                insert.setLong(3, i);
+                insert.setLong(4, 1735689600000L + i * 1500L);
+                insert.setString(5, "peer" + random.nextInt(SENDERS));
+                insert.addBatch();
+                if (i % 10000 == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    @AfterClass
+    public static void closeDatabase() throws SQLException {
+        connection.close();
+    }
+
+    /*
+     * A distinct word for each rank, shorter for more common words: "a", "b", ... "ba", ...
+     */
+    private static String word(int rank) {
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append((char) ('a' + rank % 26));
+            rank /= 26;
+        } while (rank > 0);
+        return word.toString();
+    }
+
+    /*
+     * SearchDao.search, with the queries run by JDBC.
+     */
+    private static List<Long> search(String terms, int offset, int limit) throws SQLException {
+        List<SearchHit> hits = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(fetchMatches)) {
+            statement.setString(1, SearchDao.toMatchQuery(terms));
+            statement.setInt(2, SearchDao.MAX_CANDIDATES);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    SearchHit hit = new SearchHit();
+                    hit.id = rs.getLong(1);
+                    hit.matchinfo = rs.getBytes(2);
+                    hits.add(hit);
+                }
+            }
+        }
+        List<Long> ids = SearchDao.rank(hits);
+        ids = ids.subList(Math.min(offset, ids.size()), Math.min(offset + limit, ids.size()));
+        if (ids.isEmpty()) {
+            return ids;
+        }
+
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int i = 1; i < ids.size(); i++) {
+            placeholders.append(", ?");
+        }
+        List<Long> found = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(fetchMessages.replace("?", placeholders))) {
+            for (int i = 0; i < ids.size(); i++) {
+                statement.setLong(i + 1, ids.get(i));
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    found.add(rs.getLong("id"));
+                }
+            }
+        }
+        assertEquals(ids.size(), found.size());
+        return ids;
+    }
+
+    @Test
+    public void searchLatency() throws SQLException {
+        // Common and rare words, each letter as the user types, and several words
+        List<String> searches = Arrays.asList(word(0), word(3), word(500), word(15000),
+                "s", "se", "sel", word(1) + " " + word(7), "c o a", "chatroom7 " + word(5), "peer42");
+        long[] latencies = new long[searches.size() * ROUNDS];
+        int n = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (String terms : searches) {
+                long start = System.nanoTime();
+                search(terms, 0, PAGE);
+                latencies[n++] = (System.nanoTime() - start) / 1000000;
+            }
+        }
+        Arrays.sort(latencies);
+        long median = latencies[latencies.length / 2];
+        System.out.printf("search latency over %d messages: median %d ms, p95 %d ms, max %d ms%n",
+                MESSAGES, median, latencies[latencies.length * 95 / 100], latencies[latencies.length - 1]);
+        assertTrue("Search should be interactive", median < MAX_MEDIAN_LATENCY);
+    }
+
+    @Test
+    public void rankedByRelevance() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO Message (chatroom, messageText, seqNum, timestamp, sender) " +
+                    "VALUES ('chatroom0', 'zebra zebra', 0, 0, 'peer0')");
+        }
+        long id = lastId();
+        List<Long> ids = search("zebra", 0, PAGE);
+        assertEquals(Arrays.asList(id), ids);
+
+        // An older message that matches in the text outranks a newer one that only matches the sender
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO Message (chatroom, messageText, seqNum, timestamp, sender) " +
+                    "VALUES ('chatroom0', 'hello', 0, 0, 'zebra')");
+        }
+        ids = search("zebra", 0, PAGE);
+        assertEquals(Arrays.asList(id, lastId()), ids);
+    }
+
+    @Test
+    public void triggersKeepIndexInSync() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO Message (chatroom, messageText, seqNum, timestamp, sender) " +
+                    "VALUES ('chatroom0', 'quokka', 0, 0, 'peer0')");
+            long id = lastId();
+            assertEquals(Arrays.asList(id), search("quokka", 0, PAGE));
+
+            statement.execute("UPDATE Message SET messageText = 'wombat' WHERE id = " + id);
+            assertTrue(search("quokka", 0, PAGE).isEmpty());
+            assertEquals(Arrays.asList(id), search("wombat", 0, PAGE));
+
+            statement.execute("DELETE FROM Message WHERE id = " + id);
+            assertFalse(search("wombat", 0, PAGE).contains(id));
+        }
+    }
+
+    private static long lastId() throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery("SELECT MAX(id) FROM Message")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package edu.stevens.cs522.chat.web;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.web.client.ChatroomDictionary;
+import edu.stevens.cs522.chat.web.grpc.ChatroomRef;
+import edu.stevens.cs522.chat.web.grpc.DownloadItem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the v1 and v2 wire encodings of a download stream: bytes per message on the wire,
+ * and time per message to parse and convert to entities.  Not part of the unit tests: run it
+ * with ./gradlew :app:benchmark.
+ */
+public class WireEncodingBenchmark {
+
+    private static final int MESSAGES = 20000;
+
+    private static final int CHATROOMS = 20;
+
+    private static final int SENDERS = 100;
+
+    private static final int ROUNDS = 5;
+
+    private static List<Message> messages;
+
+    @BeforeClass
+    public static void createMessages() {
+        Random random = new Random(522);
+        List<UUID> appIds = new ArrayList<>();
+        for (int i = 0; i < SENDERS; i++) {
+            appIds.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+        messages = new ArrayList<>();
+        Instant timestamp = Instant.parse("2025-01-01T00:00:00.123456Z");
+        for (int i = 1; i <= MESSAGES; i++) {
+            int sender = random.nextInt(SENDERS);
+            Message message = new Message();
+            message.id = i;
+            message.chatroom = "chatroom-" + random.nextInt(CHATROOMS);
+            message.messageText = "Message number " + i + " about something or other";
+            message.seqNum = i;
+            message.appID = appIds.get(sender);
+            message.timestamp = timestamp.plusMillis(i * 1500L + random.nextInt(1000));
+            message.latitude = 40.7 + random.nextDouble();
+            message.longitude = -74.0 + random.nextDouble();
+            message.sender = "peer-" + sender;
+            messages.add(message);
+        }
+    }
+
+    /*
+     * A download stream in v1 encoding.
+     */
+    private static List<byte[]> encodeV1() {
+        List<byte[]> stream = new ArrayList<>();
+        for (Message message : messages) {
+            stream.add(DownloadItem.newBuilder().setMessage(RestMethod.extern(message)).build().toByteArray());
+        }
+        return stream;
+    }
+
+    /*
+     * A download stream in v2 encoding, including the chatroom dictionary entries.
+     */
+    private static List<byte[]> encodeV2() {
+        ChatroomDictionary dictionary = new ChatroomDictionary();
+        List<byte[]> stream = new ArrayList<>();
+        for (Message message : messages) {
+            int chatroomId = dictionary.getId(message.chatroom);
+            if (chatroomId < 0) {
+                chatroomId = dictionary.assign(message.chatroom);
+                ChatroomRef ref = ChatroomRef.newBuilder().setId(chatroomId).setName(message.chatroom).build();
+                stream.add(DownloadItem.newBuilder().setChatroomRef(ref).build().toByteArray());
+            }
+            stream.add(DownloadItem.newBuilder().setMessageV2(RestMethod.extern(message, chatroomId)).build().toByteArray());
+        }
+        return stream;
+    }
+
+    /*
+     * Parse and convert a download stream, as the response consumer in RestMethod does.
+     */
+    private static List<Message> decode(List<byte[]> stream) throws Exception {
+        ChatroomDictionary dictionary = new ChatroomDictionary();
+        List<Message> decoded = new ArrayList<>(MESSAGES);
+        for (byte[] bytes : stream) {
+            DownloadItem item = DownloadItem.parseFrom(bytes);
+            if (item.hasMessage()) {
+                decoded.add(RestMethod.intern(item.getMessage()));
+            } else if (item.hasChatroomRef()) {
+                dictionary.put(item.getChatroomRef().getId(), item.getChatroomRef().getName());
+            } else if (item.hasMessageV2()) {
+                decoded.add(RestMethod.intern(item.getMessageV2(), dictionary));
+            }
+        }
+        return decoded;
+    }
+
+    private static long size(List<byte[]> stream) {
+        long size = 0;
+        for (byte[] bytes : stream) {
+            size += bytes.length;
+        }
+        return size;
+    }
+
+    /*
+     * Best of several rounds, in nanoseconds per message.
+     */
+    private static double decodeTime(List<byte[]> stream) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            List<Message> decoded = decode(stream);
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(MESSAGES, decoded.size());
+        }
+        return (double) best / MESSAGES;
+    }
+
+    @Test
+    public void compareEncodings() throws Exception {
+        List<byte[]> v1 = encodeV1();
+        List<byte[]> v2 = encodeV2();
+
+        double v1Bytes = (double) size(v1) / MESSAGES;
+        double v2Bytes = (double) size(v2) / MESSAGES;
+        double v1Time = decodeTime(v1);
+        double v2Time = decodeTime(v2);
+
+        System.out.printf("v1: %.1f bytes/message, %.0f ns/message to decode%n", v1Bytes, v1Time);
+        System.out.printf("v2: %.1f bytes/message, %.0f ns/message to decode%n", v2Bytes, v2Time);
+
+        assertTrue("v2 encoding should be smaller", v2Bytes < v1Bytes);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        List<Message> decoded = decode(encodeV2());
+        for (int i = 0; i < MESSAGES; i++) {
+            Message expected = messages.get(i);
+            Message actual = decoded.get(i);
+            assertEquals(expected.chatroom, actual.chatroom);
+            assertEquals(expected.appID, actual.appID);
+            // Timestamps are kept to the microsecond
+            assertEquals(expected.timestamp, actual.timestamp);
+            assertEquals(expected.seqNum, actual.seqNum);
+            assertEquals(expected.sender, actual.sender);
+        }
+    }
+
+}
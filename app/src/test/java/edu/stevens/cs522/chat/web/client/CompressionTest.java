@@ -0,0 +1,95 @@
+package edu.stevens.cs522.chat.web.client;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import edu.stevens.cs522.chat.web.grpc.DownloadItem;
+import edu.stevens.cs522.chat.web.grpc.Message;
+import io.grpc.Codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips a catch-up stream through the codecs we register, and reports the saving.
+ */
+public class CompressionTest {
+
+    private static final int MESSAGES = 1000;
+
+    /*
+     * Each gRPC message is compressed separately, so this compresses item by item.
+     */
+    private static long[] compress(Codec codec, String text) throws IOException {
+        long raw = 0;
+        long compressed = 0;
+        for (int i = 1; i <= MESSAGES; i++) {
+            byte[] bytes = DownloadItem.newBuilder().setMessage(Message.newBuilder()
+                    .setSeqNum(i)
+                    .setChatroom("chatroom-" + (i % 5))
+                    .setSender("peer-" + (i % 20))
+                    .setAppID("7f1c55a4-6b0e-4e38-9a55-0c1f4a3e" + String.format("%04d", i % 20))
+                    .setTimestamp("2025-01-01T00:00:" + String.format("%02d", i % 60) + ".123456Z")
+                    .setMessageText("Message number " + i + ": " + text)
+                    .build()).build().toByteArray();
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (OutputStream os = codec.compress(buffer)) {
+                os.write(bytes);
+            }
+            byte[] encoded = buffer.toByteArray();
+
+            try (InputStream is = codec.decompress(new ByteArrayInputStream(encoded))) {
+                ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+                byte[] chunk = new byte[1024];
+                int n;
+                while ((n = is.read(chunk)) > 0) {
+                    decoded.write(chunk, 0, n);
+                }
+                assertArrayEquals(bytes, decoded.toByteArray());
+            }
+
+            raw += bytes.length;
+            compressed += encoded.length;
+        }
+        return new long[] { raw, compressed };
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    private static final String SHORT_TEXT = "see you later";
+
+    private static final String LONG_TEXT = repeat("which says much the same as the others around it, ", 12);
+
+    /*
+     * Messages are compressed one at a time, so a short chat message gains nothing (gzip adds
+     * a header and trailer to each message).  This is why small messages are sent uncompressed.
+     */
+    @Test
+    public void smallMessages() throws IOException {
+        long[] sizes = compress(new Codec.Gzip(), SHORT_TEXT);
+        assertTrue(sizes[0] / MESSAGES < CompressionInterceptor.MIN_COMPRESSED_SIZE);
+        compress(new DeflateCodec(), SHORT_TEXT);
+    }
+
+    @Test
+    public void largeMessages() throws IOException {
+        long[] gzip = compress(new Codec.Gzip(), LONG_TEXT);
+        assertTrue(gzip[0] / MESSAGES >= CompressionInterceptor.MIN_COMPRESSED_SIZE);
+        assertTrue(gzip[1] < gzip[0]);
+        long[] deflate = compress(new DeflateCodec(), LONG_TEXT);
+        assertTrue(deflate[1] < gzip[1]);
+    }
+
+}
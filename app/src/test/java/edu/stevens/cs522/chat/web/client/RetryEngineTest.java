@@ -0,0 +1,151 @@
+package edu.stevens.cs522.chat.web.client;
+
+import org.junit.Test;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+import static edu.stevens.cs522.chat.web.client.RetryEngine.BASE_DELAY;
+import static edu.stevens.cs522.chat.web.client.RetryEngine.FAILURE_THRESHOLD;
+import static edu.stevens.cs522.chat.web.client.RetryEngine.MAX_DELAY;
+import static edu.stevens.cs522.chat.web.client.RetryEngine.NO_PUSHBACK;
+import static edu.stevens.cs522.chat.web.client.RetryEngine.NO_RETRY;
+import static edu.stevens.cs522.chat.web.client.RetryEngine.THROTTLE_DELAY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the classification, pushback and circuit breaker, and simulates a fleet of clients
+ * through a server outage, to show that their reconnects are spread out once it recovers.
+ */
+public class RetryEngineTest {
+
+    private static final int UNAVAILABLE = Status.Code.UNAVAILABLE.value();
+
+    private static final int CLIENTS = 1000;
+
+    private static final long OUTAGE = 120000; // milliseconds
+
+    private static final long FIXED_MAX_DELAY = 60000; // milliseconds
+
+    @Test
+    public void classifiesStatusCodes() {
+        assertEquals(RetryEngine.Failure.RETRYABLE, RetryEngine.classify(UNAVAILABLE));
+        assertEquals(RetryEngine.Failure.RETRYABLE, RetryEngine.classify(Status.Code.DEADLINE_EXCEEDED.value()));
+        assertEquals(RetryEngine.Failure.THROTTLED, RetryEngine.classify(Status.Code.RESOURCE_EXHAUSTED.value()));
+        assertEquals(RetryEngine.Failure.FATAL, RetryEngine.classify(Status.Code.UNAUTHENTICATED.value()));
+        assertEquals(RetryEngine.Failure.FATAL, RetryEngine.classify(Status.Code.INVALID_ARGUMENT.value()));
+
+        RetryEngine engine = new RetryEngine(new Random(522));
+        assertEquals(NO_RETRY, engine.onFailure(Status.Code.PERMISSION_DENIED.value(), NO_PUSHBACK, 0));
+        assertTrue(engine.onFailure(Status.Code.RESOURCE_EXHAUSTED.value(), NO_PUSHBACK, 0) >= THROTTLE_DELAY);
+    }
+
+    @Test
+    public void honorsPushback() {
+        Metadata trailers = new Metadata();
+        assertEquals(NO_PUSHBACK, RetryEngine.getPushback(trailers));
+        trailers.put(RetryEngine.PUSHBACK_KEY, "45000");
+        assertEquals(45000, RetryEngine.getPushback(trailers));
+        trailers.put(RetryEngine.PUSHBACK_KEY, "-1");
+        assertEquals(MAX_DELAY, RetryEngine.getPushback(trailers));
+
+        RetryEngine engine = new RetryEngine(new Random(522));
+        assertEquals(45000, engine.onFailure(UNAVAILABLE, 45000, 0));
+    }
+
+    @Test
+    public void circuitBreaker() {
+        RetryEngine engine = new RetryEngine(new Random(522));
+        long now = 0;
+        long delay = 0;
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            assertTrue(engine.allowAttempt(now));
+            delay = engine.onFailure(UNAVAILABLE, NO_PUSHBACK, now);
+        }
+        assertEquals(RetryEngine.State.OPEN, engine.getState());
+        assertFalse(engine.allowAttempt(now + delay - 1));
+
+        // One trial call once the delay has passed
+        now += delay;
+        assertTrue(engine.allowAttempt(now));
+        assertEquals(RetryEngine.State.HALF_OPEN, engine.getState());
+        assertFalse(engine.allowAttempt(now));
+        delay = engine.onFailure(UNAVAILABLE, NO_PUSHBACK, now);
+        assertEquals(RetryEngine.State.OPEN, engine.getState());
+
+        now += delay;
+        assertTrue(engine.allowAttempt(now));
+        engine.onSuccess();
+        assertEquals(RetryEngine.State.CLOSED, engine.getState());
+        assertTrue(engine.allowAttempt(now));
+    }
+
+    private interface Backoff {
+        long next(int client, int attempt, long now);
+    }
+
+    /*
+     * Every client fails at the start of the outage, and retries until it gets through.
+     * Returns the largest number of attempts in any one second once the server is back.
+     */
+    private static int peakLoad(Backoff backoff, long[] recovered) {
+        // (time, client, attempt)
+        PriorityQueue<long[]> attempts = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        for (int client = 0; client < CLIENTS; client++) {
+            attempts.add(new long[] { 0, client, 0 });
+        }
+        int[] load = new int[(int) ((OUTAGE + 10 * MAX_DELAY) / 1000)];
+        while (!attempts.isEmpty()) {
+            long[] attempt = attempts.poll();
+            long now = attempt[0];
+            int client = (int) attempt[1];
+            int n = (int) attempt[2];
+            load[(int) (now / 1000)]++;
+            if (now >= OUTAGE) {
+                recovered[client] = now;
+                continue;
+            }
+            attempts.add(new long[] { now + backoff.next(client, n, now), client, n + 1 });
+        }
+        int peak = 0;
+        for (int second = (int) (OUTAGE / 1000); second < load.length; second++) {
+            peak = Math.max(peak, load[second]);
+        }
+        return peak;
+    }
+
+    @Test
+    public void spreadsReconnects() {
+        long[] fixedRecovered = new long[CLIENTS];
+        // Doubling without jitter: every client retries at the same moments
+        int fixed = peakLoad((client, attempt, now) -> Math.min(BASE_DELAY << attempt, FIXED_MAX_DELAY), fixedRecovered);
+
+        Random random = new Random(522);
+        RetryEngine[] engines = new RetryEngine[CLIENTS];
+        for (int client = 0; client < CLIENTS; client++) {
+            engines[client] = new RetryEngine(random);
+        }
+        long[] recovered = new long[CLIENTS];
+        int jittered = peakLoad((client, attempt, now) -> {
+            RetryEngine engine = engines[client];
+            assertTrue(engine.allowAttempt(now));
+            return engine.onFailure(UNAVAILABLE, NO_PUSHBACK, now);
+        }, recovered);
+
+        long latest = 0;
+        for (long time : recovered) {
+            latest = Math.max(latest, time);
+        }
+        assertEquals(CLIENTS, fixed);
+        // At least ten times lower peak of reconnects per second than without jitter
+        assertTrue("Reconnects should be spread out: peak " + jittered + " against " + fixed,
+                jittered * 10 <= fixed);
+        assertTrue(latest <= OUTAGE + MAX_DELAY);
+    }
+
+}
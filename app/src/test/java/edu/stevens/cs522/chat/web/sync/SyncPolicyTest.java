@@ -0,0 +1,79 @@
+package edu.stevens.cs522.chat.web.sync;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static edu.stevens.cs522.chat.web.sync.SyncPolicy.ACTIVE_INTERVAL;
+import static edu.stevens.cs522.chat.web.sync.SyncPolicy.ACTIVE_WINDOW;
+import static edu.stevens.cs522.chat.web.sync.SyncPolicy.BASE_INTERVAL;
+import static edu.stevens.cs522.chat.web.sync.SyncPolicy.JITTER;
+import static edu.stevens.cs522.chat.web.sync.SyncPolicy.MAX_INTERVAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyncPolicyTest {
+
+    @Test
+    public void activeWhileMessagesFlow() {
+        SyncPolicy policy = new SyncPolicy(new Random(522));
+        policy.setChatroomOpen(true, 0);
+        assertEquals(ACTIVE_INTERVAL, policy.getInterval(1000));
+
+        policy.onSynced(true, 0, 60000);
+        assertEquals(ACTIVE_INTERVAL, policy.getInterval(60000 + ACTIVE_WINDOW - 1));
+        // The conversation has gone quiet
+        assertEquals(BASE_INTERVAL, policy.getInterval(60000 + ACTIVE_WINDOW));
+
+        // Flowing, but the chatroom is not on the screen
+        policy.setChatroomOpen(false, 0);
+        policy.onActivity(200000);
+        assertEquals(BASE_INTERVAL, policy.getInterval(200000));
+    }
+
+    @Test
+    public void backsOffWhileIdle() {
+        SyncPolicy policy = new SyncPolicy(new Random(522));
+        long now = 0;
+        long expected = BASE_INTERVAL;
+        assertEquals(expected, policy.getInterval(now));
+        while (expected < MAX_INTERVAL) {
+            now += policy.getInterval(now);
+            policy.onSynced(false, 0, now);
+            expected = Math.min(MAX_INTERVAL, 2 * expected);
+            assertEquals(expected, policy.getInterval(now));
+        }
+        policy.onSynced(false, 0, now + MAX_INTERVAL);
+        assertEquals(MAX_INTERVAL, policy.getInterval(now + MAX_INTERVAL));
+
+        // Unsent messages keep the interval short
+        policy.onSynced(false, 3, now + 2 * MAX_INTERVAL);
+        assertEquals(BASE_INTERVAL, policy.getInterval(now + 2 * MAX_INTERVAL));
+        policy.onSynced(false, 0, now + 3 * MAX_INTERVAL);
+        assertEquals(MAX_INTERVAL, policy.getInterval(now + 3 * MAX_INTERVAL));
+
+        // A new message, or the network coming back, resets the backoff
+        policy.onActivity(now + 4 * MAX_INTERVAL);
+        policy.onSynced(false, 0, now + 5 * MAX_INTERVAL);
+        assertEquals(2 * BASE_INTERVAL, policy.getInterval(now + 5 * MAX_INTERVAL));
+        policy.onNetworkAvailable();
+        assertEquals(BASE_INTERVAL, policy.getInterval(now + 5 * MAX_INTERVAL));
+    }
+
+    @Test
+    public void jitterSpreadsSyncs() {
+        SyncPolicy policy = new SyncPolicy(new Random(522));
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.nextDelay(0);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min >= Math.round(BASE_INTERVAL * (1 - JITTER)));
+        assertTrue(max <= Math.round(BASE_INTERVAL * (1 + JITTER)));
+        // Spread over most of the range
+        assertTrue(max - min > BASE_INTERVAL * JITTER);
+    }
+
+}
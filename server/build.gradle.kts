@@ -0,0 +1,69 @@
+import com.google.protobuf.gradle.*
+
+// Reference implementation of ChatService, on the JVM, for load testing sync locally.
+// Run with: ./gradlew :server:run --args="8080 chat-data"
+
+plugins {
+    application
+    id("com.google.protobuf")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+application {
+    mainClass.set("edu.stevens.cs522.chat.server.ChatServer")
+}
+
+sourceSets {
+    // The same service definition as the app
+    main {
+        proto {
+            srcDir("../app/src/main/proto")
+        }
+    }
+}
+
+protobuf {
+    protoc { artifact = "com.google.protobuf:protoc:3.25.1" }
+    plugins {
+        id("grpc") {
+            artifact = "io.grpc:protoc-gen-grpc-java:1.64.0"
+        }
+    }
+    generateProtoTasks {
+        all().forEach { task ->
+            task.plugins {
+                id("grpc")
+            }
+        }
+    }
+}
+
+dependencies {
+    implementation(libs.grpc.netty.shaded)
+    implementation(libs.grpc.protobuf)
+    implementation(libs.grpc.stub)
+    compileOnly(libs.annotations.api)
+
+    testImplementation(libs.junit)
+    // In-process transport for the service tests
+    testImplementation(libs.grpc.inprocess)
+}
+
+tasks.test {
+    exclude("**/*Benchmark.class")
+}
+
+// Run with: ./gradlew :server:benchmark
+tasks.register<Test>("benchmark") {
+    description = "Runs the message log benchmark."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    include("**/*Benchmark.class")
+    // The benchmark reports its throughput in the test output
+    testLogging.showStandardStreams = true
+}
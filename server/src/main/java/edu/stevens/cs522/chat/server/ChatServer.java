@@ -0,0 +1,79 @@
+package edu.stevens.cs522.chat.server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import edu.stevens.cs522.chat.server.log.MessageLog;
+import io.grpc.Grpc;
+import io.grpc.InsecureServerCredentials;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+
+/**
+ * Reference chat server, for load testing sync locally.  Listens in plaintext, as the app
+ * expects of a development server (see ChannelManager in the app).
+ *
+ * Usage: ChatServer [port [directory]]
+ */
+public class ChatServer {
+
+    private static final Logger logger = Logger.getLogger(ChatServer.class.getName());
+
+    public static final int DEFAULT_PORT = 8080;
+
+    public static final String DEFAULT_DIRECTORY = "chat-data";
+
+    public static final long SHUTDOWN_TIMEOUT = 30; // seconds
+
+    private final MessageLog log;
+
+    private final ChatServiceImpl service;
+
+    private final Server server;
+
+    public ChatServer(int port, Path directory) throws IOException {
+        this.log = new MessageLog(directory);
+        this.service = new ChatServiceImpl(log);
+        this.server = Grpc.newServerBuilderForPort(port, InsecureServerCredentials.create())
+                .addService(ServerInterceptors.intercept(service, new HeaderServerInterceptor()))
+                .build();
+    }
+
+    public ChatServer start() throws IOException {
+        server.start();
+        logger.info("Chat server listening on port " + server.getPort());
+        return this;
+    }
+
+    public void stop() throws InterruptedException, IOException {
+        server.shutdown();
+        if (!server.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+            server.shutdownNow();
+        }
+        service.logStats();
+        log.close();
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        server.awaitTermination();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Path directory = Paths.get(args.length > 1 ? args[1] : DEFAULT_DIRECTORY);
+
+        final ChatServer chatServer = new ChatServer(port, directory).start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                chatServer.stop();
+            } catch (InterruptedException | IOException e) {
+                e.printStackTrace(System.err);
+            }
+        }));
+        chatServer.awaitTermination();
+    }
+
+}
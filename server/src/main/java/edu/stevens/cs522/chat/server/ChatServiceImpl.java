@@ -0,0 +1,301 @@
+package edu.stevens.cs522.chat.server;
+
+import com.google.protobuf.Empty;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.stevens.cs522.chat.server.log.MessageLog;
+import edu.stevens.cs522.chat.web.grpc.Chatroom;
+import edu.stevens.cs522.chat.web.grpc.ChatroomVersion;
+import edu.stevens.cs522.chat.web.grpc.ChatServiceGrpc;
+import edu.stevens.cs522.chat.web.grpc.DownloadItem;
+import edu.stevens.cs522.chat.web.grpc.Location;
+import edu.stevens.cs522.chat.web.grpc.Message;
+import edu.stevens.cs522.chat.web.grpc.Peer;
+import edu.stevens.cs522.chat.web.grpc.RegistrationRequest;
+import edu.stevens.cs522.chat.web.grpc.SyncRequest;
+import edu.stevens.cs522.chat.web.grpc.UploadItem;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * The chat service, with messages kept in a MessageLog.
+ *
+ * A sync sequences the messages that the client uploads (appending them to the log), forces
+ * them to disk once the upload is complete, and then sends the client every chatroom and
+ * peer, and every message after its version (or after its version for each chatroom it
+ * follows).  The catch-up read is sequential from the log, and only as fast as the client
+ * takes the downloads (flow control), so a large backlog is never buffered in memory.
+ *
+ * Clients retry a sync that fails, and upload their messages in order of id, so an upload
+ * with an id no greater than the last one sequenced for that app is a duplicate, and is not
+ * sequenced again.  Chatrooms, peers and the last ids are rebuilt from the log at startup.
+ *
+ * This is the v1 wire encoding only: the server does not advertise v2, so clients do not
+ * upload in it.  Snapshots and the subscription stream are not implemented; clients fall back
+ * to syncing (see SnapshotLoader and LiveSync in the app).
+ */
+public class ChatServiceImpl extends ChatServiceGrpc.ChatServiceImplBase {
+
+    private static final Logger logger = Logger.getLogger(ChatServiceImpl.class.getName());
+
+    private final MessageLog log;
+
+    private final Set<String> chatrooms = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+
+    /*
+     * The last message id sequenced for each app.
+     */
+    private final Map<String, Long> lastIds = new ConcurrentHashMap<>();
+
+    private final AtomicLong syncs = new AtomicLong();
+
+    private final AtomicLong uploaded = new AtomicLong();
+
+    private final AtomicLong duplicates = new AtomicLong();
+
+    private final AtomicLong downloaded = new AtomicLong();
+
+    public ChatServiceImpl(MessageLog log) throws IOException {
+        this.log = log;
+        MessageLog.Cursor cursor = log.read(0);
+        while (cursor.next()) {
+            remember(parse(cursor));
+        }
+        logger.info(String.format("Recovered %d messages, %d chatrooms, %d peers", log.getLastSeqNum(), chatrooms.size(), peers.size()));
+    }
+
+    @Override
+    public void register(RegistrationRequest request, StreamObserver<Empty> responseObserver) {
+        String chatName = HeaderServerInterceptor.CHAT_NAME_CONTEXT.get();
+        if (chatName == null || chatName.isEmpty()) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Missing chat name").asRuntimeException());
+            return;
+        }
+        updatePeer(chatName, request.hasLocation() ? request.getLocation() : null);
+        logger.info("Registered " + chatName);
+        responseObserver.onNext(Empty.getDefaultInstance());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<UploadItem> sync(StreamObserver<DownloadItem> responseObserver) {
+        final ServerCallStreamObserver<DownloadItem> downloads = (ServerCallStreamObserver<DownloadItem>) responseObserver;
+        final String chatName = HeaderServerInterceptor.CHAT_NAME_CONTEXT.get();
+
+        /*
+         * The handlers can only be set now, before the download has started.
+         */
+        final Download[] download = new Download[1];
+        downloads.setOnCancelHandler(() -> logger.fine("Sync cancelled by the client"));
+        downloads.setOnReadyHandler(() -> {
+            if (download[0] != null) {
+                download[0].run();
+            }
+        });
+
+        return new StreamObserver<UploadItem>() {
+
+            private long version;
+
+            private Map<String, Long> filter;
+
+            private boolean failed;
+
+            @Override
+            public void onNext(UploadItem item) {
+                if (failed) {
+                    return;
+                }
+                try {
+                    if (item.hasRequest()) {
+                        SyncRequest request = item.getRequest();
+                        version = request.getVersion();
+                        if (request.getSubscriptionsCount() > 0) {
+                            filter = new HashMap<>();
+                            for (ChatroomVersion subscription : request.getSubscriptionsList()) {
+                                filter.put(subscription.getChatroom(), subscription.getVersion());
+                            }
+                        }
+                        if (chatName != null && !chatName.isEmpty()) {
+                            updatePeer(chatName, request.hasLocation() ? request.getLocation() : null);
+                        }
+                    } else if (item.hasChatroom()) {
+                        chatrooms.add(item.getChatroom().getName());
+                    } else if (item.hasMessage()) {
+                        upload(item.getMessage());
+                    } else {
+                        fail(Status.UNIMPLEMENTED.withDescription("Only the v1 wire encoding is supported"));
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Could not append to the message log", e);
+                    fail(Status.UNAVAILABLE.withDescription("Could not store the message").withCause(e));
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                logger.fine("Sync failed on the client: " + Status.fromThrowable(t));
+            }
+
+            @Override
+            public void onCompleted() {
+                if (failed) {
+                    return;
+                }
+                // What the client has uploaded is durable before we answer
+                log.flush();
+                download[0] = new Download(downloads, version, filter);
+                download[0].run();
+            }
+
+            private void fail(Status status) {
+                failed = true;
+                downloads.onError(status.asRuntimeException());
+            }
+        };
+    }
+
+    /*
+     * Sends the chatrooms and peers, and then the messages up to the end of the log as it was
+     * when the download started, as fast as the client takes them.
+     */
+    private class Download implements Runnable {
+
+        private final ServerCallStreamObserver<DownloadItem> downloads;
+
+        private final Map<String, Long> filter;
+
+        private final Iterator<DownloadItem> directory;
+
+        private final MessageLog.Cursor cursor;
+
+        private final long limit;
+
+        private boolean done;
+
+        Download(ServerCallStreamObserver<DownloadItem> downloads, long version, Map<String, Long> filter) {
+            this.downloads = downloads;
+            this.filter = filter;
+            List<DownloadItem> items = new ArrayList<>();
+            for (String chatroom : chatrooms) {
+                items.add(DownloadItem.newBuilder().setChatroom(Chatroom.newBuilder().setName(chatroom)).build());
+            }
+            for (Peer peer : peers.values()) {
+                items.add(DownloadItem.newBuilder().setPeer(peer).build());
+            }
+            this.directory = items.iterator();
+            this.limit = log.getLastSeqNum();
+            // With a filter, start from the chatroom that is furthest behind
+            long from = filter == null || filter.isEmpty() ? version : Collections.min(filter.values());
+            this.cursor = log.read(from);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!done && downloads.isReady() && !downloads.isCancelled()) {
+                    if (directory.hasNext()) {
+                        downloads.onNext(directory.next());
+                    } else if (!cursor.next() || cursor.getSeqNum() > limit) {
+                        done = true;
+                        downloads.onCompleted();
+                        syncs.incrementAndGet();
+                    } else {
+                        Message message = parse(cursor);
+                        if (isFollowed(message, filter)) {
+                            downloads.onNext(DownloadItem.newBuilder().setMessage(message).build());
+                            downloaded.incrementAndGet();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not read the message log", e);
+                done = true;
+                downloads.onError(Status.DATA_LOSS.withDescription("Could not read the message log").withCause(e).asRuntimeException());
+            }
+        }
+    }
+
+    /*
+     * With a filter, only messages in the chatrooms listed, after the version for each.
+     */
+    private static boolean isFollowed(Message message, Map<String, Long> filter) {
+        if (filter == null || filter.isEmpty()) {
+            return true;
+        }
+        Long chatroomVersion = filter.get(message.getChatroom());
+        return chatroomVersion != null && message.getSeqNum() > chatroomVersion;
+    }
+
+    /*
+     * Sequence an uploaded message, unless it has been sequenced already.
+     */
+    private synchronized void upload(Message message) throws IOException {
+        Long lastId = lastIds.get(message.getAppID());
+        if (lastId != null && message.getId() <= lastId) {
+            duplicates.incrementAndGet();
+            return;
+        }
+        log.append(seqNum -> message.toBuilder().setSeqNum(seqNum).build().toByteArray());
+        remember(message);
+        uploaded.incrementAndGet();
+    }
+
+    private void remember(Message message) {
+        chatrooms.add(message.getChatroom());
+        peers.put(message.getSender(), Peer.newBuilder()
+                .setName(message.getSender())
+                .setTimestamp(message.getTimestamp())
+                .setLatitude(message.getLatitude())
+                .setLongitude(message.getLongitude())
+                .build());
+        lastIds.merge(message.getAppID(), message.getId(), Math::max);
+    }
+
+    private void updatePeer(String name, Location location) {
+        Peer.Builder peer = Peer.newBuilder().setName(name).setTimestamp(Instant.now().toString());
+        if (location != null) {
+            peer.setLatitude(location.getLatitude()).setLongitude(location.getLongitude());
+        }
+        peers.put(name, peer.build());
+    }
+
+    private static Message parse(MessageLog.Cursor cursor) throws IOException {
+        try {
+            return Message.parseFrom(cursor.getPayload());
+        } catch (InvalidProtocolBufferException e) {
+            throw new IOException("Corrupt message " + cursor.getSeqNum() + " in the log", e);
+        }
+    }
+
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    public void logStats() {
+        logger.info(String.format("%d syncs, %d messages uploaded (%d duplicates), %d downloaded; %s",
+                syncs.get(), uploaded.get(), duplicates.get(), downloaded.get(), log));
+    }
+
+}
@@ -0,0 +1,36 @@
+package edu.stevens.cs522.chat.server;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/*
+ * Makes the app-specific headers that the client sends with every call (see HeaderInterceptor
+ * in the app) available to the service, in the context of the call.
+ */
+public class HeaderServerInterceptor implements ServerInterceptor {
+
+    public static final String APPLICATION_ID = "X-App-Id";
+
+    public static final String CHAT_NAME = "X-Chat-Name";
+
+    private static final Metadata.Key<String> APPLICATION_ID_KEY = Metadata.Key.of(APPLICATION_ID, Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final Metadata.Key<String> CHAT_NAME_KEY = Metadata.Key.of(CHAT_NAME, Metadata.ASCII_STRING_MARSHALLER);
+
+    public static final Context.Key<String> APP_ID_CONTEXT = Context.key("app-id");
+
+    public static final Context.Key<String> CHAT_NAME_CONTEXT = Context.key("chat-name");
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        Context context = Context.current()
+                .withValue(APP_ID_CONTEXT, headers.get(APPLICATION_ID_KEY))
+                .withValue(CHAT_NAME_CONTEXT, headers.get(CHAT_NAME_KEY));
+        return Contexts.interceptCall(context, call, headers, next);
+    }
+
+}
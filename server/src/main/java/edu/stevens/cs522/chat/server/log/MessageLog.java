@@ -0,0 +1,228 @@
+package edu.stevens.cs522.chat.server.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongFunction;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An append-only log of messages, in order of sequence number, in a directory of segment
+ * files that are mapped into memory (see Segment).  Sequence numbers start at 1 and have no
+ * gaps, and the log moves on to a new segment when the current one is full.
+ *
+ * Each segment has a sparse index from sequence number to position, so a client catching up
+ * from a version starts at the nearest indexed record and reads sequentially from there.
+ * Payloads are read straight from the mapped file, without copying them out of it.
+ *
+ * Appends are written to the page cache; flush forces them to disk (a sync does this once
+ * it has appended its uploads, before answering).  When the log is opened, sealed segments
+ * load their saved index, and the last segment is scanned: a record torn by a crash, and
+ * anything after it, is cut off.
+ */
+public class MessageLog implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(MessageLog.class.getName());
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    /**
+     * A reader of the log, from some version on.  next() returns false at the end of the log
+     * as it was then; it may be called again later, for records appended since.
+     */
+    public class Cursor {
+
+        private final long after;
+
+        private Segment segment;
+
+        private int position;
+
+        private int current = -1;
+
+        private Cursor(long after) {
+            this.after = after;
+            Map.Entry<Long, Segment> floor = segments.floorEntry(after + 1);
+            this.segment = floor != null ? floor.getValue() : segments.firstEntry().getValue();
+            this.position = segment.floor(after + 1);
+        }
+
+        public boolean next() {
+            while (true) {
+                if (position < segment.getEnd()) {
+                    current = position;
+                    position += Segment.HEADER + segment.length(current);
+                    if (segment.seqNum(current) > after) {
+                        return true;
+                    }
+                } else if (segment.isSealed() && position >= segment.getEnd()) {
+                    Map.Entry<Long, Segment> next = segments.higherEntry(segment.base);
+                    if (next == null) {
+                        return false;
+                    }
+                    segment = next.getValue();
+                    position = 0;
+                } else {
+                    return false;
+                }
+            }
+        }
+
+        public long getSeqNum() {
+            return segment.seqNum(current);
+        }
+
+        /**
+         * The payload of the current record (read-only, and backed by the mapped file).
+         */
+        public ByteBuffer getPayload() {
+            return segment.payload(current);
+        }
+    }
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private Segment tail;
+
+    private volatile long lastSeqNum;
+
+    private boolean closed;
+
+    public MessageLog(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MessageLog(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        open();
+    }
+
+    private void open() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(file -> file.getFileName().toString().endsWith(Segment.SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        if (files.isEmpty()) {
+            tail = Segment.create(directory, 1, segmentSize);
+            segments.put(tail.base, tail);
+            logger.info("Created message log in " + directory);
+            return;
+        }
+
+        List<Segment> opened = new ArrayList<>();
+        for (Path file : files) {
+            opened.add(Segment.open(file));
+        }
+        long expected = 1;
+        for (int i = 0; i < opened.size(); i++) {
+            Segment segment = opened.get(i);
+            if (segment.base != expected) {
+                throw new IOException(String.format("Message log is missing %d to %d", expected, segment.base - 1));
+            }
+            boolean isTail = i == opened.size() - 1;
+            if (isTail || !segment.loadIndex()) {
+                int cleared = segment.recover();
+                if (cleared > 0) {
+                    logger.warning(String.format("Cut a torn write (%d bytes) from the end of %s", cleared, segment));
+                }
+            }
+            if (!isTail) {
+                segment.setSealed();
+            }
+            segments.put(segment.base, segment);
+            expected = segment.getLast() + 1;
+        }
+        tail = opened.get(opened.size() - 1);
+        lastSeqNum = tail.getLast();
+        logger.info(String.format("Opened message log in %s: %d segments, last sequence number %d", directory, segments.size(), lastSeqNum));
+    }
+
+    /**
+     * Append a record, and return its sequence number.  The encoder is given the sequence
+     * number, so that it can be part of the payload.
+     */
+    public synchronized long append(LongFunction<byte[]> encoder) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Message log is closed");
+        }
+        long seqNum = lastSeqNum + 1;
+        byte[] payload = encoder.apply(seqNum);
+        if (payload.length == 0 || Segment.HEADER + payload.length > segmentSize) {
+            throw new IllegalArgumentException("Record of " + payload.length + " bytes does not fit in a segment");
+        }
+        if (!tail.hasRoom(payload.length)) {
+            roll(seqNum);
+        }
+        tail.append(seqNum, payload);
+        lastSeqNum = seqNum;
+        return seqNum;
+    }
+
+    private void roll(long base) throws IOException {
+        Segment previous = tail;
+        previous.seal();
+        tail = Segment.create(directory, base, segmentSize);
+        segments.put(base, tail);
+        // Only now can readers move on from the previous segment
+        previous.setSealed();
+        logger.fine("Rolled over to a new " + tail);
+    }
+
+    /**
+     * Force what has been appended to disk.
+     */
+    public synchronized void flush() {
+        if (!closed) {
+            tail.flush();
+        }
+    }
+
+    /**
+     * Read the records after this version (sequence number).
+     */
+    public Cursor read(long after) {
+        return new Cursor(after);
+    }
+
+    public long getLastSeqNum() {
+        return lastSeqNum;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        tail.flush();
+        closed = true;
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("message log %s: %d segments, last sequence number %d", directory, segments.size(), lastSeqNum);
+    }
+
+}
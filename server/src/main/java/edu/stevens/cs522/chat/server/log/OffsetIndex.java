@@ -0,0 +1,67 @@
+package edu.stevens.cs522.chat.server.log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sparse index of a segment: the position of one record in every INDEX_INTERVAL bytes or so,
+ * by sequence number.  A read finds the indexed record at or before the one it wants, and
+ * scans forward from there.
+ */
+class OffsetIndex {
+
+    private long[] seqNums = new long[64];
+
+    private int[] positions = new int[64];
+
+    private int count;
+
+    synchronized void add(long seqNum, int position) {
+        if (count == seqNums.length) {
+            seqNums = Arrays.copyOf(seqNums, 2 * count);
+            positions = Arrays.copyOf(positions, 2 * count);
+        }
+        seqNums[count] = seqNum;
+        positions[count] = position;
+        count++;
+    }
+
+    /**
+     * Position of the last indexed record with a sequence number at or before seqNum (0 if
+     * there is none).
+     */
+    synchronized int floor(long seqNum) {
+        int index = Arrays.binarySearch(seqNums, 0, count, seqNum);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return index < 0 ? 0 : positions[index];
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    synchronized void clear() {
+        count = 0;
+    }
+
+    synchronized void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeLong(seqNums[i]);
+            out.writeInt(positions[i]);
+        }
+    }
+
+    synchronized void readFrom(DataInputStream in) throws IOException {
+        clear();
+        int entries = in.readInt();
+        for (int i = 0; i < entries; i++) {
+            add(in.readLong(), in.readInt());
+        }
+    }
+
+}
@@ -0,0 +1,288 @@
+package edu.stevens.cs522.chat.server.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * One file of the message log, mapped into memory, holding the records from sequence number
+ * base on.  The file is allocated at its full size when it is created, and the records are
+ * followed by zeroes: a record length of zero marks the end.
+ *
+ * A record is a header (payload length, CRC-32C of the sequence number and payload, sequence
+ * number) followed by the payload.  The length is written last, and a record is only visible
+ * to readers once end has moved past it.  Only the log's writer appends; any thread may read.
+ *
+ * Once the log moves on to the next segment, this one is sealed: its index is saved next to
+ * it, so that it does not have to be scanned when the log is opened again.
+ */
+class Segment {
+
+    private static final Logger logger = Logger.getLogger(Segment.class.getName());
+
+    static final int HEADER = 16;
+
+    /*
+     * Bytes of records between index entries.
+     */
+    static final int INDEX_INTERVAL = 4096;
+
+    static final String SUFFIX = ".log";
+
+    private static final String INDEX_SUFFIX = ".index";
+
+    final long base;
+
+    private final Path indexPath;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    private final int capacity;
+
+    private final OffsetIndex index = new OffsetIndex();
+
+    /*
+     * Position after the last record, and its sequence number (base - 1 if there is none).
+     */
+    private volatile int end;
+
+    private volatile long last;
+
+    private volatile boolean sealed;
+
+    /*
+     * Position of the last index entry, and how much has been forced to disk (writer only).
+     */
+    private int indexed = -INDEX_INTERVAL;
+
+    private int flushed;
+
+    static Segment create(Path directory, long base, int size) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(name(base) + SUFFIX),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(directory, base, channel, size);
+    }
+
+    static Segment open(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        long base = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(file.getParent(), base, channel, (int) channel.size());
+    }
+
+    private static String name(long base) {
+        return String.format("%020d", base);
+    }
+
+    private Segment(Path directory, long base, FileChannel channel, int capacity) throws IOException {
+        this.base = base;
+        this.indexPath = directory.resolve(name(base) + INDEX_SUFFIX);
+        this.channel = channel;
+        this.capacity = capacity;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        this.last = base - 1;
+    }
+
+    int getEnd() {
+        return end;
+    }
+
+    long getLast() {
+        return last;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    boolean hasRoom(int length) {
+        return (long) end + HEADER + length <= capacity;
+    }
+
+    void append(long seqNum, byte[] payload) {
+        int position = end;
+        buffer.put(position + HEADER, payload);
+        buffer.putLong(position + 8, seqNum);
+        buffer.putInt(position + 4, checksum(position, payload.length));
+        buffer.putInt(position, payload.length);
+        addToIndex(seqNum, position);
+        last = seqNum;
+        // Publishes the record to readers
+        end = position + HEADER + payload.length;
+    }
+
+    int length(int position) {
+        return buffer.getInt(position);
+    }
+
+    long seqNum(int position) {
+        return buffer.getLong(position + 8);
+    }
+
+    /**
+     * The payload of the record at this position, straight from the mapped file.
+     */
+    ByteBuffer payload(int position) {
+        return buffer.slice(position + HEADER, length(position)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Position of a record at or before seqNum, to scan forward from.
+     */
+    int floor(long seqNum) {
+        return index.floor(seqNum);
+    }
+
+    /**
+     * Force what has been appended since the last flush to disk.
+     */
+    void flush() {
+        int end = this.end;
+        if (end > flushed) {
+            buffer.force(flushed, end - flushed);
+            flushed = end;
+        }
+    }
+
+    /**
+     * Rebuild the index by scanning the records, and cut the segment at the first record that
+     * is incomplete or corrupt (a write torn by a crash).  Returns the number of bytes cleared
+     * after the last good record.
+     */
+    int recover() {
+        index.clear();
+        indexed = -INDEX_INTERVAL;
+        int position = 0;
+        long expected = base;
+        while (position <= capacity - HEADER) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > capacity - position - HEADER
+                    || buffer.getLong(position + 8) != expected
+                    || buffer.getInt(position + 4) != checksum(position, length)) {
+                break;
+            }
+            addToIndex(expected, position);
+            position += HEADER + length;
+            expected++;
+        }
+        end = position;
+        last = expected - 1;
+
+        // Whatever follows must not be mistaken for records later
+        int cleared = 0;
+        for (int i = position; i < capacity; i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+                cleared++;
+            }
+        }
+        if (cleared > 0) {
+            buffer.force();
+        }
+        flushed = position;
+        return cleared;
+    }
+
+    /**
+     * No more records will be appended: save the index.  The index file is written to one side
+     * and moved into place, so that a crash leaves either the whole index or none.
+     */
+    void seal() throws IOException {
+        flush();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(last);
+        out.writeInt(end);
+        index.writeTo(out);
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        Path temp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            file.write(ByteBuffer.wrap(bytes.toByteArray()));
+            file.force(true);
+        }
+        Files.move(temp, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Mark the segment as sealed, once the next segment is in place for readers to move on to.
+     */
+    void setSealed() {
+        sealed = true;
+    }
+
+    /**
+     * Load the index saved when the segment was sealed.  Returns false if there is none, or it
+     * is damaged, in which case the segment must be recovered by scanning.
+     */
+    boolean loadIndex() {
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(indexPath);
+            if (bytes.length < 4) {
+                return false;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(bytes, 0, bytes.length - 4);
+            if ((int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+                return false;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+            long last = in.readLong();
+            int end = in.readInt();
+            if (end < 0 || end > capacity || last < base - 1) {
+                return false;
+            }
+            index.readFrom(in);
+            this.last = last;
+            this.end = end;
+            this.flushed = end;
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not load index " + indexPath, e);
+            return false;
+        }
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    private void addToIndex(long seqNum, int position) {
+        if (position - indexed >= INDEX_INTERVAL) {
+            index.add(seqNum, position);
+            indexed = position;
+        }
+    }
+
+    private int checksum(int position, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(position + 8, 8 + length));
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("segment %d: %d bytes, last %d, %d index entries%s", base, end, last, index.size(), sealed ? " (sealed)" : "");
+    }
+
+}
@@ -0,0 +1,212 @@
+package edu.stevens.cs522.chat.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import edu.stevens.cs522.chat.server.log.MessageLog;
+import edu.stevens.cs522.chat.web.grpc.ChatServiceGrpc;
+import edu.stevens.cs522.chat.web.grpc.ChatroomVersion;
+import edu.stevens.cs522.chat.web.grpc.DownloadItem;
+import edu.stevens.cs522.chat.web.grpc.Message;
+import edu.stevens.cs522.chat.web.grpc.RegistrationRequest;
+import edu.stevens.cs522.chat.web.grpc.SyncRequest;
+import edu.stevens.cs522.chat.web.grpc.UploadItem;
+import io.grpc.ClientInterceptor;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Syncs against the service in process, as the app does: uploads are sequenced and echoed
+ * back, catch-up starts from the client's version, retried uploads are not sequenced twice,
+ * and all of this survives a restart.
+ */
+public class ChatServiceImplTest {
+
+    private static final String CHATROOM = "general";
+
+    private static final String OTHER_CHATROOM = "elsewhere";
+
+    private static final String ME = "server-test";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final String name = "chat-server-" + UUID.randomUUID();
+
+    private final String appID = UUID.randomUUID().toString();
+
+    private Path directory;
+
+    private MessageLog log;
+
+    private ChatServiceImpl service;
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    private ClientInterceptor headers;
+
+    private ChatServiceGrpc.ChatServiceStub stub;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder().toPath();
+        start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        stop();
+    }
+
+    @Test
+    public void syncEchoesUploads() throws InterruptedException {
+        ChatServiceGrpc.newBlockingStub(channel).withInterceptors(headers).register(RegistrationRequest.getDefaultInstance());
+
+        List<DownloadItem> downloads = sync(0, null, message(1, CHATROOM), message(2, CHATROOM), message(3, OTHER_CHATROOM));
+        assertEquals(Arrays.asList(1L, 2L, 3L), seqNums(downloads));
+        assertTrue(downloads.stream().anyMatch(item -> item.hasPeer() && item.getPeer().getName().equals(ME)));
+        assertEquals(2, downloads.stream().filter(DownloadItem::hasChatroom).count());
+
+        // Catching up from a version
+        assertEquals(Collections.singletonList(3L), seqNums(sync(2, null)));
+        assertEquals(Collections.emptyList(), seqNums(sync(3, null)));
+
+        // Only the chatrooms followed, after the version for each
+        assertEquals(Collections.singletonList(2L), seqNums(sync(0, Collections.singletonMap(CHATROOM, 1L))));
+    }
+
+    @Test
+    public void retriedUploadIsNotSequencedAgain() throws InterruptedException {
+        sync(0, null, message(1, CHATROOM), message(2, CHATROOM));
+        // The client did not see the response, so it uploads the same messages again
+        List<DownloadItem> downloads = sync(0, null, message(1, CHATROOM), message(2, CHATROOM), message(3, CHATROOM));
+        assertEquals(Arrays.asList(1L, 2L, 3L), seqNums(downloads));
+        assertEquals(2, service.getDuplicateCount());
+    }
+
+    @Test
+    public void recoversAfterRestart() throws InterruptedException, IOException {
+        sync(0, null, message(1, CHATROOM), message(2, OTHER_CHATROOM));
+        stop();
+        start();
+
+        List<DownloadItem> downloads = sync(0, null, message(2, OTHER_CHATROOM), message(3, CHATROOM));
+        assertEquals(Arrays.asList(1L, 2L, 3L), seqNums(downloads));
+        assertEquals(1, service.getDuplicateCount());
+        assertEquals(2, downloads.stream().filter(DownloadItem::hasChatroom).count());
+    }
+
+    private void start() throws IOException {
+        log = new MessageLog(directory);
+        service = new ChatServiceImpl(log);
+        server = InProcessServerBuilder.forName(name)
+                .addService(ServerInterceptors.intercept(service, new HeaderServerInterceptor()))
+                .build()
+                .start();
+        // As HeaderInterceptor in the app
+        Metadata metadata = new Metadata();
+        metadata.put(Metadata.Key.of(HeaderServerInterceptor.APPLICATION_ID, Metadata.ASCII_STRING_MARSHALLER), appID);
+        metadata.put(Metadata.Key.of(HeaderServerInterceptor.CHAT_NAME, Metadata.ASCII_STRING_MARSHALLER), ME);
+        headers = MetadataUtils.newAttachHeadersInterceptor(metadata);
+        channel = InProcessChannelBuilder.forName(name).build();
+        stub = ChatServiceGrpc.newStub(channel).withInterceptors(headers);
+    }
+
+    private void stop() throws IOException {
+        channel.shutdownNow();
+        server.shutdownNow();
+        log.close();
+    }
+
+    /*
+     * A sync as the app does it: the request, the uploads, and then the downloads until the
+     * server completes.
+     */
+    private List<DownloadItem> sync(long version, Map<String, Long> subscriptions, Message... uploads) throws InterruptedException {
+        List<DownloadItem> downloads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        Throwable[] error = new Throwable[1];
+        StreamObserver<UploadItem> upload = stub.sync(new StreamObserver<DownloadItem>() {
+            @Override
+            public void onNext(DownloadItem item) {
+                downloads.add(item);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                error[0] = t;
+                done.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                done.countDown();
+            }
+        });
+
+        SyncRequest.Builder request = SyncRequest.newBuilder().setVersion(version);
+        if (subscriptions != null) {
+            for (Map.Entry<String, Long> subscription : subscriptions.entrySet()) {
+                request.addSubscriptions(ChatroomVersion.newBuilder().setChatroom(subscription.getKey()).setVersion(subscription.getValue()));
+            }
+        }
+        upload.onNext(UploadItem.newBuilder().setRequest(request).build());
+        for (Message message : uploads) {
+            upload.onNext(UploadItem.newBuilder().setMessage(message).build());
+        }
+        upload.onCompleted();
+
+        assertTrue("Sync did not complete", done.await(5, TimeUnit.SECONDS));
+        assertNull(String.valueOf(error[0]), error[0]);
+        return downloads;
+    }
+
+    private Message message(long id, String chatroom) {
+        return Message.newBuilder()
+                .setId(id)
+                .setChatroom(chatroom)
+                .setMessageText("Message " + id)
+                .setAppID(appID)
+                .setTimestamp(Instant.now().toString())
+                .setSender(ME)
+                .build();
+    }
+
+    private static List<Long> seqNums(List<DownloadItem> downloads) {
+        List<Long> seqNums = new ArrayList<>();
+        for (DownloadItem item : downloads) {
+            if (item.hasMessage()) {
+                seqNums.add(item.getMessage().getSeqNum());
+            }
+        }
+        return seqNums;
+    }
+
+}
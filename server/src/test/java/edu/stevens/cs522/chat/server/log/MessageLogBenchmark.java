@@ -0,0 +1,91 @@
+package edu.stevens.cs522.chat.server.log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.UUID;
+
+import edu.stevens.cs522.chat.web.grpc.Message;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Throughput of the message log: appending messages (forced to disk a sync's worth at a
+ * time), and catching up from a version, parsing each message as a sync does.  Not part of
+ * the test task: run it with ./gradlew :server:benchmark.
+ */
+public class MessageLogBenchmark {
+
+    private static final int MESSAGES = 200000;
+
+    /*
+     * Messages uploaded per sync, i.e. per flush.
+     */
+    private static final int BATCH = 100;
+
+    private static final int READS = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendAndCatchUp() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        Message template = Message.newBuilder()
+                .setChatroom("general")
+                .setMessageText("A message of about the length people type on a phone, give or take.")
+                .setAppID(UUID.randomUUID().toString())
+                .setTimestamp(Instant.now().toString())
+                .setLatitude(40.7)
+                .setLongitude(-74.0)
+                .setSender("benchmark")
+                .build();
+
+        try (MessageLog log = new MessageLog(directory)) {
+            long[] bytes = new long[1];
+            long start = System.nanoTime();
+            for (int i = 1; i <= MESSAGES; i++) {
+                Message message = template.toBuilder().setId(i).build();
+                log.append(seqNum -> {
+                    byte[] payload = message.toBuilder().setSeqNum(seqNum).build().toByteArray();
+                    bytes[0] += Segment.HEADER + payload.length;
+                    return payload;
+                });
+                if (i % BATCH == 0) {
+                    log.flush();
+                }
+            }
+            log.flush();
+            report("append", MESSAGES, bytes[0], System.nanoTime() - start);
+
+            // The whole log, then the last tenth of it, as a client that is far or a little behind
+            for (long version : new long[] { 0, MESSAGES - MESSAGES / 10 }) {
+                long elapsed = Long.MAX_VALUE;
+                int count = 0;
+                for (int i = 0; i < READS; i++) {
+                    start = System.nanoTime();
+                    count = 0;
+                    MessageLog.Cursor cursor = log.read(version);
+                    while (cursor.next()) {
+                        Message.parseFrom(cursor.getPayload());
+                        count++;
+                    }
+                    elapsed = Math.min(elapsed, System.nanoTime() - start);
+                }
+                assertEquals(MESSAGES - version, count);
+                report("catch-up from " + version, count, count * (bytes[0] / MESSAGES), elapsed);
+            }
+        }
+    }
+
+    private static void report(String label, long messages, long bytes, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%s: %d messages in %.0f ms, %.0f messages/s, %.1f MB/s%n",
+                label, messages, seconds * 1000, messages / seconds, bytes / seconds / (1 << 20));
+    }
+
+}
@@ -0,0 +1,155 @@
+package edu.stevens.cs522.chat.server.log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Appends and reads across segments, and reopens the log after a clean shutdown, a torn
+ * write, and a lost index.
+ */
+public class MessageLogTest {
+
+    private static final int SEGMENT_SIZE = 16 * 1024;
+
+    private static final int RECORDS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsFromAnyVersion() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (MessageLog log = new MessageLog(directory, SEGMENT_SIZE)) {
+            append(log, 1, RECORDS);
+            assertTrue("Records should span several segments", log.getSegmentCount() > 5);
+
+            for (long version : new long[] { 0, 1, 999, 1000, 2500, RECORDS - 1, RECORDS }) {
+                assertRecords(log, version, RECORDS);
+            }
+            // A cursor at the end picks up later appends
+            MessageLog.Cursor cursor = log.read(RECORDS);
+            assertFalse(cursor.next());
+            append(log, RECORDS + 1, 1);
+            assertTrue(cursor.next());
+            assertEquals(RECORDS + 1, cursor.getSeqNum());
+        }
+    }
+
+    @Test
+    public void reopensWithSavedIndex() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (MessageLog log = new MessageLog(directory, SEGMENT_SIZE)) {
+            append(log, 1, RECORDS);
+        }
+        try (MessageLog log = new MessageLog(directory, SEGMENT_SIZE)) {
+            assertEquals(RECORDS, log.getLastSeqNum());
+            assertRecords(log, 1234, RECORDS);
+            append(log, RECORDS + 1, 10);
+            assertRecords(log, RECORDS - 5, RECORDS + 10);
+        }
+    }
+
+    @Test
+    public void cutsTornWrite() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (MessageLog log = new MessageLog(directory, SEGMENT_SIZE)) {
+            append(log, 1, RECORDS);
+        }
+        // The last record was only partly written: its payload is garbage
+        List<Path> segments = segments(directory);
+        try (RandomAccessFile file = new RandomAccessFile(segments.get(segments.size() - 1).toFile(), "rw")) {
+            long position = findLastRecord(file);
+            file.seek(position + Segment.HEADER);
+            file.write(new byte[] { 'x', 'x', 'x' });
+        }
+
+        try (MessageLog log = new MessageLog(directory, SEGMENT_SIZE)) {
+            assertEquals(RECORDS - 1, log.getLastSeqNum());
+            assertRecords(log, RECORDS - 100, RECORDS - 1);
+            // Appending carries on where the good records end
+            append(log, RECORDS, 2);
+            assertRecords(log, 0, RECORDS + 1);
+        }
+    }
+
+    @Test
+    public void rebuildsLostIndex() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (MessageLog log = new MessageLog(directory, SEGMENT_SIZE)) {
+            append(log, 1, RECORDS);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path index : files.filter(file -> file.toString().endsWith(".index")).collect(Collectors.toList())) {
+                Files.write(index, new byte[] { 1, 2, 3, 4, 5 });
+            }
+        }
+        try (MessageLog log = new MessageLog(directory, SEGMENT_SIZE)) {
+            assertEquals(RECORDS, log.getLastSeqNum());
+            assertRecords(log, 3000, RECORDS);
+        }
+    }
+
+    static void append(MessageLog log, long first, int count) throws IOException {
+        for (long seqNum = first; seqNum < first + count; seqNum++) {
+            assertEquals(seqNum, log.append(MessageLogTest::payload));
+        }
+    }
+
+    static byte[] payload(long seqNum) {
+        return ("Message " + seqNum + " with some text to fill it out").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertRecords(MessageLog log, long version, long last) {
+        MessageLog.Cursor cursor = log.read(version);
+        for (long seqNum = version + 1; seqNum <= last; seqNum++) {
+            assertTrue("Missing record " + seqNum, cursor.next());
+            assertEquals(seqNum, cursor.getSeqNum());
+            ByteBuffer payload = cursor.getPayload();
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            assertEquals(new String(payload(seqNum), StandardCharsets.UTF_8), new String(bytes, StandardCharsets.UTF_8));
+        }
+        assertFalse(cursor.next());
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(Segment.SUFFIX)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /*
+     * Walk the records in the segment file, to the last one.
+     */
+    private static long findLastRecord(RandomAccessFile file) throws IOException {
+        long position = 0;
+        long last = -1;
+        while (position + Segment.HEADER <= file.length()) {
+            file.seek(position);
+            int size = file.readInt();
+            if (size == 0) {
+                break;
+            }
+            last = position;
+            position += Segment.HEADER + size;
+        }
+        assertTrue(last >= 0);
+        return last;
+    }
+
+}
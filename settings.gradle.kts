@@ -15,4 +15,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "Chat-App-Web"
 include(":app")
+// Reference implementation of the chat server, for load testing sync locally
+include(":server")
  
\ No newline at end of file